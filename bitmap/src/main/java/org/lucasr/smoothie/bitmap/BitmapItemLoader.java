@@ -0,0 +1,587 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.bitmap;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.lucasr.smoothie.EncodedMemoryCache;
+import org.lucasr.smoothie.SimpleItemLoader;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+/**
+ * {@code BitmapItemLoader} is a {@link SimpleItemLoader} specialised in
+ * loading and displaying images. It takes care of decoding images at the
+ * size of the target item view and of caching the decoded bitmaps in
+ * memory. Subclasses only have to open the image data and display the
+ * resulting bitmap.
+ *
+ * <p>Images are decoded in a single pass over the image data: the image
+ * bounds are read from a buffered stream which is then rewound to decode
+ * the actual pixels. Images are downsampled with the largest power of two
+ * sample size that keeps them bigger than the target view and then scaled
+ * to the exact target size.</p>
+ *
+ * <p>Cached bitmaps are reused for any target view no bigger than the one
+ * they were decoded for. Bigger target views get the image decoded again
+ * at a size that covers both.</p>
+ *
+ * <p>Bitmaps evicted from the memory cache are kept in a {@link BitmapPool}
+ * and reused to decode new images, avoiding a new pixel allocation per
+ * image. Bitmaps currently displayed in an item view, or loaded and still
+ * waiting to be displayed, are never reused. Those evicted in the meantime
+ * are pooled once they're dropped without being displayed.</p>
+ *
+ * <p>Optionally, the encoded image data can be kept in an
+ * {@link EncodedMemoryCache} so that images evicted from the memory cache
+ * can be decoded again without reading the image data from disk. See
+ * {@link #setEncodedMemoryCache(EncodedMemoryCache)}.</p>
+ *
+ * <p>All caches are trimmed under memory pressure, see
+ * {@link #onTrimMemory(int)}.</p>
+ *
+ * <p>Here is an example of subclassing:</p>
+ * <pre>
+ * public class YourItemLoader extends BitmapItemLoader<Long> {
+ *     private final Context mContext;
+ *
+ *     public YourItemLoader(Context context) {
+ *         super((int) (Runtime.getRuntime().maxMemory() * 0.25f));
+ *         mContext = context;
+ *     }
+ *
+ *     @Override
+ *     public Long getItemParams(Adapter adapter, int position) {
+ *        Cursor c = (Cursor) adapter.getItem(position);
+ *        return c.getLong(c.getColumnIndex(ImageColumns._ID));
+ *     }
+ *
+ *     @Override
+ *     protected InputStream openInputStream(Long id) throws IOException {
+ *         Uri uri = Uri.withAppendedPath(Images.Media.EXTERNAL_CONTENT_URI, String.valueOf(id));
+ *         return mContext.getContentResolver().openInputStream(uri);
+ *     }
+ *
+ *     @Override
+ *     public void displayBitmap(View itemView, Bitmap bitmap, boolean fromMemory) {
+ *         ImageView image = (ImageView) itemView.findViewById(R.id.image);
+ *         image.setImageBitmap(bitmap);
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <Params> - The parameters for loading an image. They're also
+ *        used as the memory cache key.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public abstract class BitmapItemLoader<Params> extends SimpleItemLoader<Params, Bitmap> {
+    private static final String LOGTAG = "SmoothieBitmapItemLoader";
+
+    // Enough to hold the headers of most images, including JPEGs
+    // with embedded EXIF thumbnails.
+    private static final int MARK_LIMIT = 64 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int DEFAULT_POOL_SIZE_RATIO = 4;
+
+    private final LruCache<Params, CachedBitmap> mMemCache;
+    private final BitmapPool mBitmapPool;
+    private final Map<View, Bitmap> mDisplayedBitmaps;
+    private final Map<Bitmap, Integer> mDisplayCounts;
+    private final Map<Bitmap, Integer> mPendingCounts;
+    private final Map<Bitmap, Boolean> mEvictedBitmaps;
+    private volatile EncodedMemoryCache<Params> mEncodedCache;
+
+    /**
+     * Creates a loader with a bitmap pool a quarter of the size of the
+     * memory cache.
+     *
+     * @param memCacheSize - The maximum number of bytes held by the
+     *        memory cache.
+     */
+    public BitmapItemLoader(int memCacheSize) {
+        this(memCacheSize, memCacheSize / DEFAULT_POOL_SIZE_RATIO);
+    }
+
+    /**
+     * @param memCacheSize - The maximum number of bytes held by the
+     *        memory cache.
+     * @param bitmapPoolSize - The maximum number of bytes held by the
+     *        pool of reusable bitmaps.
+     */
+    public BitmapItemLoader(int memCacheSize, int bitmapPoolSize) {
+        mBitmapPool = new BitmapPool(bitmapPoolSize);
+        // Bitmaps are compared by identity. Weak keys let bitmaps go
+        // away with the views and cache entries holding them.
+        mDisplayedBitmaps = new WeakHashMap<View, Bitmap>();
+        mDisplayCounts = new WeakHashMap<Bitmap, Integer>();
+        mPendingCounts = new WeakHashMap<Bitmap, Integer>();
+        mEvictedBitmaps = new WeakHashMap<Bitmap, Boolean>();
+
+        mMemCache = new LruCache<Params, CachedBitmap>(memCacheSize) {
+            @Override
+            protected int sizeOf(Params itemParams, CachedBitmap cached) {
+                return cached.bitmap.getRowBytes() * cached.bitmap.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Params itemParams, CachedBitmap oldCached,
+                    CachedBitmap newCached) {
+                if (evicted) {
+                    recycleBitmap(oldCached.bitmap);
+                }
+            }
+        };
+    }
+
+    /**
+     * Opens the encoded image data for the given parameters. This method
+     * is called in a background thread.
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(android.widget.Adapter, int)}.
+     *
+     * @return A stream with the encoded image data.
+     *
+     * @throws IOException If the image data can't be opened.
+     */
+    protected abstract InputStream openInputStream(Params itemParams) throws IOException;
+
+    /**
+     * Displays the loaded bitmap in the target view. This method is called
+     * in the UI thread.
+     *
+     * @param itemView - The target item view.
+     * @param bitmap - The decoded bitmap, {@code null} if the image failed
+     *        to load.
+     * @param fromMemory - {@code True} if the bitmap has been loaded from
+     *        the memory cache.
+     *
+     * @see SimpleItemLoader#displayItem(View, Object, boolean)
+     */
+    public abstract void displayBitmap(View itemView, Bitmap bitmap, boolean fromMemory);
+
+    /**
+     * Sets the cache to keep encoded image data in. Images are decoded from
+     * the encoded cache, when possible, instead of being read again through
+     * {@link #openInputStream(Object)}.
+     *
+     * @param encodedCache - The encoded image data cache, {@code null} to
+     *        disable it.
+     */
+    public void setEncodedMemoryCache(EncodedMemoryCache<Params> encodedCache) {
+        mEncodedCache = encodedCache;
+    }
+
+    /**
+     * @return The encoded image data cache used by this loader, {@code null}
+     *         if there's none.
+     */
+    public EncodedMemoryCache<Params> getEncodedMemoryCache() {
+        return mEncodedCache;
+    }
+
+    /**
+     * @return The pool of reusable bitmaps used by this loader.
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    @Override
+    public Bitmap loadItemFromMemory(Params itemParams) {
+        final CachedBitmap cached = mMemCache.get(itemParams);
+        return (cached != null ? cached.bitmap : null);
+    }
+
+    @Override
+    public Bitmap loadItemFromMemory(Params itemParams, int targetWidth, int targetHeight) {
+        final CachedBitmap cached = mMemCache.get(itemParams);
+        if (cached == null || !cached.covers(targetWidth, targetHeight)) {
+            return null;
+        }
+
+        return cached.bitmap;
+    }
+
+    @Override
+    public Bitmap loadItem(Params itemParams) {
+        return loadItem(itemParams, 0, 0);
+    }
+
+    @Override
+    public Bitmap loadItem(Params itemParams, int targetWidth, int targetHeight) {
+        final CachedBitmap cached = mMemCache.get(itemParams);
+        if (cached != null) {
+            if (cached.covers(targetWidth, targetHeight)) {
+                return cached.bitmap;
+            }
+
+            // Decode at a size that covers both target views so that
+            // view types with different sizes don't keep replacing
+            // each other's bitmaps.
+            targetWidth = Math.max(targetWidth, cached.targetWidth);
+            targetHeight = Math.max(targetHeight, cached.targetHeight);
+        }
+
+        Bitmap bitmap = null;
+
+        try {
+            bitmap = decodeBitmap(itemParams, targetWidth, targetHeight);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Failed to decode image: " + itemParams, e);
+        }
+
+        // Bitmaps to be displayed are retained as soon as this returns,
+        // see retainItemPart(). Preloaded ones stay poolable.
+        if (bitmap != null) {
+            mMemCache.put(itemParams, new CachedBitmap(bitmap, targetWidth, targetHeight));
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Trims the memory cache, the bitmap pool and the encoded image data
+     * cache according to the given level. Reusable bitmaps are dropped
+     * first, then half of the caches while the app is running low on
+     * memory or in the background, then all of them when the app is
+     * about to be killed. Nothing is trimmed when the UI is merely hidden
+     * so that the list is displayed straight from memory on return.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        // Not memory pressure, the app just went to the background
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+
+        final EncodedMemoryCache<Params> encodedCache = mEncodedCache;
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+            level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mMemCache.evictAll();
+            if (encodedCache != null) {
+                encodedCache.evictAll();
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimMemCacheToSize(mMemCache.size() / 2);
+            if (encodedCache != null) {
+                encodedCache.trimToSize(encodedCache.size() / 2);
+            }
+        }
+
+        // Evicted bitmaps end up in the pool, drop them last
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            mBitmapPool.clear();
+        }
+    }
+
+    @TargetApi(17)
+    private void trimMemCacheToSize(int maxSize) {
+        // LruCache.trimToSize() is only public from Jelly Bean MR1
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            mMemCache.trimToSize(maxSize);
+        } else {
+            mMemCache.evictAll();
+        }
+    }
+
+    @Override
+    final public void displayItem(View itemView, Bitmap result, boolean fromMemory) {
+        // Keep track of the bitmaps being displayed so that they're
+        // not handed over to the pool while on screen.
+        setDisplayedBitmap(itemView, result);
+        displayBitmap(itemView, result, fromMemory);
+    }
+
+    /**
+     * Keeps bitmaps about to be displayed out of the pool, they might be
+     * evicted from the memory cache before they're actually displayed.
+     */
+    @Override
+    final public void retainItemPart(Bitmap result, int itemPart) {
+        synchronized (mDisplayedBitmaps) {
+            final Integer count = mPendingCounts.get(result);
+            mPendingCounts.put(result, (count != null ? count + 1 : 1));
+        }
+    }
+
+    /**
+     * Hands bitmaps evicted while waiting to be displayed over to the
+     * pool, unless they ended up displayed.
+     */
+    @Override
+    final public void releaseItemPart(Bitmap result, int itemPart) {
+        synchronized (mDisplayedBitmaps) {
+            final Integer count = mPendingCounts.get(result);
+            if (count == null) {
+                return;
+            }
+
+            if (count > 1) {
+                mPendingCounts.put(result, count - 1);
+                return;
+            }
+
+            mPendingCounts.remove(result);
+
+            if (!mDisplayCounts.containsKey(result) && mEvictedBitmaps.remove(result) != null) {
+                mBitmapPool.put(result);
+            }
+        }
+    }
+
+    private void recycleBitmap(Bitmap bitmap) {
+        synchronized (mDisplayedBitmaps) {
+            // Displayed bitmaps are never reused, pending ones are pooled
+            // once released if they don't get displayed.
+            if (mDisplayCounts.containsKey(bitmap)) {
+                return;
+            }
+
+            if (mPendingCounts.containsKey(bitmap)) {
+                mEvictedBitmaps.put(bitmap, Boolean.TRUE);
+                return;
+            }
+        }
+
+        mBitmapPool.put(bitmap);
+    }
+
+    private void setDisplayedBitmap(View itemView, Bitmap bitmap) {
+        synchronized (mDisplayedBitmaps) {
+            final Bitmap oldBitmap = (bitmap != null ? mDisplayedBitmaps.put(itemView, bitmap) :
+                    mDisplayedBitmaps.remove(itemView));
+
+            if (oldBitmap != null) {
+                final int count = mDisplayCounts.get(oldBitmap) - 1;
+                if (count > 0) {
+                    mDisplayCounts.put(oldBitmap, count);
+                } else {
+                    mDisplayCounts.remove(oldBitmap);
+                }
+            }
+
+            if (bitmap != null) {
+                final Integer count = mDisplayCounts.get(bitmap);
+                mDisplayCounts.put(bitmap, (count != null ? count + 1 : 1));
+                mEvictedBitmaps.remove(bitmap);
+            }
+        }
+    }
+
+    private Bitmap decodeBitmap(Params itemParams, int targetWidth, int targetHeight)
+            throws IOException {
+        InputStream is = openCachedInputStream(itemParams);
+        if (is == null) {
+            return null;
+        }
+
+        try {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+
+            // Read the image bounds and rewind the stream to decode the
+            // actual pixels. Only re-open the image data if the image
+            // header didn't fit in the marked buffer.
+            is.mark(MARK_LIMIT);
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(is, null, options);
+
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            try {
+                is.reset();
+            } catch (IOException e) {
+                is.close();
+                is = openBufferedInputStream(itemParams);
+                if (is == null) {
+                    return null;
+                }
+            }
+
+            options.inJustDecodeBounds = false;
+            setSampleSize(options, targetWidth, targetHeight);
+            setBitmapToReuse(options);
+
+            try {
+                return BitmapFactory.decodeStream(is, null, options);
+            } catch (IllegalArgumentException e) {
+                // The reused bitmap couldn't hold the decoded image,
+                // decode it again into a newly allocated bitmap.
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+
+                is.close();
+                is = openCachedInputStream(itemParams);
+                if (is == null) {
+                    return null;
+                }
+
+                options.inBitmap = null;
+                return BitmapFactory.decodeStream(is, null, options);
+            }
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+        }
+    }
+
+    private InputStream openCachedInputStream(Params itemParams) throws IOException {
+        final EncodedMemoryCache<Params> encodedCache = mEncodedCache;
+        if (encodedCache == null) {
+            return openBufferedInputStream(itemParams);
+        }
+
+        final InputStream cached = encodedCache.get(itemParams);
+        if (cached != null) {
+            return cached;
+        }
+
+        final InputStream is = openInputStream(itemParams);
+        if (is == null) {
+            return null;
+        }
+
+        try {
+            final InputStream stored = encodedCache.put(itemParams, is);
+            if (stored != null) {
+                return stored;
+            }
+        } finally {
+            is.close();
+        }
+
+        // Too big for the encoded cache, read it straight from the source
+        return openBufferedInputStream(itemParams);
+    }
+
+    private InputStream openBufferedInputStream(Params itemParams) throws IOException {
+        final InputStream is = openInputStream(itemParams);
+        if (is == null) {
+            return null;
+        }
+
+        return new BufferedInputStream(is, BUFFER_SIZE);
+    }
+
+    private static void setSampleSize(BitmapFactory.Options options, int targetWidth,
+            int targetHeight) {
+        options.inSampleSize = 1;
+        options.inScaled = false;
+
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return;
+        }
+
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+
+        // Largest power of two that keeps the decoded image at least
+        // as big as the target size.
+        while (width / (options.inSampleSize * 2) >= targetWidth &&
+               height / (options.inSampleSize * 2) >= targetHeight) {
+            options.inSampleSize *= 2;
+        }
+
+        // Scale the sampled image down to the exact size needed to
+        // cover the target view.
+        final int sampledWidth = width / options.inSampleSize;
+        final int sampledHeight = height / options.inSampleSize;
+
+        final float widthRatio = (float) targetWidth / sampledWidth;
+        final float heightRatio = (float) targetHeight / sampledHeight;
+
+        if (widthRatio >= heightRatio && widthRatio < 1) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        } else if (heightRatio > widthRatio && heightRatio < 1) {
+            options.inScaled = true;
+            options.inDensity = sampledHeight;
+            options.inTargetDensity = targetHeight;
+        }
+    }
+
+    @TargetApi(19)
+    private void setBitmapToReuse(BitmapFactory.Options options) {
+        options.inMutable = true;
+
+        if (!BitmapPool.isSupported()) {
+            return;
+        }
+
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+
+        if (options.inScaled) {
+            final float scale = (float) options.inTargetDensity / options.inDensity;
+            width = (int) (width * scale + 0.5f);
+            height = (int) (height * scale + 0.5f);
+        }
+
+        options.inBitmap = mBitmapPool.get(width * height * getBytesPerPixel(options.inPreferredConfig));
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+
+        return 4;
+    }
+
+    private static final class CachedBitmap {
+        public final Bitmap bitmap;
+        public final int targetWidth;
+        public final int targetHeight;
+
+        public CachedBitmap(Bitmap bitmap, int targetWidth, int targetHeight) {
+            this.bitmap = bitmap;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+        }
+
+        public boolean covers(int width, int height) {
+            // Bitmaps decoded with no target size are full size. Any
+            // cached bitmap will do for views with no known size.
+            if (targetWidth <= 0 || targetHeight <= 0 || width <= 0 || height <= 0) {
+                return true;
+            }
+
+            return (targetWidth >= width && targetHeight >= height);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.bitmap;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * <p>A pool of mutable {@link Bitmap}s that can be reused through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap inBitmap} when
+ * decoding new images. Bitmaps are bucketed by their allocation size so
+ * that a decode can quickly find a bitmap big enough to hold its
+ * pixels.</p>
+ *
+ * <p>{@link BitmapItemLoader} feeds the pool with the bitmaps evicted from
+ * its memory cache. Reusing bitmaps of different dimensions requires
+ * KitKat, the pool is a no-op on older platforms.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class BitmapPool {
+    // Don't reuse bitmaps that are way bigger than needed, they would
+    // hold a lot more memory than the decoded image actually uses.
+    private static final int MAX_SIZE_RATIO = 2;
+
+    private final int mMaxSize;
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets;
+    private final LinkedList<Bitmap> mBitmaps;
+    private int mSize;
+
+    /**
+     * @param maxSize - The maximum number of bytes held by the pool.
+     */
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+        mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+        mBitmaps = new LinkedList<Bitmap>();
+        mSize = 0;
+    }
+
+    /**
+     * @return Whether bitmaps can be reused on this platform.
+     */
+    public static boolean isSupported() {
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT);
+    }
+
+    /**
+     * Adds a bitmap to the pool. The bitmap must not be displayed anywhere
+     * once it's added as its pixels will be overwritten by a later decode.
+     *
+     * @param bitmap - A mutable bitmap.
+     */
+    @TargetApi(19)
+    public synchronized void put(Bitmap bitmap) {
+        if (!isSupported() || bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+
+        final int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSize) {
+            return;
+        }
+
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+
+        bucket.addLast(bitmap);
+        mBitmaps.addLast(bitmap);
+        mSize += size;
+
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Takes a bitmap that can hold at least the given number of bytes
+     * out of the pool.
+     *
+     * @param size - The number of bytes needed by the decoded image.
+     *
+     * @return A reusable bitmap or {@code null} if there's no suitable
+     *         bitmap in the pool.
+     */
+    @TargetApi(19)
+    public synchronized Bitmap get(int size) {
+        final Map.Entry<Integer, LinkedList<Bitmap>> entry = mBuckets.ceilingEntry(size);
+        if (entry == null || entry.getKey() > size * MAX_SIZE_RATIO) {
+            return null;
+        }
+
+        final LinkedList<Bitmap> bucket = entry.getValue();
+        final Bitmap bitmap = bucket.removeLast();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+
+        mBitmaps.remove(bitmap);
+        mSize -= entry.getKey();
+
+        return bitmap;
+    }
+
+    /**
+     * Drops the oldest bitmaps from the pool until it holds at most
+     * the given number of bytes.
+     *
+     * @param maxSize - The maximum number of bytes to keep in the pool.
+     */
+    @TargetApi(19)
+    public synchronized void trimToSize(int maxSize) {
+        while (mSize > maxSize && !mBitmaps.isEmpty()) {
+            final Bitmap bitmap = mBitmaps.removeFirst();
+            final int size = bitmap.getAllocationByteCount();
+
+            final LinkedList<Bitmap> bucket = mBuckets.get(size);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(size);
+            }
+
+            mSize -= size;
+        }
+    }
+
+    /**
+     * Drops all bitmaps from the pool.
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return The number of bytes currently held by the pool.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+}
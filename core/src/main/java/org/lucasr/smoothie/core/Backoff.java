@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+/**
+ * {@code Backoff} computes retry delays for failed loads.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class Backoff {
+    private Backoff() {
+    }
+
+    /**
+     * @param failureCount - The number of consecutive failures, at least 1.
+     * @param initialDelay - The delay after the first failure, in milliseconds.
+     * @param maxDelay - The maximum delay, in milliseconds.
+     *
+     * @return The initial delay doubled on each consecutive failure,
+     *         capped to the maximum delay.
+     */
+    public static long getDelay(int failureCount, long initialDelay, long maxDelay) {
+        final long delay = initialDelay << Math.min(Math.max(failureCount - 1, 0), 16);
+        return Math.min(delay, maxDelay);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+/**
+ * {@code Clock} is the time source of a {@link LoadScheduler} e.g.
+ * {@code SystemClock} on Android, or a virtual clock in simulations.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public interface Clock {
+    /**
+     * @return Milliseconds since some arbitrary, fixed point in time. The
+     *         value never goes backwards.
+     */
+    public long uptimeMillis();
+}
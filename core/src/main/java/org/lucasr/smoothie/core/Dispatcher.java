@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+/**
+ * {@code Dispatcher} runs tasks on the thread a {@link LoadScheduler} is
+ * driven from, and item targets are updated on e.g. a {@code Handler}
+ * bound to the UI thread on Android.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public interface Dispatcher {
+    /**
+     * Runs the given task on the dispatch thread, after the tasks already
+     * posted.
+     *
+     * @param task - The task to run.
+     */
+    public void post(Runnable task);
+
+    /**
+     * Runs the given task on the dispatch thread after the given delay.
+     *
+     * @param task - The task to run.
+     * @param delay - The delay in milliseconds.
+     */
+    public void postDelayed(Runnable task, long delay);
+
+    /**
+     * Removes pending posts of the given task.
+     *
+     * @param task - The task to remove.
+     */
+    public void removeCallbacks(Runnable task);
+
+    /**
+     * @return Whether the calling thread is the dispatch thread.
+     */
+    public boolean isDispatchThread();
+}
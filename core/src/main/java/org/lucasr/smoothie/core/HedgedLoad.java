@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * <p>{@code HedgedLoad} tracks one load attempt: the load itself and, if
+ * it takes longer than most loads, a hedged load doing the same work
+ * concurrently. The first of the two to {@link #complete(boolean)} wins
+ * and the other one is cancelled. Cancelling the attempt cancels both.</p>
+ *
+ * <p>The hedge delay is usually the 95th percentile of the recent load
+ * latencies, see {@link LatencyTracker}.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class HedgedLoad {
+    private Future<?> mLoad;
+    private Future<?> mHedgedLoad;
+    private boolean mDone;
+    private boolean mCancelled;
+
+    /**
+     * @param load - The load being tracked.
+     */
+    public synchronized void setLoad(Future<?> load) {
+        mLoad = load;
+
+        // Cancelled before the load was handed over
+        if (mCancelled) {
+            load.cancel(true);
+        }
+    }
+
+    /**
+     * Starts the hedged load, unless the attempt is already done or
+     * hedged.
+     *
+     * @param executor - The executor to run the hedged load on.
+     * @param hedgedLoad - The hedged load.
+     *
+     * @return The hedged load, or {@code null} if it wasn't started.
+     */
+    public synchronized Future<?> hedge(Executor executor, RunnableFuture<?> hedgedLoad) {
+        if (mDone || mHedgedLoad != null) {
+            return null;
+        }
+
+        mHedgedLoad = hedgedLoad;
+        executor.execute(hedgedLoad);
+
+        return mHedgedLoad;
+    }
+
+    /**
+     * @return Whether a hedged load is running for this attempt.
+     */
+    public synchronized boolean isHedged() {
+        return (!mDone && mHedgedLoad != null);
+    }
+
+    /**
+     * @return Whether the attempt completed or was cancelled.
+     */
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Claims the attempt for a load that just finished and cancels the
+     * other one.
+     *
+     * @param hedged - Whether the hedged load is the one finishing.
+     *
+     * @return Whether the attempt was claimed. Only the first call for an
+     *         attempt not cancelled claims it.
+     */
+    public boolean complete(boolean hedged) {
+        final Future<?> other;
+
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+
+            mDone = true;
+            other = (hedged ? mLoad : mHedgedLoad);
+        }
+
+        if (other != null) {
+            other.cancel(true);
+        }
+
+        return true;
+    }
+
+    /**
+     * Cancels the load and the hedged load. Neither can complete the
+     * attempt afterwards.
+     */
+    public void cancel() {
+        final Future<?> load;
+        final Future<?> hedgedLoad;
+
+        synchronized (this) {
+            mDone = true;
+            mCancelled = true;
+            load = mLoad;
+            hedgedLoad = mHedgedLoad;
+        }
+
+        if (load != null) {
+            load.cancel(true);
+        }
+
+        if (hedgedLoad != null) {
+            hedgedLoad.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <p>{@code ItemSource} loads and displays the item data scheduled by a
+ * {@link LoadScheduler}, and tells it about the targets the items are
+ * displayed in e.g. list item views. It's implemented by Smoothie's
+ * {@code ItemLoader} on Android.</p>
+ *
+ * <p>Methods are called on the {@link Dispatcher}'s thread unless stated
+ * otherwise.</p>
+ *
+ * @param <Target> - The type of the targets items are displayed in.
+ * @param <Params> - The parameters for loading an item.
+ * @param <Result> - The result of the item loading operation.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public interface ItemSource<Target, Params, Result> {
+    /**
+     * @param target - A target bound to an item.
+     *
+     * @return The width of the target, or 0 if unknown e.g. not laid out
+     *         yet.
+     */
+    public int getTargetWidth(Target target);
+
+    /**
+     * @param target - A target bound to an item.
+     *
+     * @return The height of the target, or 0 if unknown e.g. not laid out
+     *         yet.
+     */
+    public int getTargetHeight(Target target);
+
+    /**
+     * Attempts to load the item data from memory.
+     *
+     * @param itemParams - The item parameters.
+     * @param itemPart - The item part to load.
+     * @param targetWidth - The width of the target, or 0 if unknown.
+     * @param targetHeight - The height of the target, or 0 if unknown.
+     *
+     * @return The cached item data, {@code null} if there's none suitable
+     *         for the given size.
+     */
+    public Result loadItemPartFromMemory(Params itemParams, int itemPart, int targetWidth,
+            int targetHeight);
+
+    /**
+     * Loads the item data. This method is called in a background thread
+     * and can block.
+     *
+     * @param itemParams - The item parameters.
+     * @param itemPart - The item part to load.
+     * @param targetWidth - The width of the target, or 0 if unknown.
+     * @param targetHeight - The height of the target, or 0 if unknown.
+     *
+     * @return The loaded item data, or {@code null} if it failed to load.
+     */
+    public Result loadItemPart(Params itemParams, int itemPart, int targetWidth, int targetHeight);
+
+    /**
+     * Starts loading the item data without blocking the calling thread.
+     * This method is called in a background thread, before falling back
+     * to {@link #loadItemPart(Object, int, int, int)}.
+     *
+     * @param itemParams - The item parameters.
+     * @param itemPart - The item part to load.
+     * @param callback - The callback to deliver the loaded item data to,
+     *        from any thread.
+     *
+     * @return A handle to cancel the load, or {@code null} to load the
+     *         item data synchronously instead.
+     */
+    public Cancellable loadItemPartAsync(Params itemParams, int itemPart, LoadCallback<Result> callback);
+
+    /**
+     * Displays the loaded item data in the given target.
+     *
+     * @param target - The target bound to the item.
+     * @param result - The loaded item data.
+     * @param itemPart - The item part to display.
+     * @param fromMemory - Whether the item data came from
+     *        {@link #loadItemPartFromMemory(Object, int, int, int)}.
+     */
+    public void displayItemPart(Target target, Result result, int itemPart, boolean fromMemory);
+
+    /**
+     * Called when loaded item data is handed over to be displayed later.
+     * This method might be called in any thread.
+     *
+     * @param result - The item data about to be displayed.
+     * @param itemPart - The item part the data belongs to.
+     */
+    public void retainItemPart(Result result, int itemPart);
+
+    /**
+     * Called once the item data handed over by
+     * {@link #retainItemPart(Object, int)} has been displayed, or dropped.
+     *
+     * @param result - The item data retained before.
+     * @param itemPart - The item part the data belongs to.
+     */
+    public void releaseItemPart(Result result, int itemPart);
+
+    /**
+     * Writes the given item parameters to a warm start snapshot.
+     *
+     * @param itemParams - The item parameters.
+     * @param out - The snapshot to write the parameters to.
+     *
+     * @return Whether the parameters have been written.
+     *
+     * @throws IOException If the parameters can't be written.
+     */
+    public boolean writeItemParams(Params itemParams, DataOutput out) throws IOException;
+
+    /**
+     * Reads item parameters written by
+     * {@link #writeItemParams(Object, DataOutput)}. This method is called
+     * in a background thread.
+     *
+     * @param in - The snapshot to read the parameters from.
+     *
+     * @return The restored parameters, or {@code null} to stop reading the
+     *         snapshot.
+     *
+     * @throws IOException If the parameters can't be read.
+     */
+    public Params readItemParams(DataInput in) throws IOException;
+
+    /**
+     * Receives the item data loaded by
+     * {@link ItemSource#loadItemPartAsync(Object, int, LoadCallback)}.
+     */
+    public interface LoadCallback<Result> {
+        /**
+         * Delivers the loaded item data. Only the first call for each
+         * load is taken into account.
+         *
+         * @param result - The loaded item data, or {@code null} if the item
+         *        failed to load.
+         */
+        public void onItemPartLoaded(Result result);
+    }
+
+    /**
+     * Cancels an asynchronous load started by
+     * {@link ItemSource#loadItemPartAsync(Object, int, LoadCallback)}.
+     */
+    public interface Cancellable {
+        /**
+         * Cancels the load. This method is called on the dispatch thread
+         * and must not block.
+         */
+        public void cancel();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import java.util.Arrays;
+
+/**
+ * {@code LatencyTracker} keeps the most recent load latencies and
+ * computes their 95th percentile. This class is thread-safe.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class LatencyTracker {
+    private static final int SAMPLE_COUNT = 100;
+    private static final int MIN_SAMPLE_COUNT = 20;
+
+    private final long[] mSamples;
+    private int mCount;
+    private int mNext;
+    private long mPercentile95;
+    private boolean mDirty;
+
+    public LatencyTracker() {
+        mSamples = new long[SAMPLE_COUNT];
+        mCount = 0;
+        mNext = 0;
+        mPercentile95 = -1;
+        mDirty = false;
+    }
+
+    /**
+     * @param latency - A load latency, in milliseconds.
+     */
+    public synchronized void add(long latency) {
+        mSamples[mNext] = latency;
+        mNext = (mNext + 1) % SAMPLE_COUNT;
+        mCount = Math.min(mCount + 1, SAMPLE_COUNT);
+        mDirty = true;
+    }
+
+    /**
+     * @return The 95th percentile of the recent latencies, or -1 if
+     *         there are not enough samples yet.
+     */
+    public synchronized long getPercentile95() {
+        if (mCount < MIN_SAMPLE_COUNT) {
+            return -1;
+        }
+
+        if (mDirty) {
+            final long[] sorted = new long[mCount];
+            System.arraycopy(mSamples, 0, sorted, 0, mCount);
+            Arrays.sort(sorted);
+
+            mPercentile95 = sorted[Math.min(mCount - 1, (int) (mCount * 0.95f))];
+            mDirty = false;
+        }
+
+        return mPercentile95;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>{@code LoadExecutor} runs the loads of a {@link LoadScheduler} in
+ * {@link LoadPriority} order, with a limit on how many loads run at once.
+ * Queued loads can be taken out of the queue e.g. to be queued again
+ * with a new priority. Only {@link Comparable} tasks are executed.</p>
+ *
+ * <p>{@link LoadThreadPoolExecutor} is the default implementation.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public interface LoadExecutor extends Executor {
+    /**
+     * Removes a queued task. Running tasks are left alone.
+     *
+     * @param task - The task to remove.
+     *
+     * @return Whether the task was queued.
+     */
+    public boolean remove(Runnable task);
+
+    /**
+     * Removes the cancelled {@link java.util.concurrent.Future} tasks
+     * from the queue.
+     */
+    public void purge();
+
+    /**
+     * @return The queued tasks, in no particular order.
+     */
+    public Collection<Runnable> getQueue();
+
+    /**
+     * Sets the maximum number of loads running at once. Running loads are
+     * left alone when the limit is lowered.
+     *
+     * @param maxRunningCount - The maximum number of running loads.
+     */
+    public void setMaxRunningCount(int maxRunningCount);
+
+    /**
+     * Holds the queued loads while paused. Running loads are left alone.
+     *
+     * @param paused - {@code true} to pause, {@code false} to resume.
+     */
+    public void setPaused(boolean paused);
+
+    /**
+     * Starts the threads needed to run loads ahead of the first one, if
+     * the executor has any.
+     *
+     * @return The number of threads started.
+     */
+    public int prestartAllCoreThreads();
+
+    /**
+     * Creates the {@link LoadExecutor} of a {@link LoadScheduler}, on its
+     * first load.
+     */
+    public interface Factory {
+        /**
+         * @param maxRunningCount - The initial maximum number of loads
+         *        running at once.
+         * @param maximumPoolSize - The maximum number of loads that can
+         *        ever run at once, the running limit is never raised past
+         *        it.
+         *
+         * @return A new executor.
+         */
+        public LoadExecutor createLoadExecutor(int maxRunningCount, int maximumPoolSize);
+    }
+}
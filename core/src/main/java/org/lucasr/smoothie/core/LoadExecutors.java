@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@code LoadExecutors} creates executors to run item loads on a plain
+ * JVM e.g. to benchmark loaders outside of Android.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class LoadExecutors {
+    private static final String THREAD_NAME = "SmoothieLoader-";
+
+    private LoadExecutors() {
+    }
+
+    /**
+     * Creates a fixed-size thread pool running the pending loads in
+     * {@link LoadPriority} order. Idle threads go away after a minute.
+     * Only {@link Comparable} tasks can be run by the returned executor.
+     *
+     * @param threadCount - The number of threads.
+     *
+     * @return A new priority thread pool.
+     */
+    public static ThreadPoolExecutor newPriorityThreadPool(int threadCount) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new LoadThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * @return Whether the running JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadPerTaskSupported() {
+        return (getVirtualThreadPerTaskMethod() != null);
+    }
+
+    /**
+     * Creates an executor running each load in its own virtual thread. A
+     * load blocked on I/O doesn't hold a platform thread, so any number of
+     * loads can be in flight at once. Loads are not queued and therefore
+     * not ordered by priority. Only available on JVMs with virtual threads
+     * i.e. Java 21 and later.
+     *
+     * @return A new virtual thread per task executor.
+     *
+     * @throws UnsupportedOperationException If the running JVM doesn't
+     *         support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        final Method method = getVirtualThreadPerTaskMethod();
+        if (method == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not accessible", e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Failed to create virtual thread executor",
+                    e.getCause());
+        }
+    }
+
+    private static Method getVirtualThreadPerTaskMethod() {
+        // Looked up by reflection so that the core module still builds
+        // and runs on older JVMs and on Android.
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static final class LoadThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, THREAD_NAME + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
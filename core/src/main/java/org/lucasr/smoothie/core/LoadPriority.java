@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import java.util.Comparator;
+
+/**
+ * {@code LoadPriority} describes how urgent a pending load is. Loads are
+ * ordered with {@link #COMPARATOR}:
+ *
+ * <ul>
+ * <li>Loads for visible items come before preloads.</li>
+ * <li>Then loads due sooner come first. Visible loads are always due, and
+ * preloads only get deadlines with deadline scheduling enabled.</li>
+ * <li>Then lower item parts come first.</li>
+ * <li>Then older loads come first.</li>
+ * </ul>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public interface LoadPriority {
+    public static final Comparator<LoadPriority> COMPARATOR = new Comparator<LoadPriority>() {
+        @Override
+        public int compare(LoadPriority p1, LoadPriority p2) {
+            final boolean visible1 = p1.isVisible();
+            final boolean visible2 = p2.isVisible();
+
+            if (visible1 != visible2) {
+                return (visible1 ? -1 : 1);
+            }
+
+            final long deadline1 = p1.getDeadline();
+            final long deadline2 = p2.getDeadline();
+            if (deadline1 != deadline2) {
+                return (deadline1 < deadline2 ? -1 : 1);
+            }
+
+            final int itemPart1 = p1.getItemPart();
+            final int itemPart2 = p2.getItemPart();
+            if (itemPart1 != itemPart2) {
+                return (itemPart1 < itemPart2 ? -1 : 1);
+            }
+
+            final long timestamp1 = p1.getTimestamp();
+            final long timestamp2 = p2.getTimestamp();
+            if (timestamp1 != timestamp2) {
+                return (timestamp1 < timestamp2 ? -1 : 1);
+            }
+
+            return 0;
+        }
+    };
+
+    /**
+     * @return Whether the load is for an item currently on screen.
+     */
+    public boolean isVisible();
+
+    /**
+     * @return The time the item is expected on screen, or 0 if unknown.
+     */
+    public long getDeadline();
+
+    /**
+     * @return The item part being loaded.
+     */
+    public int getItemPart();
+
+    /**
+     * @return The time the load was last requested, or a counter
+     *         increasing with each request.
+     */
+    public long getTimestamp();
+}
@@ -0,0 +1,2268 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>{@code LoadScheduler} is the request scheduling engine behind
+ * Smoothie's {@code ItemLoader}. It keeps the table of item requests of
+ * each container e.g. a list, orders their loads with the
+ * {@link LoadPriority} policy, promotes preloads to visible loads and
+ * demotes them back, and cancels requests that are not relevant anymore
+ * as the container scrolls. It also sheds pending requests past a limit,
+ * retries failed loads with {@link Backoff}, abandons loads running past
+ * their deadline, hedges slow loads with {@link HedgedLoad}, and restores
+ * requests from warm start snapshots.</p>
+ *
+ * <p>It has no platform dependencies. Time, the UI thread, the loader
+ * threads and the item data are abstracted behind {@link Clock},
+ * {@link Dispatcher}, {@link LoadExecutor} and {@link ItemSource}. The
+ * targets items are displayed in e.g. list item views, and their
+ * containers, are only used as keys. On Android, {@code ItemLoader} is a
+ * thin adapter around it. The simulator drives it on virtual time.</p>
+ *
+ * <p>All methods must be called on the {@link Dispatcher}'s thread unless
+ * stated otherwise. Each item update round is driven like
+ * {@code ItemManager} does:</p>
+ *
+ * <pre>
+ * // When a target is bound to a position e.g. from Adapter.getView()
+ * scheduler.performLoadItem(container, target, itemParams, position, partCount,
+ *         viewType, shouldDisplayItem, false);
+ *
+ * // On each item update round
+ * for (Target target : visibleTargets) {
+ *     scheduler.performDisplayItem(container, target, timestamp++);
+ * }
+ * for (int i = firstPreloadPosition; i &lt; endPreloadPosition; i++) {
+ *     scheduler.performPreloadItemPart(container, itemParams, i, 0, viewType, timestamp, deadline);
+ * }
+ * scheduler.cancelObsoleteRequests(container, lastUpdateTimestamp);
+ * </pre>
+ *
+ * @param <Target> - The type of the targets items are displayed in.
+ * @param <Params> - The parameters for loading an item.
+ * @param <Result> - The result of the item loading operation.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class LoadScheduler<Target, Params, Result> {
+    private static final int SNAPSHOT_MAGIC = 0x534d5753;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final int INVALID_POSITION = -1;
+
+    private static final long INITIAL_RETRY_DELAY = 1000;
+
+    // Expired failures are only dropped on lookup, prune them
+    // once there's this many around.
+    private static final int MAX_FAILURES_BEFORE_PRUNING = 256;
+
+    private static final String TRACE_QUEUE = "queuedLoad";
+    private static final String TRACE_LOAD = "load";
+    private static final String TRACE_HEDGED_LOAD = "hedgedLoad";
+
+    private final ItemSource<Target, Params, Result> mSource;
+    private final Clock mClock;
+    private final Dispatcher mDispatcher;
+    private final LoadExecutor.Factory mExecutorFactory;
+    private final LoadTracer mTracer;
+
+    private final Map<Target, ItemState<Params>> mItemStates;
+    private final Map<Object, ConcurrentMap<String, ItemRequest<Target, Params, Result>>> mContainerRequests;
+    private final Map<Object, Boolean> mDemotedContainers;
+    private final Map<Object, ScrollRecorder> mContainerRecorders;
+    private final Map<Integer, ItemSize> mItemSizes;
+    private final ConcurrentMap<String, ItemRequest<Target, Params, Result>> mWarmStartRequests;
+    private final RequestStats mStats;
+
+    private final int mThreadPoolSize;
+    private final int mMaxPendingRequests;
+    private final long mFailureTtl;
+    private final int mMaxRetries;
+    private final ConcurrentMap<FailureKey<Params>, Failure> mFailures;
+    private final long mLoadDeadline;
+    private final Map<Integer, Long> mPartLoadDeadlines;
+    private final boolean mHedgedLoadsEnabled;
+    private final ConcurrentMap<Integer, LatencyTracker> mLatencyTrackers;
+
+    private int mExtraThreadCount;
+    private int mThrottleCount;
+    private volatile boolean mThrottled;
+    private int mPauseCount;
+    private volatile LoadExecutor mExecutor;
+
+    static final class ItemState<Params> {
+        public boolean shouldLoadItem;
+        public Params itemParams;
+        public int position;
+        public int partCount;
+        public int displayedPartCount;
+        public int viewType;
+    }
+
+    static final class ItemSize {
+        public int width;
+        public int height;
+    }
+
+    static final class Failure {
+        public final int count;
+        public final long time;
+
+        public Failure(int count, long time) {
+            this.count = count;
+            this.time = time;
+        }
+    }
+
+    private LoadScheduler(ItemSource<Target, Params, Result> source, Clock clock, Dispatcher dispatcher,
+            LoadExecutor.Factory executorFactory, LoadTracer tracer, int threadPoolSize,
+            int maxPendingRequests, long failureTtl, int maxRetries, long loadDeadline,
+            Map<Integer, Long> partLoadDeadlines, boolean hedgedLoadsEnabled) {
+        mSource = source;
+        mClock = clock;
+        mDispatcher = dispatcher;
+        mExecutorFactory = executorFactory;
+        mTracer = tracer;
+
+        mItemStates = Collections.synchronizedMap(new WeakHashMap<Target, ItemState<Params>>());
+        mContainerRequests = new WeakHashMap<Object, ConcurrentMap<String, ItemRequest<Target, Params, Result>>>();
+        mDemotedContainers = new WeakHashMap<Object, Boolean>();
+        mContainerRecorders = new WeakHashMap<Object, ScrollRecorder>();
+        mItemSizes = new HashMap<Integer, ItemSize>();
+        mWarmStartRequests = new ConcurrentHashMap<String, ItemRequest<Target, Params, Result>>();
+        mStats = new RequestStats();
+
+        mFailureTtl = failureTtl;
+        mMaxRetries = maxRetries;
+        mFailures = new ConcurrentHashMap<FailureKey<Params>, Failure>();
+        mLoadDeadline = loadDeadline;
+        mPartLoadDeadlines = new HashMap<Integer, Long>(partLoadDeadlines);
+        mHedgedLoadsEnabled = hedgedLoadsEnabled;
+        mLatencyTrackers = new ConcurrentHashMap<Integer, LatencyTracker>();
+        mExtraThreadCount = 0;
+        mThrottleCount = 0;
+        mThrottled = false;
+        mPauseCount = 0;
+
+        // The executor is only created on the first actual load. Lists
+        // that never load anything e.g. off-screen tabs don't pay for it.
+        mThreadPoolSize = threadPoolSize;
+        mMaxPendingRequests = maxPendingRequests;
+        mExecutor = null;
+    }
+
+    private LoadExecutor getExecutor() {
+        LoadExecutor executor = mExecutor;
+
+        if (executor == null) {
+            // Warm start requests are submitted from a background thread
+            synchronized (this) {
+                if (mExecutor == null) {
+                    // The maximum pool size leaves room for replacing threads
+                    // stuck in loads past their deadline. See growThreadPool().
+                    mExecutor = mExecutorFactory.createLoadExecutor(getMaxRunningCount(),
+                            mThreadPoolSize * 2);
+                    mExecutor.setPaused(mPauseCount > 0);
+                }
+
+                executor = mExecutor;
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Starts the loader threads ahead of the first load, if the
+     * {@link LoadExecutor} has any.
+     */
+    public void prestartThreads() {
+        getExecutor().prestartAllCoreThreads();
+    }
+
+    private Future<?> submitLoad(ItemRequest<Target, Params, Result> request) {
+        // Each submission is a new load attempt. Hedged loads are part
+        // of the attempt of the load they duplicate.
+        final HedgedLoad hedgedLoad = new HedgedLoad();
+        request.hedgedLoad = hedgedLoad;
+
+        final LoadItemFutureTask<Target, Params, Result> loadItemTask = newLoadItemTask(request,
+                hedgedLoad, false);
+        getExecutor().execute(loadItemTask);
+        hedgedLoad.setLoad(loadItemTask);
+
+        return loadItemTask;
+    }
+
+    private LoadItemFutureTask<Target, Params, Result> newLoadItemTask(
+            ItemRequest<Target, Params, Result> request, HedgedLoad hedgedLoad, boolean hedge) {
+        final LoadItemFutureTask<Target, Params, Result> task = new LoadItemFutureTask<Target, Params, Result>(
+                new LoadItemRunnable<Target, Params, Result>(this, request, hedgedLoad, hedge));
+
+        // Traced until the load starts running or is dropped
+        task.getRunnable().beginQueueTrace();
+
+        return task;
+    }
+
+    private boolean removeQueuedLoad(LoadItemFutureTask<Target, Params, Result> task) {
+        if (!getExecutor().remove(task)) {
+            return false;
+        }
+
+        task.getRunnable().endQueueTrace();
+        return true;
+    }
+
+    private synchronized boolean growThreadPool() {
+        if (mExtraThreadCount >= mThreadPoolSize) {
+            return false;
+        }
+
+        mExtraThreadCount++;
+        mExecutor.setMaxRunningCount(getMaxRunningCount());
+
+        return true;
+    }
+
+    private synchronized void shrinkThreadPool() {
+        mExtraThreadCount--;
+        mExecutor.setMaxRunningCount(getMaxRunningCount());
+    }
+
+    private synchronized int getMaxRunningCount() {
+        // Throttled schedulers run half as many loads at once, threads
+        // replacing stuck loads are always kept. The limit is enforced
+        // before queued loads are picked up, see LoadExecutor.
+        final int poolSize = (mThrottled ? Math.max(1, mThreadPoolSize / 2) : mThreadPoolSize);
+        return poolSize + mExtraThreadCount;
+    }
+
+    /**
+     * Pauses or resumes the queued loads. Calls are counted, the
+     * scheduler is paused as long as it's been paused more times than
+     * resumed e.g. when shared by several lists. This method can be
+     * called in any thread.
+     *
+     * @param paused - {@code true} to pause, {@code false} to resume.
+     */
+    public synchronized void setPaused(boolean paused) {
+        mPauseCount += (paused ? 1 : -1);
+
+        if (mExecutor != null) {
+            mExecutor.setPaused(mPauseCount > 0);
+        }
+    }
+
+    /**
+     * Throttles or unthrottles the loads e.g. while the UI thread is
+     * dropping frames. Throttled schedulers run half as many loads at
+     * once. Calls are counted like {@link #setPaused(boolean)}. This
+     * method can be called in any thread.
+     *
+     * @param throttled - {@code true} to throttle, {@code false} to stop
+     *        throttling.
+     */
+    public synchronized void setThrottled(boolean throttled) {
+        mThrottleCount += (throttled ? 1 : -1);
+        mThrottled = (mThrottleCount > 0);
+
+        if (mExecutor != null) {
+            mExecutor.setMaxRunningCount(getMaxRunningCount());
+        }
+    }
+
+    /**
+     * @return Whether loads are throttled. This method can be called in
+     *         any thread e.g. to lower the priority of the loader threads.
+     */
+    public boolean isThrottled() {
+        return mThrottled;
+    }
+
+    private long getLoadDeadline(int itemPart) {
+        final Long deadline = mPartLoadDeadlines.get(itemPart);
+        return (deadline != null ? deadline : mLoadDeadline);
+    }
+
+    private LatencyTracker getLatencyTracker(int itemPart) {
+        LatencyTracker tracker = mLatencyTrackers.get(itemPart);
+
+        if (tracker == null) {
+            tracker = new LatencyTracker();
+
+            final LatencyTracker previous = mLatencyTrackers.putIfAbsent(itemPart, tracker);
+            if (previous != null) {
+                tracker = previous;
+            }
+        }
+
+        return tracker;
+    }
+
+    private void abandonLoad(LoadItemRunnable<Target, Params, Result> runnable) {
+        if (!runnable.abandon()) {
+            return;
+        }
+
+        final ItemRequest<Target, Params, Result> request = runnable.getItemRequest();
+
+        mStats.incrementAbandonedLoadCount();
+
+        // Hedged loads are only a second chance for the original load,
+        // which is the one accounting for the failure.
+        if (runnable.isHedge()) {
+            return;
+        }
+
+        // Claim the attempt, cancelling its hedged load, so that a late
+        // hedged load doesn't get displayed on top of the retry.
+        if (!runnable.getHedgedLoad().complete(false)) {
+            return;
+        }
+
+        final ScrollRecorder scrollRecorder = request.scrollRecorder;
+        if (scrollRecorder != null) {
+            scrollRecorder.recordLoadFinish(mClock.uptimeMillis(), request.position,
+                    request.itemPart, false);
+        }
+
+        request.requests.remove(request.id, request);
+
+        final Failure failure = recordLoadResult(request, null);
+        if (request.target == null || targetReused(request)) {
+            return;
+        }
+
+        if (failure != null && failure.count <= mMaxRetries) {
+            scheduleRetry(request, getRetryDelay(failure));
+        } else {
+            request.result = new SoftReference<Result>(null);
+            mDispatcher.post(new DisplayItemRunnable<Target, Params, Result>(this, request, false));
+        }
+    }
+
+    private void hedgeLoad(LoadItemRunnable<Target, Params, Result> runnable) {
+        final ItemRequest<Target, Params, Result> request = runnable.getItemRequest();
+        final HedgedLoad hedgedLoad = runnable.getHedgedLoad();
+
+        // Only hedge loads still running for items still on screen
+        if (runnable.isFinished() || hedgedLoad.isDone() ||
+            request.target == null || targetReused(request)) {
+            return;
+        }
+
+        final LoadItemFutureTask<Target, Params, Result> hedgedLoadTask = newLoadItemTask(request,
+                hedgedLoad, true);
+        if (hedgedLoad.hedge(getExecutor(), hedgedLoadTask) == null) {
+            hedgedLoadTask.getRunnable().endQueueTrace();
+            return;
+        }
+
+        mStats.incrementHedgedLoadCount();
+
+        // The running load took the request out of its container's
+        // requests. Put it back while hedged so that it's found, and both
+        // loads cancelled, when the item goes away. See cancelLoad().
+        if (!request.warmStart) {
+            request.requests.putIfAbsent(request.id, request);
+        }
+    }
+
+    private void cancelLoad(ItemRequest<?, ?, ?> request) {
+        final ScrollRecorder scrollRecorder = request.scrollRecorder;
+        if (request.loadItemTask != null) {
+            request.loadItemTask.cancel(true);
+
+            if (scrollRecorder != null) {
+                scrollRecorder.recordLoadCancel(mClock.uptimeMillis(), request.position,
+                        request.itemPart);
+            }
+        }
+
+        // Cancels the hedged load too, if any
+        if (request.hedgedLoad != null) {
+            request.hedgedLoad.cancel();
+        }
+    }
+
+    /**
+     * Requests the item parts of a target on screen, unless they've been
+     * requested already since the target was bound. Pending preloads for
+     * the same item are promoted instead of loading it again.
+     *
+     * @param container - The container of the target.
+     * @param target - A target on screen, bound with
+     *        {@link #performLoadItem(Object, Object, Object, int, int, int, boolean, boolean)}.
+     * @param timestamp - The time of the item update round, increasing with
+     *        each request. See {@link LoadPriority#getTimestamp()}.
+     */
+    public void performDisplayItem(Object container, Target target, long timestamp) {
+        final ItemState<Params> itemState = getItemState(target);
+        if (!itemState.shouldLoadItem) {
+            return;
+        }
+
+        // No item params, or undefined position
+        if (itemState.itemParams == null || itemState.position == INVALID_POSITION) {
+            return;
+        }
+
+        for (int itemPart = 0; itemPart < itemState.partCount; itemPart++) {
+            performDisplayItemPart(container, target, itemState, itemPart, timestamp, false);
+        }
+    }
+
+    private void performDisplayItemPart(Object container, Target target, ItemState<Params> itemState,
+                                        int itemPart, long timestamp, boolean displaySynchronously) {
+        final int position = itemState.position;
+        final Params itemParams = itemState.itemParams;
+
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests = getItemRequests(container);
+        final ItemSize itemSize = getItemSize(target, itemState.viewType);
+
+        final String id = generateItemRequestId(position, itemPart);
+        ItemRequest<Target, Params, Result> request = requests.get(id);
+
+        // Take over the request restored from the warm start snapshot
+        // for this item, if any, instead of loading it again.
+        final ItemRequest<Target, Params, Result> warmStartRequest =
+                (request == null ? adoptWarmStartRequest(id, itemParams) : null);
+        boolean loadedBeforeAdoption = false;
+        boolean requeue = false;
+
+        if (warmStartRequest != null) {
+            request = warmStartRequest;
+            request.requests = requests;
+            request.timestamp = timestamp;
+            request.deadline = 0;
+            request.setTargetSize(itemSize);
+
+            // The running load checks for a target once done, make
+            // sure exactly one of us displays the result.
+            synchronized (request) {
+                request.target = new SoftReference<Target>(target);
+                loadedBeforeAdoption = (request.result != null);
+            }
+
+            requests.put(id, request);
+        } else if (request == null) {
+            // No existing item request, create a new one
+            request = new ItemRequest<Target, Params, Result>(id, requests, target, itemParams, position,
+                    itemPart, timestamp);
+            request.setTargetSize(itemSize);
+            requests.put(id, request);
+        } else {
+            // There's a pending item request for these parameters, promote the
+            // existing request with higher priority. See LoadItemFutureTask
+            // for details on request priorities.
+            requeue = dequeueLoad(request);
+            request.timestamp = timestamp;
+            request.deadline = 0;
+            request.target = new SoftReference<Target>(target);
+            request.setTargetSize(itemSize);
+        }
+
+        request.demoted = mDemotedContainers.containsKey(container);
+        request.scrollRecorder = mContainerRecorders.get(container);
+
+        if (requeue) {
+            requeueLoad(request);
+        }
+
+        // We're actually running this item request, make sure
+        // this item is not requested again.
+        itemState.shouldLoadItem = false;
+
+        final Result result;
+        final boolean traced = beginTrace("loadItemPartFromMemory", position, itemPart);
+        try {
+            result = loadItemPartFromMemory(itemParams, itemPart, itemSize);
+        } finally {
+            if (traced) {
+                endTrace();
+            }
+        }
+
+        if (result != null) {
+            cancelItemRequest(requests, position, itemPart);
+
+            if (request.scrollRecorder != null) {
+                request.scrollRecorder.recordMemoryHit(mClock.uptimeMillis(), position, itemPart);
+            }
+
+            // We're being called while the target is being bound and the
+            // caller asked for memory hits to be displayed right away.
+            // Display the item part before the target is drawn to avoid
+            // drawing it empty for one frame.
+            if (displaySynchronously) {
+                performDisplayResult(target, result, position, itemPart, true);
+                itemState.displayedPartCount++;
+                return;
+            }
+
+            // The item is in memory, no need to asynchronously load it
+            // Run the final item display routine straight away.
+            request.result = new SoftReference<Result>(result);
+            mDispatcher.post(new DisplayItemRunnable<Target, Params, Result>(this, request, true));
+
+            return;
+        }
+
+        // The item failed to load recently. Don't load it again before its
+        // retry delay is over, or at all once it's out of retries.
+        final Failure failure = getFailure(itemParams, itemPart);
+        if (failure != null) {
+            requests.remove(id, request);
+            mStats.incrementSkippedFailedRequestCount();
+
+            cancelLoad(request);
+            request.loadItemTask = null;
+
+            if (failure.count <= mMaxRetries) {
+                final long delay = failure.time + getRetryDelay(failure) - mClock.uptimeMillis();
+                scheduleRetry(request, Math.max(0, delay));
+            } else {
+                request.result = new SoftReference<Result>(null);
+                mDispatcher.post(new DisplayItemRunnable<Target, Params, Result>(this, request, true));
+            }
+
+            return;
+        }
+
+        // The item part is being loaded asynchronously, or hedged, the
+        // pending request will display it once done.
+        if (request.asyncLoadPending ||
+            (request.hedgedLoad != null && request.hedgedLoad.isHedged())) {
+            return;
+        }
+
+        // The adopted request is already being loaded and will display the
+        // item once done. Display it right away if it finished loading
+        // before being adopted.
+        if (warmStartRequest != null && warmStartRequest.loadItemTask != null) {
+            if (loadedBeforeAdoption) {
+                mDispatcher.post(new DisplayItemRunnable<Target, Params, Result>(this, request, false));
+            }
+
+            return;
+        }
+
+        request.loadItemTask = submitLoad(request);
+        shedPendingRequests();
+    }
+
+    private void performDisplayResult(Target target, Result result, int position, int itemPart,
+            boolean fromMemory) {
+        final boolean traced = beginTrace("displayItemPart", position, itemPart);
+        try {
+            mSource.displayItemPart(target, result, itemPart, fromMemory);
+        } finally {
+            if (traced) {
+                endTrace();
+            }
+        }
+    }
+
+    private ItemRequest<Target, Params, Result> adoptWarmStartRequest(String id, Params itemParams) {
+        final ItemRequest<Target, Params, Result> request = mWarmStartRequests.remove(id);
+        if (request == null) {
+            return null;
+        }
+
+        // The item contents changed since the snapshot was taken
+        if (!request.itemParams.equals(itemParams)) {
+            cancelLoad(request);
+            return null;
+        }
+
+        request.warmStart = false;
+        mStats.incrementWarmStartAdoptedCount();
+
+        // Requests still in the queue are re-submitted with the priority
+        // of a visible item. Running ones are left alone.
+        @SuppressWarnings("unchecked")
+        final LoadItemFutureTask<Target, Params, Result> task =
+                (LoadItemFutureTask<Target, Params, Result>) request.loadItemTask;
+        if (removeQueuedLoad(task)) {
+            request.loadItemTask = null;
+        }
+
+        return request;
+    }
+
+    /**
+     * Binds a target to an item e.g. when a list item view is returned by
+     * the adapter. Requests for the item previously bound to the target
+     * are cancelled. The item parts are requested right away if asked to,
+     * or if they're in memory, otherwise on the next
+     * {@link #performDisplayItem(Object, Object, long)} call.
+     *
+     * @param container - The container of the target.
+     * @param target - The target being bound.
+     * @param itemParams - The parameters for loading the item, or
+     *        {@code null} if there's nothing to load.
+     * @param position - The item position.
+     * @param partCount - The number of parts the item is loaded in.
+     * @param viewType - The type of the target. Preloads use the last
+     *        known size of targets of the same type.
+     * @param shouldDisplayItem - Whether to request the item parts right
+     *        away.
+     * @param displayMemoryHitsSynchronously - Whether to display the item
+     *        parts in memory before returning.
+     */
+    public void performLoadItem(Object container, Target target, Params itemParams, int position,
+            int partCount, int viewType, boolean shouldDisplayItem, boolean displayMemoryHitsSynchronously) {
+        final ItemState<Params> itemState = getItemState(target);
+
+        // The target is being recycled to display a different position.
+        // Cancel whatever is still pending for its previous position straight
+        // away instead of waiting for the next round of obsolete requests.
+        if (itemState.position != INVALID_POSITION && itemState.position != position) {
+            cancelItemRequestsForTarget(container, target, itemState);
+        }
+
+        // No parameters for the item, just bail
+        if (itemParams == null) {
+            itemState.itemParams = null;
+            itemState.shouldLoadItem = false;
+            itemState.position = INVALID_POSITION;
+            return;
+        }
+
+        itemState.itemParams = itemParams;
+        itemState.position = position;
+        itemState.partCount = partCount;
+        itemState.displayedPartCount = 0;
+        itemState.viewType = viewType;
+
+        // Mark the target for loading
+        itemState.shouldLoadItem = true;
+
+        final ItemSize itemSize = getItemSize(target, viewType);
+
+        for (int itemPart = 0; itemPart < partCount; itemPart++) {
+            if (shouldDisplayItem || isItemPartInMemory(itemParams, itemPart, itemSize)) {
+                performDisplayItemPart(container, target, itemState, itemPart,
+                        mClock.uptimeMillis(), displayMemoryHitsSynchronously);
+            }
+        }
+    }
+
+    /**
+     * Requests an item part that is not on screen, with a lower priority
+     * than visible ones. A pending request for the same item part is
+     * demoted instead of loading it again.
+     *
+     * @param container - The container the item belongs to.
+     * @param itemParams - The parameters for loading the item.
+     * @param position - The item position.
+     * @param itemPart - The item part to preload.
+     * @param viewType - The type of the target the item will be bound to.
+     * @param timestamp - The time of the item update round, increasing with
+     *        each request. See {@link LoadPriority#getTimestamp()}.
+     * @param deadline - The time the item is expected on screen, or 0 if
+     *        unknown. See {@link LoadPriority#getDeadline()}.
+     */
+    public void performPreloadItemPart(Object container, Params itemParams, int position, int itemPart,
+            int viewType, long timestamp, long deadline) {
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests = getItemRequests(container);
+
+        // Preload requests have no target, use the last known size
+        // for the item's view type instead.
+        final ItemSize itemSize = mItemSizes.get(viewType);
+
+        // If item is memory, just cancel any pending requests for
+        // this item and return as the item has already been loaded.
+        if (isItemPartInMemory(itemParams, itemPart, itemSize)) {
+            cancelItemRequest(requests, position, itemPart);
+            return;
+        }
+
+        // Don't waste threads preloading items that failed recently
+        if (getFailure(itemParams, itemPart) != null) {
+            cancelItemRequest(requests, position, itemPart);
+            mStats.incrementSkippedFailedRequestCount();
+            return;
+        }
+
+        final String id = generateItemRequestId(position, itemPart);
+        ItemRequest<Target, Params, Result> request = requests.get(id);
+        if (request == null) {
+            // No pending item preload request, create a new one
+            request = new ItemRequest<Target, Params, Result>(id, requests, itemParams, position, itemPart,
+                    timestamp);
+            request.deadline = deadline;
+            request.setTargetSize(itemSize);
+            request.scrollRecorder = mContainerRecorders.get(container);
+            requests.put(id, request);
+
+            request.loadItemTask = submitLoad(request);
+            shedPendingRequests();
+        } else {
+            // There's a pending item request for these parameters, demote the
+            // existing request with loader priority as it's just a preloading
+            // request. See LoadItemFutureTask for details on request priorities.
+            final boolean requeue = dequeueLoad(request);
+            request.timestamp = timestamp;
+            request.deadline = deadline;
+            request.target = null;
+
+            if (requeue) {
+                requeueLoad(request);
+            }
+        }
+    }
+
+    private boolean dequeueLoad(ItemRequest<Target, Params, Result> request) {
+        // The load queue doesn't re-sort loads whose priority changes
+        // while queued. Take them out while their priority is updated,
+        // see requeueLoad(). Running loads are left alone.
+        final Future<?> loadItemTask = request.loadItemTask;
+        final LoadExecutor executor = mExecutor;
+
+        return (loadItemTask != null && executor != null &&
+                executor.remove((Runnable) loadItemTask));
+    }
+
+    private void requeueLoad(ItemRequest<Target, Params, Result> request) {
+        getExecutor().execute((Runnable) request.loadItemTask);
+    }
+
+    private void shedPendingRequests() {
+        if (mMaxPendingRequests <= 0) {
+            return;
+        }
+
+        final LoadExecutor executor = getExecutor();
+        final Collection<Runnable> queue = executor.getQueue();
+        if (queue.size() <= mMaxPendingRequests) {
+            return;
+        }
+
+        // Cancelled tasks stay in the queue until purged, don't
+        // count them as pending.
+        executor.purge();
+
+        while (queue.size() > mMaxPendingRequests) {
+            final LoadItemFutureTask<Target, Params, Result> task = findTaskToShed(queue);
+            if (task == null) {
+                break;
+            }
+
+            // The task might have just been picked up by a thread
+            if (!removeQueuedLoad(task)) {
+                continue;
+            }
+
+            final ItemRequest<Target, Params, Result> request = task.getItemRequest();
+            request.requests.remove(request.id, request);
+            task.cancel(false);
+
+            final ScrollRecorder scrollRecorder = request.scrollRecorder;
+            if (scrollRecorder != null) {
+                scrollRecorder.recordLoadCancel(mClock.uptimeMillis(), request.position,
+                        request.itemPart);
+            }
+
+            // Let the next round of item updates request the shed visible
+            // item again, if it's still on screen by then.
+            final Target target = (request.target != null ? request.target.get() : null);
+            if (target != null) {
+                final ItemState<Params> itemState = mItemStates.get(target);
+                if (itemState != null && itemState.position == request.position) {
+                    itemState.shouldLoadItem = true;
+                }
+            }
+
+            mStats.incrementShedRequestCount();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <Target, Params, Result> LoadItemFutureTask<Target, Params, Result> findTaskToShed(
+            Collection<Runnable> queue) {
+        LoadItemFutureTask<Target, Params, Result> taskToShed = null;
+        ItemRequest<Target, Params, Result> requestToShed = null;
+
+        // Preload requests are shed before visible ones, the ones
+        // due last first, then the oldest ones.
+        for (Runnable r : queue) {
+            final LoadItemFutureTask<Target, Params, Result> task = (LoadItemFutureTask<Target, Params, Result>) r;
+            final ItemRequest<Target, Params, Result> request = task.getItemRequest();
+
+            final boolean isPreload = (request.target == null);
+            final boolean isPreloadToShed = (requestToShed != null && requestToShed.target == null);
+
+            if (requestToShed == null || (isPreload && !isPreloadToShed) ||
+                (isPreload == isPreloadToShed && request.deadline > requestToShed.deadline) ||
+                (isPreload == isPreloadToShed && request.deadline == requestToShed.deadline &&
+                 request.timestamp < requestToShed.timestamp)) {
+                taskToShed = task;
+                requestToShed = request;
+            }
+        }
+
+        return taskToShed;
+    }
+
+    private Failure getFailure(Params itemParams, int itemPart) {
+        if (mFailureTtl <= 0) {
+            return null;
+        }
+
+        final FailureKey<Params> key = new FailureKey<Params>(itemParams, itemPart);
+        final Failure failure = mFailures.get(key);
+        if (failure == null) {
+            return null;
+        }
+
+        if (mClock.uptimeMillis() - failure.time >= mFailureTtl) {
+            mFailures.remove(key, failure);
+            return null;
+        }
+
+        return failure;
+    }
+
+    private Failure recordLoadResult(ItemRequest<Target, Params, Result> request, Result result) {
+        if (mFailureTtl <= 0) {
+            return null;
+        }
+
+        final FailureKey<Params> key = new FailureKey<Params>(request.itemParams, request.itemPart);
+        if (result != null) {
+            mFailures.remove(key);
+            return null;
+        }
+
+        if (mFailures.size() >= MAX_FAILURES_BEFORE_PRUNING) {
+            pruneFailures();
+        }
+
+        final Failure previous = getFailure(request.itemParams, request.itemPart);
+        final Failure failure = new Failure(previous != null ? previous.count + 1 : 1,
+                mClock.uptimeMillis());
+
+        mFailures.put(key, failure);
+        mStats.incrementFailedLoadCount();
+
+        return failure;
+    }
+
+    private void pruneFailures() {
+        final long now = mClock.uptimeMillis();
+
+        for (Iterator<Failure> i = mFailures.values().iterator(); i.hasNext();) {
+            if (now - i.next().time >= mFailureTtl) {
+                i.remove();
+            }
+        }
+    }
+
+    private long getRetryDelay(Failure failure) {
+        // Double the delay on each consecutive failure
+        return Backoff.getDelay(failure.count, INITIAL_RETRY_DELAY, mFailureTtl);
+    }
+
+    private void scheduleRetry(ItemRequest<Target, Params, Result> request, long delay) {
+        mDispatcher.postDelayed(new RetryItemRunnable<Target, Params, Result>(this, request), delay);
+    }
+
+    private void performRetry(ItemRequest<Target, Params, Result> request) {
+        // The container has been torn down or the target now shows
+        // something else, nothing to retry.
+        if (!mContainerRequests.containsValue(request.requests) || targetReused(request)) {
+            return;
+        }
+
+        // There's a newer request for the same item already
+        if (request.requests.putIfAbsent(request.id, request) != null) {
+            return;
+        }
+
+        mStats.incrementRetryCount();
+        request.loadItemTask = submitLoad(request);
+        shedPendingRequests();
+    }
+
+    private boolean isItemPartInMemory(Params itemParams, int itemPart, ItemSize itemSize) {
+        return (loadItemPartFromMemory(itemParams, itemPart, itemSize) != null);
+    }
+
+    private Result loadItemPartFromMemory(Params itemParams, int itemPart, ItemSize itemSize) {
+        if (itemSize == null) {
+            return mSource.loadItemPartFromMemory(itemParams, itemPart, 0, 0);
+        }
+
+        return mSource.loadItemPartFromMemory(itemParams, itemPart, itemSize.width, itemSize.height);
+    }
+
+    /**
+     * Cancels the requests of a container that haven't been touched since
+     * the given time e.g. requests for items that scrolled away since the
+     * last item update round.
+     *
+     * @param container - The container to cancel requests for.
+     * @param timestamp - The timestamp of the last item update round.
+     */
+    public void cancelObsoleteRequests(Object container, long timestamp) {
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests =
+                mContainerRequests.get(container);
+        if (requests == null) {
+            return;
+        }
+
+        for (Iterator<ItemRequest<Target, Params, Result>> i = requests.values().iterator(); i.hasNext();) {
+            final ItemRequest<Target, Params, Result> request = i.next();
+
+            if (request.timestamp < timestamp) {
+                cancelLoad(request);
+
+                i.remove();
+            }
+        }
+
+        // Actually remove any cancelled tasks from the queue
+        if (mExecutor != null) {
+            mExecutor.purge();
+        }
+    }
+
+    /**
+     * Has the next item update round refresh the pending requests of the
+     * given target, or request it again, unless it's fully displayed
+     * already.
+     *
+     * @param target - The target to revalidate.
+     */
+    public void revalidateItem(Target target) {
+        final ItemState<Params> itemState = mItemStates.get(target);
+
+        // Targets with nothing to load, or fully displayed already,
+        // are left alone.
+        if (itemState == null || itemState.itemParams == null ||
+            itemState.position == INVALID_POSITION ||
+            itemState.displayedPartCount >= itemState.partCount) {
+            return;
+        }
+
+        itemState.shouldLoadItem = true;
+    }
+
+    /**
+     * Cancels all queued preload requests e.g. under memory pressure. Warm
+     * start requests are kept.
+     */
+    public void cancelPreloadRequests() {
+        final LoadExecutor executor = mExecutor;
+        if (executor == null) {
+            return;
+        }
+
+        for (Runnable r : executor.getQueue()) {
+            @SuppressWarnings("unchecked")
+            final LoadItemFutureTask<Target, Params, Result> task = (LoadItemFutureTask<Target, Params, Result>) r;
+            final ItemRequest<Target, Params, Result> request = task.getItemRequest();
+
+            // Warm start requests are for items about to be displayed
+            if (request.target != null || request.warmStart) {
+                continue;
+            }
+
+            // The task might have just been picked up by a thread
+            if (!removeQueuedLoad(task)) {
+                continue;
+            }
+
+            request.requests.remove(request.id, request);
+            task.cancel(false);
+
+            final ScrollRecorder scrollRecorder = request.scrollRecorder;
+            if (scrollRecorder != null) {
+                scrollRecorder.recordLoadCancel(mClock.uptimeMillis(), request.position,
+                        request.itemPart);
+            }
+        }
+    }
+
+    /**
+     * Sets whether the requests of a container are scheduled like
+     * preloads e.g. for lists that are off-screen.
+     *
+     * @param container - The container to demote or promote.
+     * @param demoted - Whether the container is demoted.
+     */
+    public void setContainerDemoted(Object container, boolean demoted) {
+        if (demoted) {
+            mDemotedContainers.put(container, Boolean.TRUE);
+        } else {
+            mDemotedContainers.remove(container);
+        }
+
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests =
+                mContainerRequests.get(container);
+        if (requests == null) {
+            return;
+        }
+
+        // Demoted requests are scheduled like preload requests. Queued
+        // ones are queued again with their new priority.
+        for (ItemRequest<Target, Params, Result> request : requests.values()) {
+            if (request.demoted == demoted) {
+                continue;
+            }
+
+            final boolean requeue = dequeueLoad(request);
+            request.demoted = demoted;
+
+            if (requeue) {
+                requeueLoad(request);
+            }
+        }
+    }
+
+    /**
+     * Sets the recorder logging the loads of a container.
+     *
+     * @param container - The container to record loads for.
+     * @param scrollRecorder - The recorder, or {@code null} to stop
+     *        recording.
+     */
+    public void setScrollRecorder(Object container, ScrollRecorder scrollRecorder) {
+        if (scrollRecorder != null) {
+            mContainerRecorders.put(container, scrollRecorder);
+        } else {
+            mContainerRecorders.remove(container);
+        }
+    }
+
+    /**
+     * Cancels all requests of a container e.g. when it's torn down.
+     *
+     * @param container - The container to cancel requests for.
+     */
+    public void cancelRequestsForContainer(Object container) {
+        if (container == null) {
+            throw new IllegalArgumentException("Null container in cancelRequestsForContainer");
+        }
+
+        // Requests are indexed per container, tearing down one container
+        // only touches its own requests.
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests =
+                mContainerRequests.remove(container);
+        if (requests == null) {
+            return;
+        }
+
+        cancelRequests(requests);
+    }
+
+    /**
+     * Detaches the requests of a container without cancelling them e.g.
+     * when the container is being recreated. The requests become preloads
+     * until attached to a container again.
+     *
+     * @param container - The container to detach requests from.
+     *
+     * @return The detached requests, to be passed to
+     *         {@link #attachRequestsToContainer(Object, Object)} or
+     *         {@link #cancelDetachedRequests(Object)}, or {@code null} if
+     *         there were none.
+     */
+    public Object detachRequestsFromContainer(Object container) {
+        if (container == null) {
+            throw new IllegalArgumentException("Null container in detachRequestsFromContainer");
+        }
+
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests =
+                mContainerRequests.remove(container);
+        if (requests == null) {
+            return null;
+        }
+
+        // The requests keep running, they're just not bound to any
+        // container until attachRequestsToContainer() is called. The old
+        // targets are going away, demote the requests to preload requests
+        // so that they don't hold on to the targets nor display results
+        // in them. The new container's targets adopt them on display.
+        for (ItemRequest<Target, Params, Result> request : requests.values()) {
+            final boolean requeue = dequeueLoad(request);
+
+            synchronized (request) {
+                request.target = null;
+            }
+
+            if (requeue) {
+                requeueLoad(request);
+            }
+        }
+
+        return requests;
+    }
+
+    /**
+     * Attaches requests detached with
+     * {@link #detachRequestsFromContainer(Object)} to a container.
+     *
+     * @param container - The container to attach the requests to.
+     * @param detachedRequests - The detached requests.
+     */
+    @SuppressWarnings("unchecked")
+    public void attachRequestsToContainer(Object container, Object detachedRequests) {
+        if (container == null) {
+            throw new IllegalArgumentException("Null container in attachRequestsToContainer");
+        }
+
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests =
+                (ConcurrentMap<String, ItemRequest<Target, Params, Result>>) detachedRequests;
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> currentRequests =
+                mContainerRequests.get(container);
+
+        if (currentRequests == null) {
+            mContainerRequests.put(container, requests);
+            return;
+        }
+
+        // The new container already made requests of its own. Requests
+        // are keyed by position and part, so the new targets pick up
+        // the detached requests for the same items on their next display.
+        for (ItemRequest<Target, Params, Result> request : requests.values()) {
+            request.requests = currentRequests;
+            request.scrollRecorder = mContainerRecorders.get(container);
+
+            if (currentRequests.putIfAbsent(request.id, request) != null) {
+                cancelLoad(request);
+            }
+        }
+    }
+
+    /**
+     * Cancels requests detached with
+     * {@link #detachRequestsFromContainer(Object)}.
+     *
+     * @param detachedRequests - The detached requests.
+     */
+    @SuppressWarnings("unchecked")
+    public void cancelDetachedRequests(Object detachedRequests) {
+        cancelRequests((ConcurrentMap<String, ItemRequest<Target, Params, Result>>) detachedRequests);
+    }
+
+    private void cancelRequests(ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests) {
+        for (Iterator<ItemRequest<Target, Params, Result>> i = requests.values().iterator(); i.hasNext();) {
+            cancelLoad(i.next());
+            i.remove();
+        }
+    }
+
+    private ConcurrentMap<String, ItemRequest<Target, Params, Result>> getItemRequests(Object container) {
+        ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests = mContainerRequests.get(container);
+
+        if (requests == null) {
+            requests = new ConcurrentHashMap<String, ItemRequest<Target, Params, Result>>(8, 0.9f, 1);
+            mContainerRequests.put(container, requests);
+        }
+
+        return requests;
+    }
+
+    private ItemState<Params> getItemState(Target target) {
+        ItemState<Params> itemState = mItemStates.get(target);
+
+        if (itemState == null) {
+            itemState = new ItemState<Params>();
+            itemState.itemParams = null;
+            itemState.shouldLoadItem = false;
+            itemState.position = INVALID_POSITION;
+            itemState.partCount = 0;
+            itemState.displayedPartCount = 0;
+
+            mItemStates.put(target, itemState);
+        }
+
+        return itemState;
+    }
+
+    private ItemSize getItemSize(Target target, int viewType) {
+        ItemSize itemSize = mItemSizes.get(viewType);
+
+        // Targets that haven't been laid out yet have no size, fall back
+        // to the last known size for their view type.
+        final int width = mSource.getTargetWidth(target);
+        final int height = mSource.getTargetHeight(target);
+        if (width <= 0 || height <= 0) {
+            return itemSize;
+        }
+
+        if (itemSize == null) {
+            itemSize = new ItemSize();
+            mItemSizes.put(viewType, itemSize);
+        }
+
+        itemSize.width = width;
+        itemSize.height = height;
+
+        return itemSize;
+    }
+
+    private static String generateItemRequestId(int position, int itemPart) {
+        return String.valueOf(position) + String.valueOf(itemPart);
+    }
+
+    private void cancelItemRequest(ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests,
+            int position, int itemPart) {
+        final String id = generateItemRequestId(position, itemPart);
+        final ItemRequest<Target, Params, Result> request = requests.remove(id);
+        if (request == null) {
+            return;
+        }
+
+        cancelLoad(request);
+    }
+
+    private void cancelItemRequestsForTarget(Object container, Target target, ItemState<Params> itemState) {
+        final ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests =
+                mContainerRequests.get(container);
+        if (requests == null) {
+            return;
+        }
+
+        for (int itemPart = 0; itemPart < itemState.partCount; itemPart++) {
+            final String id = generateItemRequestId(itemState.position, itemPart);
+            final ItemRequest<Target, Params, Result> request = requests.get(id);
+
+            // Only cancel requests for this target. The same position
+            // might have been rebound to another target in the meantime.
+            if (request == null || request.target == null || request.target.get() != target) {
+                continue;
+            }
+
+            cancelItemRequest(requests, itemState.position, itemPart);
+        }
+    }
+
+    /**
+     * @param target - A target bound with
+     *        {@link #performLoadItem(Object, Object, Object, int, int, int, boolean, boolean)}.
+     *
+     * @return Whether all parts of the item bound to the target are
+     *         displayed. Targets with nothing to load count as displayed.
+     */
+    public boolean isItemDisplayed(Target target) {
+        final ItemState<Params> itemState = mItemStates.get(target);
+
+        if (itemState == null || itemState.position == INVALID_POSITION) {
+            return true;
+        }
+
+        return (itemState.displayedPartCount >= itemState.partCount);
+    }
+
+    /**
+     * @return The counters about the requests handled by this scheduler.
+     */
+    public RequestStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Writes the items bound to the given targets to a warm start
+     * snapshot, to be restored with {@link #performWarmStart(DataInput)}.
+     *
+     * @param targets - The targets on screen, from top to bottom.
+     * @param out - The snapshot to write to.
+     *
+     * @return Whether a snapshot was written.
+     *
+     * @throws IOException If the snapshot can't be written.
+     */
+    public boolean writeWarmStartSnapshot(List<Target> targets, DataOutput out) throws IOException {
+        final List<ItemState<Params>> itemStates = new ArrayList<ItemState<Params>>();
+
+        for (Target target : targets) {
+            final ItemState<Params> itemState = mItemStates.get(target);
+            if (itemState != null && itemState.itemParams != null &&
+                itemState.position != INVALID_POSITION) {
+                itemStates.add(itemState);
+            }
+        }
+
+        if (itemStates.isEmpty()) {
+            return false;
+        }
+
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(itemStates.size());
+
+        for (ItemState<Params> itemState : itemStates) {
+            final ItemSize itemSize = mItemSizes.get(itemState.viewType);
+
+            out.writeInt(itemState.position);
+            out.writeInt(itemState.partCount);
+            out.writeInt(itemSize != null ? itemSize.width : 0);
+            out.writeInt(itemSize != null ? itemSize.height : 0);
+
+            if (!mSource.writeItemParams(itemState.itemParams, out)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts loading the items restored from a warm start snapshot. They're
+     * taken over by the item requests once their items are displayed, see
+     * {@link #cancelWarmStartRequests()}. This method is called in a
+     * background thread.
+     *
+     * @param in - The snapshot to read from.
+     *
+     * @throws IOException If the snapshot can't be read.
+     */
+    public void performWarmStart(DataInput in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+            return;
+        }
+
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final int position = in.readInt();
+            final int partCount = in.readInt();
+            final ItemSize itemSize = new ItemSize();
+            itemSize.width = in.readInt();
+            itemSize.height = in.readInt();
+
+            final Params itemParams = mSource.readItemParams(in);
+            if (itemParams == null) {
+                return;
+            }
+
+            // The memory cache is not checked here as
+            // loadItemPartFromMemory() is only called in the dispatch
+            // thread. Items still in memory are displayed from it before
+            // the requests run, see performDisplayItemPart(), and loaders
+            // usually check their cache in loadItemPart() anyway.
+            for (int itemPart = 0; itemPart < partCount; itemPart++) {
+                final String id = generateItemRequestId(position, itemPart);
+
+                // Items further down the snapshot were further down the
+                // screen, load them last.
+                final ItemRequest<Target, Params, Result> request = new ItemRequest<Target, Params, Result>(id,
+                        mWarmStartRequests, itemParams, position, itemPart, i);
+                request.setTargetSize(itemSize);
+                request.warmStart = true;
+                request.loadItemTask = submitLoad(request);
+
+                // Only publish the request once its task is set so that
+                // it can be adopted straight away.
+                if (mWarmStartRequests.putIfAbsent(id, request) != null) {
+                    cancelLoad(request);
+                    continue;
+                }
+
+                mStats.incrementWarmStartRequestCount();
+            }
+        }
+    }
+
+    /**
+     * Cancels the warm start requests not taken over by item requests.
+     */
+    public void cancelWarmStartRequests() {
+        for (Iterator<ItemRequest<Target, Params, Result>> i = mWarmStartRequests.values().iterator();
+                i.hasNext();) {
+            cancelLoad(i.next());
+            i.remove();
+        }
+    }
+
+    private boolean targetReused(ItemRequest<Target, Params, Result> request) {
+        // If target is null, this means this is a preload request
+        // with no target to display. No target to be possibly recycled
+        // in this case.
+        if (request.target == null) {
+            return false;
+        }
+
+        // If the request's soft reference to the target is now null, this
+        // means the target has been disposed from memory. Just bail.
+        final Target target = request.target.get();
+        if (target == null) {
+            return true;
+        }
+
+        // If the position bound to the target doesn't match the one in
+        // the matching request, this means the target has been recycled
+        // to display something else.
+        final int position = getItemState(target).position;
+        if (position == INVALID_POSITION || request.position != position) {
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean beginTrace(String name, int position, int itemPart) {
+        return (mTracer != null && mTracer.beginSection(name, position, itemPart));
+    }
+
+    private void endTrace() {
+        mTracer.endSection();
+    }
+
+    private int beginAsyncTrace(String name, int position, int itemPart) {
+        return (mTracer != null ? mTracer.beginAsyncSection(name, position, itemPart) : 0);
+    }
+
+    private void endAsyncTrace(String name, int position, int itemPart, int cookie) {
+        if (mTracer != null) {
+            mTracer.endAsyncSection(name, position, itemPart, cookie);
+        }
+    }
+
+    private static final class ItemRequest<Target, Params, Result> implements LoadPriority {
+        public volatile SoftReference<Target> target;
+        public volatile SoftReference<Result> result;
+        public Future<?> loadItemTask;
+        public volatile HedgedLoad hedgedLoad;
+        public Long timestamp;
+        public volatile long deadline;
+        public int targetWidth;
+        public int targetHeight;
+        public volatile ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests;
+        public volatile boolean warmStart;
+        public volatile boolean asyncLoadPending;
+        public volatile boolean demoted;
+        public volatile ScrollRecorder scrollRecorder;
+
+        final public String id;
+        final public Params itemParams;
+        final public int position;
+        final public Integer itemPart;
+
+        public ItemRequest(String id, ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests,
+                Params itemParams, int position, int itemPart, long timestamp) {
+            this(id, requests, null, itemParams, position, itemPart, timestamp);
+        }
+
+        public ItemRequest(String id, ConcurrentMap<String, ItemRequest<Target, Params, Result>> requests,
+                Target target, Params itemParams, int position, int itemPart, long timestamp) {
+            this.id = id;
+            this.requests = requests;
+            this.target = (target != null ? new SoftReference<Target>(target) : null);
+            this.itemParams = itemParams;
+            this.position = position;
+            this.itemPart = itemPart;
+            this.result = null;
+            this.timestamp = timestamp;
+            this.deadline = 0;
+            this.loadItemTask = null;
+            this.hedgedLoad = null;
+            this.targetWidth = 0;
+            this.targetHeight = 0;
+            this.warmStart = false;
+            this.asyncLoadPending = false;
+            this.demoted = false;
+            this.scrollRecorder = null;
+        }
+
+        @Override
+        public boolean isVisible() {
+            // Requests from off-screen containers don't get the
+            // priority of visible items. See setContainerDemoted().
+            return (target != null && !demoted);
+        }
+
+        @Override
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public int getItemPart() {
+            return itemPart;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTargetSize(ItemSize itemSize) {
+            if (itemSize != null) {
+                targetWidth = itemSize.width;
+                targetHeight = itemSize.height;
+            }
+        }
+    }
+
+    private static final class LoadItemFutureTask<Target, Params, Result>
+            extends FutureTask<LoadItemRunnable<Target, Params, Result>>
+            implements Comparable<LoadItemFutureTask<Target, Params, Result>> {
+        private final LoadItemRunnable<Target, Params, Result> mRunnable;
+
+        public LoadItemFutureTask(LoadItemRunnable<Target, Params, Result> runnable) {
+            super(runnable, null);
+            mRunnable = runnable;
+        }
+
+        public ItemRequest<Target, Params, Result> getItemRequest() {
+            return mRunnable.getItemRequest();
+        }
+
+        public LoadItemRunnable<Target, Params, Result> getRunnable() {
+            return mRunnable;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // Asynchronous loads outlive their task, propagate the
+            // cancellation to the load itself.
+            mRunnable.endQueueTrace();
+            mRunnable.cancelAsyncLoad();
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public int compareTo(LoadItemFutureTask<Target, Params, Result> another) {
+            ItemRequest<Target, Params, Result> r1 = mRunnable.getItemRequest();
+            ItemRequest<Target, Params, Result> r2 = another.mRunnable.getItemRequest();
+
+            // A null target here means that the requests has no target
+            // to display the loaded content, which means it's a preload request.
+            // Preloading requests always have lower priority than requests for items
+            // that are visible on screen. Parts with lower indexes have priority
+            // over higher ones. Request priorities are dynamically updated as the
+            // user scroll the container. See performDisplayItemPart() and
+            // performPreloadItemPart() for details.
+            //
+            // With deadline scheduling, preload requests are ordered by
+            // the estimated time their items will be on screen instead.
+            // Visible requests are always due.
+            return LoadPriority.COMPARATOR.compare(r1, r2);
+        }
+    }
+
+    private static final class LoadItemRunnable<Target, Params, Result>
+            implements Runnable, ItemSource.LoadCallback<Result> {
+        private final LoadScheduler<Target, Params, Result> mScheduler;
+        private final ItemRequest<Target, Params, Result> mRequest;
+        private final HedgedLoad mHedgedLoad;
+        private final boolean mHedge;
+        private final Runnable mDeadlineRunnable;
+        private final Runnable mHedgeRunnable;
+
+        private Thread mThread;
+        private ItemSource.Cancellable mAsyncLoad;
+        private long mStartTime;
+        private boolean mFinished;
+        private boolean mAbandoned;
+        private boolean mCancelled;
+        private boolean mGrewThreadPool;
+        private int mQueueTraceCookie;
+        private int mLoadTraceCookie;
+
+        public LoadItemRunnable(LoadScheduler<Target, Params, Result> scheduler,
+                ItemRequest<Target, Params, Result> request, HedgedLoad hedgedLoad, boolean hedge) {
+            mScheduler = scheduler;
+            mRequest = request;
+            mHedgedLoad = hedgedLoad;
+            mHedge = hedge;
+
+            mDeadlineRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    mScheduler.abandonLoad(LoadItemRunnable.this);
+                }
+            };
+
+            mHedgeRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    mScheduler.hedgeLoad(LoadItemRunnable.this);
+                }
+            };
+        }
+
+        public ItemRequest<Target, Params, Result> getItemRequest() {
+            return mRequest;
+        }
+
+        public HedgedLoad getHedgedLoad() {
+            return mHedgedLoad;
+        }
+
+        public boolean isHedge() {
+            return mHedge;
+        }
+
+        public synchronized boolean isFinished() {
+            return mFinished;
+        }
+
+        public synchronized void beginQueueTrace() {
+            mQueueTraceCookie = mScheduler.beginAsyncTrace(TRACE_QUEUE, mRequest.position,
+                    mRequest.itemPart);
+        }
+
+        public synchronized void endQueueTrace() {
+            mScheduler.endAsyncTrace(TRACE_QUEUE, mRequest.position, mRequest.itemPart,
+                    mQueueTraceCookie);
+            mQueueTraceCookie = 0;
+        }
+
+        private synchronized void beginLoadTrace() {
+            mLoadTraceCookie = mScheduler.beginAsyncTrace(getLoadTraceName(), mRequest.position,
+                    mRequest.itemPart);
+        }
+
+        private synchronized void endLoadTrace() {
+            mScheduler.endAsyncTrace(getLoadTraceName(), mRequest.position, mRequest.itemPart,
+                    mLoadTraceCookie);
+            mLoadTraceCookie = 0;
+        }
+
+        private String getLoadTraceName() {
+            return (mHedge ? TRACE_HEDGED_LOAD : TRACE_LOAD);
+        }
+
+        public boolean abandon() {
+            final ItemSource.Cancellable asyncLoad;
+
+            synchronized (this) {
+                if (mFinished || mAbandoned) {
+                    return false;
+                }
+
+                mAbandoned = true;
+                endLoadTrace();
+
+                asyncLoad = mAsyncLoad;
+                if (asyncLoad != null) {
+                    mRequest.asyncLoadPending = false;
+                } else {
+                    mThread.interrupt();
+
+                    // The load might not react to the interruption e.g. a
+                    // blocking socket read. Start a replacement thread so
+                    // that the stuck one doesn't hold up the rest of the queue.
+                    mGrewThreadPool = mScheduler.growThreadPool();
+                }
+            }
+
+            if (asyncLoad != null) {
+                cancel(asyncLoad);
+            }
+
+            return true;
+        }
+
+        public void cancelAsyncLoad() {
+            final ItemSource.Cancellable asyncLoad;
+
+            synchronized (this) {
+                if (mFinished) {
+                    return;
+                }
+
+                // Cancelled before the asynchronous load, if any, was
+                // handed over. See startAsyncLoad().
+                if (mAsyncLoad == null) {
+                    mCancelled = true;
+                    return;
+                }
+
+                mFinished = true;
+                asyncLoad = mAsyncLoad;
+                mRequest.asyncLoadPending = false;
+                endLoadTrace();
+            }
+
+            mScheduler.mDispatcher.removeCallbacks(mDeadlineRunnable);
+            mScheduler.mDispatcher.removeCallbacks(mHedgeRunnable);
+
+            cancel(asyncLoad);
+        }
+
+        private boolean startAsyncLoad(ItemSource.Cancellable asyncLoad) {
+            synchronized (this) {
+                // Loaded, abandoned or cancelled before the asynchronous
+                // load was handed over.
+                if (!mFinished && !mAbandoned && !mCancelled) {
+                    mAsyncLoad = asyncLoad;
+                    mThread = null;
+
+                    // Keep the request around while loading so that it can be
+                    // cancelled, and doesn't get submitted again when displayed.
+                    mRequest.asyncLoadPending = true;
+                    if (!mRequest.warmStart) {
+                        mRequest.requests.putIfAbsent(mRequest.id, mRequest);
+                    }
+
+                    return true;
+                }
+
+                if (mFinished) {
+                    return false;
+                }
+            }
+
+            cancel(asyncLoad);
+            return false;
+        }
+
+        private void cancel(final ItemSource.Cancellable asyncLoad) {
+            // Losing hedged loads are cancelled from the thread that
+            // completed the winning one, which might be any thread for
+            // asynchronous loads. Cancellable.cancel() is only ever
+            // called on the dispatch thread.
+            final Dispatcher dispatcher = mScheduler.mDispatcher;
+            if (dispatcher.isDispatchThread()) {
+                asyncLoad.cancel();
+                return;
+            }
+
+            dispatcher.post(new Runnable() {
+                @Override
+                public void run() {
+                    asyncLoad.cancel();
+                }
+            });
+        }
+
+        private boolean endLoad() {
+            final Dispatcher dispatcher = mScheduler.mDispatcher;
+            dispatcher.removeCallbacks(mDeadlineRunnable);
+            dispatcher.removeCallbacks(mHedgeRunnable);
+
+            synchronized (this) {
+                if (mFinished) {
+                    return false;
+                }
+
+                mFinished = true;
+
+                // The load was abandoned past its deadline, its thread
+                // has been replaced in the meantime.
+                if (mAbandoned) {
+                    if (mGrewThreadPool) {
+                        mScheduler.shrinkThreadPool();
+                    }
+
+                    return false;
+                }
+
+                endLoadTrace();
+            }
+
+            return true;
+        }
+
+        private boolean complete() {
+            // The first load of an attempt to finish wins, be it the
+            // original or the hedged one. The other one is cancelled.
+            return mHedgedLoad.complete(mHedge);
+        }
+
+        @Override
+        public void run() {
+            endQueueTrace();
+
+            // Warm start requests stay around while running so that they
+            // can be adopted once their item is displayed. Hedged loads
+            // leave the request where hedgeLoad() put it.
+            if (!mRequest.warmStart && !mHedge) {
+                mRequest.requests.remove(mRequest.id, mRequest);
+            }
+
+            if (mScheduler.targetReused(mRequest)) {
+                return;
+            }
+
+            synchronized (this) {
+                mThread = Thread.currentThread();
+            }
+
+            final Dispatcher dispatcher = mScheduler.mDispatcher;
+            mStartTime = mScheduler.mClock.uptimeMillis();
+
+            // Traced until the result is delivered, possibly on
+            // another thread for asynchronous loads.
+            beginLoadTrace();
+
+            final ScrollRecorder scrollRecorder = mRequest.scrollRecorder;
+            if (scrollRecorder != null) {
+                scrollRecorder.recordLoadStart(mStartTime, mRequest.position, mRequest.itemPart,
+                        mRequest.target != null);
+            }
+
+            final long deadline = mScheduler.getLoadDeadline(mRequest.itemPart);
+            if (deadline > 0) {
+                dispatcher.postDelayed(mDeadlineRunnable, deadline);
+            }
+
+            // Visible items taking longer than most loads get a second,
+            // concurrent load. See hedgeLoad().
+            final long hedgeDelay = mScheduler.getLatencyTracker(mRequest.itemPart).getPercentile95();
+            if (mScheduler.mHedgedLoadsEnabled && !mHedge && mRequest.target != null && hedgeDelay > 0) {
+                dispatcher.postDelayed(mHedgeRunnable, hedgeDelay);
+            }
+
+            final ItemSource<Target, Params, Result> source = mScheduler.mSource;
+
+            Result result = null;
+            try {
+                // Asynchronous loads don't hold the thread, the result
+                // is delivered to onItemPartLoaded() later on.
+                final ItemSource.Cancellable asyncLoad = source.loadItemPartAsync(mRequest.itemParams,
+                        mRequest.itemPart, this);
+
+                if (asyncLoad != null) {
+                    if (!startAsyncLoad(asyncLoad)) {
+                        endLoad();
+                    }
+
+                    return;
+                }
+
+                final boolean traced = mScheduler.beginTrace("loadItemPart", mRequest.position,
+                        mRequest.itemPart);
+                try {
+                    result = source.loadItemPart(mRequest.itemParams, mRequest.itemPart,
+                            mRequest.targetWidth, mRequest.targetHeight);
+                } finally {
+                    if (traced) {
+                        mScheduler.endTrace();
+                    }
+                }
+            } catch (RuntimeException e) {
+                endLoad();
+                throw e;
+            } finally {
+                // Don't leave the interruption behind for the next task
+                synchronized (this) {
+                    if (mAbandoned) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+
+            onItemPartLoaded(result);
+        }
+
+        @Override
+        public void onItemPartLoaded(Result result) {
+            if (!endLoad()) {
+                return;
+            }
+
+            mScheduler.getLatencyTracker(mRequest.itemPart).add(mScheduler.mClock.uptimeMillis() - mStartTime);
+
+            if (!complete()) {
+                return;
+            }
+
+            if (mHedge) {
+                mScheduler.mStats.incrementHedgeWinCount();
+            }
+
+            final ScrollRecorder scrollRecorder = mRequest.scrollRecorder;
+            if (scrollRecorder != null) {
+                scrollRecorder.recordLoadFinish(mScheduler.mClock.uptimeMillis(), mRequest.position,
+                        mRequest.itemPart, result != null);
+            }
+
+            // Warm start requests might be adopted by a visible item
+            // concurrently. See performDisplayItemPart().
+            final boolean visible;
+            synchronized (mRequest) {
+                mRequest.result = new SoftReference<Result>(result);
+                visible = (mRequest.target != null);
+            }
+
+            mRequest.asyncLoadPending = false;
+            mRequest.requests.remove(mRequest.id, mRequest);
+
+            final Failure failure = mScheduler.recordLoadResult(mRequest, result);
+
+            // This is just a preload request, we're done here
+            if (!visible || mScheduler.targetReused(mRequest)) {
+                return;
+            }
+
+            // Keep the item in its placeholder state while there
+            // are retries left.
+            if (failure != null && failure.count <= mScheduler.mMaxRetries) {
+                final long delay = mScheduler.getRetryDelay(failure);
+                mScheduler.mDispatcher.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mScheduler.scheduleRetry(mRequest, delay);
+                    }
+                });
+
+                return;
+            }
+
+            // Item is now loaded, run the display routine
+            mScheduler.mDispatcher.post(new DisplayItemRunnable<Target, Params, Result>(mScheduler, mRequest,
+                    false));
+        }
+    }
+
+    private static final class FailureKey<Params> {
+        private final Params mItemParams;
+        private final int mItemPart;
+
+        public FailureKey(Params itemParams, int itemPart) {
+            mItemParams = itemParams;
+            mItemPart = itemPart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FailureKey)) {
+                return false;
+            }
+
+            final FailureKey<?> other = (FailureKey<?>) o;
+            return (mItemPart == other.mItemPart && mItemParams.equals(other.mItemParams));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mItemParams.hashCode() + mItemPart;
+        }
+    }
+
+    private static final class RetryItemRunnable<Target, Params, Result> implements Runnable {
+        private final LoadScheduler<Target, Params, Result> mScheduler;
+        private final ItemRequest<Target, Params, Result> mRequest;
+
+        public RetryItemRunnable(LoadScheduler<Target, Params, Result> scheduler,
+                ItemRequest<Target, Params, Result> request) {
+            mScheduler = scheduler;
+            mRequest = request;
+        }
+
+        @Override
+        public void run() {
+            mScheduler.performRetry(mRequest);
+        }
+    }
+
+    private static final class DisplayItemRunnable<Target, Params, Result> implements Runnable {
+        private final LoadScheduler<Target, Params, Result> mScheduler;
+        private final ItemRequest<Target, Params, Result> mRequest;
+        private final Result mResult;
+        private final boolean mFromMemory;
+
+        public DisplayItemRunnable(LoadScheduler<Target, Params, Result> scheduler,
+                ItemRequest<Target, Params, Result> request, boolean fromMemory) {
+            // We should have set the result at this point
+            if (request.result == null) {
+                throw new IllegalStateException("Result should not be null when displaying an item part");
+            }
+
+            mScheduler = scheduler;
+            mRequest = request;
+            mResult = request.result.get();
+            mFromMemory = fromMemory;
+
+            // Held until displayed or dropped, see run()
+            if (mResult != null) {
+                scheduler.mSource.retainItemPart(mResult, request.itemPart);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                display();
+            } finally {
+                if (mResult != null) {
+                    mScheduler.mSource.releaseItemPart(mResult, mRequest.itemPart);
+                }
+            }
+        }
+
+        private void display() {
+            if (mScheduler.targetReused(mRequest)) {
+                return;
+            }
+
+            // Simply bail if the target has been garbage collected, or if
+            // the request was detached from its container since posted
+            final SoftReference<Target> targetRef = mRequest.target;
+            final Target target = (targetRef != null ? targetRef.get() : null);
+            if (target == null) {
+                return;
+            }
+
+            // Deliver the result to display the item part
+            mScheduler.performDisplayResult(target, mResult, mRequest.position, mRequest.itemPart,
+                    mFromMemory);
+            mScheduler.getItemState(target).displayedPartCount++;
+        }
+    }
+
+    /**
+     * Builder class for {@link LoadScheduler}. It lets you customize the
+     * scheduling behaviour. Settings not set on the builder fall back to
+     * their defaults.
+     *
+     * @param <Target> - The type of the targets items are displayed in.
+     * @param <Params> - The parameters for loading an item.
+     * @param <Result> - The result of the item loading operation.
+     */
+    public final static class Builder<Target, Params, Result> {
+        private static final int DEFAULT_THREAD_POOL_SIZE = 2;
+        private static final int DEFAULT_MAX_PENDING_REQUESTS = 0;
+        private static final long DEFAULT_FAILURE_TTL = 0;
+        private static final int DEFAULT_MAX_RETRIES = 0;
+        private static final long DEFAULT_LOAD_DEADLINE = 0;
+        private static final boolean DEFAULT_HEDGED_LOADS_ENABLED = false;
+
+        private final ItemSource<Target, Params, Result> mSource;
+        private final Clock mClock;
+        private final Dispatcher mDispatcher;
+
+        private int mThreadPoolSize;
+        private int mMaxPendingRequests;
+        private long mFailureTtl;
+        private int mMaxRetries;
+        private long mLoadDeadline;
+        private final Map<Integer, Long> mPartLoadDeadlines;
+        private boolean mHedgedLoadsEnabled;
+        private LoadExecutor.Factory mExecutorFactory;
+        private LoadTracer mTracer;
+
+        /**
+         * @param source - The source of the item data.
+         * @param clock - The clock timing requests, retries and deadlines.
+         * @param dispatcher - The dispatcher of the thread items are
+         *        displayed in e.g. the UI thread.
+         */
+        public Builder(ItemSource<Target, Params, Result> source, Clock clock, Dispatcher dispatcher) {
+            if (source == null || clock == null || dispatcher == null) {
+                throw new IllegalArgumentException("LoadScheduler needs a source, a clock and a dispatcher");
+            }
+
+            mSource = source;
+            mClock = clock;
+            mDispatcher = dispatcher;
+
+            mThreadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+            mMaxPendingRequests = DEFAULT_MAX_PENDING_REQUESTS;
+            mFailureTtl = DEFAULT_FAILURE_TTL;
+            mMaxRetries = DEFAULT_MAX_RETRIES;
+            mLoadDeadline = DEFAULT_LOAD_DEADLINE;
+            mPartLoadDeadlines = new HashMap<Integer, Long>();
+            mHedgedLoadsEnabled = DEFAULT_HEDGED_LOADS_ENABLED;
+            mExecutorFactory = null;
+            mTracer = null;
+        }
+
+        /**
+         * Sets the maximum number of loads running at once. Defaults to
+         * {@value #DEFAULT_THREAD_POOL_SIZE}.
+         *
+         * @param threadPoolSize - Maximum number of running loads.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder<Target, Params, Result> setThreadPoolSize(int threadPoolSize) {
+            mThreadPoolSize = threadPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of queued requests. Once exceeded, the
+         * least urgent ones are shed, preloads first. A value of 0 means
+         * no limit. Defaults to {@value #DEFAULT_MAX_PENDING_REQUESTS}.
+         *
+         * @param maxPendingRequests - Maximum number of queued requests.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         *
+         * @see RequestStats#getShedRequestCount()
+         */
+        public Builder<Target, Params, Result> setMaxPendingRequests(int maxPendingRequests) {
+            mMaxPendingRequests = maxPendingRequests;
+            return this;
+        }
+
+        /**
+         * Sets how long failed item parts are remembered. They're not
+         * loaded again, nor preloaded, until retried or forgotten. A value
+         * of 0 disables failure tracking. Defaults to
+         * {@value #DEFAULT_FAILURE_TTL}.
+         *
+         * @param failureTtl - Time to remember failures, in milliseconds.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder<Target, Params, Result> setFailureTtl(long failureTtl) {
+            mFailureTtl = failureTtl;
+            return this;
+        }
+
+        /**
+         * Sets how many times failed loads for visible items are retried,
+         * with exponential backoff. Only effective along with
+         * {@link #setFailureTtl(long)}. Defaults to
+         * {@value #DEFAULT_MAX_RETRIES}.
+         *
+         * @param maxRetries - Maximum number of retries.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder<Target, Params, Result> setMaxRetries(int maxRetries) {
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the time after which a running item part load is abandoned.
+         * Abandoned loads count as failures. A value of 0 disables
+         * deadlines. Defaults to {@value #DEFAULT_LOAD_DEADLINE}.
+         *
+         * @param loadDeadline - Maximum load time, in milliseconds.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         *
+         * @see #setLoadDeadline(int, long)
+         */
+        public Builder<Target, Params, Result> setLoadDeadline(long loadDeadline) {
+            mLoadDeadline = loadDeadline;
+            return this;
+        }
+
+        /**
+         * Sets the time after which a running load for the given item part
+         * is abandoned, overriding the value set with
+         * {@link #setLoadDeadline(long)} for that part.
+         *
+         * @param itemPart - The item part.
+         * @param loadDeadline - Maximum load time, in milliseconds.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder<Target, Params, Result> setLoadDeadline(int itemPart, long loadDeadline) {
+            mPartLoadDeadlines.put(itemPart, loadDeadline);
+            return this;
+        }
+
+        /**
+         * Sets whether slow loads for visible items should be hedged with a
+         * second load, the first one to finish being displayed. Defaults
+         * to {@value #DEFAULT_HEDGED_LOADS_ENABLED}.
+         *
+         * @param hedgedLoadsEnabled - {@code true} to enable hedged loads.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder<Target, Params, Result> setHedgedLoadsEnabled(boolean hedgedLoadsEnabled) {
+            mHedgedLoadsEnabled = hedgedLoadsEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the factory of the executor running the loads. Defaults to
+         * a {@link LoadThreadPoolExecutor} letting idle threads time out.
+         *
+         * @param executorFactory - The executor factory.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder<Target, Params, Result> setExecutorFactory(LoadExecutor.Factory executorFactory) {
+            mExecutorFactory = executorFactory;
+            return this;
+        }
+
+        /**
+         * Sets the tracer timing queued and running loads. Disabled by
+         * default.
+         *
+         * @param tracer - The tracer, {@code null} to disable tracing.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder<Target, Params, Result> setLoadTracer(LoadTracer tracer) {
+            mTracer = tracer;
+            return this;
+        }
+
+        /**
+         * Creates a {@link LoadScheduler} with the settings of this builder.
+         *
+         * @return A new {@link LoadScheduler}.
+         */
+        public LoadScheduler<Target, Params, Result> build() {
+            final LoadExecutor.Factory executorFactory =
+                    (mExecutorFactory != null ? mExecutorFactory : new ThreadPoolExecutorFactory());
+
+            return new LoadScheduler<Target, Params, Result>(mSource, mClock, mDispatcher,
+                    executorFactory, mTracer, mThreadPoolSize, mMaxPendingRequests, mFailureTtl,
+                    mMaxRetries, mLoadDeadline, mPartLoadDeadlines, mHedgedLoadsEnabled);
+        }
+    }
+
+    private static final class ThreadPoolExecutorFactory implements LoadExecutor.Factory {
+        @Override
+        public LoadExecutor createLoadExecutor(int maxRunningCount, int maximumPoolSize) {
+            final LoadThreadPoolExecutor executor = new LoadThreadPoolExecutor(maxRunningCount,
+                    maximumPoolSize, 60, TimeUnit.SECONDS);
+
+            // Let idle threads go away instead of keeping a full pool
+            // around for each list.
+            executor.allowCoreThreadTimeOut(true);
+
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>{@code LoadThreadPoolExecutor} runs item loads in {@link LoadPriority}
+ * order on a pool of threads, with a limit on how many loads run at once
+ * that can be changed and paused at any time. Only {@link Comparable}
+ * tasks can be run.</p>
+ *
+ * <p>Lowering {@link #setCorePoolSize(int)} on a plain
+ * {@link ThreadPoolExecutor} doesn't stop its threads from picking up
+ * queued tasks, threads only go away once idle. Here, threads wait before
+ * dequeuing a task while the limit is reached or the executor is paused.
+ * The waiting tasks stay in the queue and can still be removed or
+ * re-prioritised.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public class LoadThreadPoolExecutor extends ThreadPoolExecutor implements LoadExecutor {
+    private final LoadQueue mQueue;
+
+    /**
+     * @param maxRunningCount - The maximum number of loads running at
+     *        once, also the number of threads kept in the pool.
+     * @param maximumPoolSize - The maximum number of threads, the running
+     *        limit can't be raised past it.
+     * @param keepAliveTime - The time idle threads wait for new loads
+     *        before going away.
+     * @param unit - The unit of {@code keepAliveTime}.
+     */
+    public LoadThreadPoolExecutor(int maxRunningCount, int maximumPoolSize,
+            long keepAliveTime, TimeUnit unit) {
+        this(maxRunningCount, maximumPoolSize, keepAliveTime, unit, new LoadQueue(maxRunningCount));
+    }
+
+    private LoadThreadPoolExecutor(int maxRunningCount, int maximumPoolSize,
+            long keepAliveTime, TimeUnit unit, LoadQueue queue) {
+        super(maxRunningCount, maximumPoolSize, keepAliveTime, unit, queue);
+        mQueue = queue;
+    }
+
+    /**
+     * Sets the maximum number of loads running at once. Running loads are
+     * left alone when the limit is lowered, no new ones start until
+     * enough of them are done.
+     *
+     * @param maxRunningCount - The maximum number of running loads.
+     */
+    @Override
+    public void setMaxRunningCount(int maxRunningCount) {
+        mQueue.setMaxRunningCount(maxRunningCount);
+
+        // Start threads for the extra loads, if any
+        setCorePoolSize(maxRunningCount);
+    }
+
+    /**
+     * @return The number of loads currently running, or about to.
+     */
+    public int getRunningCount() {
+        return mQueue.getRunningCount();
+    }
+
+    /**
+     * Holds the queued loads while paused. Running loads are left alone.
+     *
+     * @param paused - {@code true} to pause, {@code false} to resume.
+     */
+    @Override
+    public void setPaused(boolean paused) {
+        mQueue.setPaused(paused);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+
+        // ThreadPoolExecutor hands a task straight to the thread it
+        // starts for it, bypassing the queue. Always queue the task
+        // instead so that it's subject to the running limit like any
+        // other. The queue is unbounded so no threads beyond the core
+        // ones would be started anyway.
+        mQueue.offer(task);
+        prestartCoreThread();
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable thrown) {
+        super.afterExecute(task, thrown);
+        mQueue.release();
+    }
+
+    private static final class LoadQueue extends PriorityBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        private final ReentrantLock mLock;
+        private final Condition mCanRun;
+        private boolean mPaused;
+        private int mMaxRunningCount;
+        private int mRunningCount;
+
+        public LoadQueue(int maxRunningCount) {
+            mLock = new ReentrantLock();
+            mCanRun = mLock.newCondition();
+            mPaused = false;
+            mMaxRunningCount = maxRunningCount;
+            mRunningCount = 0;
+        }
+
+        public void setPaused(boolean paused) {
+            mLock.lock();
+            try {
+                mPaused = paused;
+                mCanRun.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        public void setMaxRunningCount(int maxRunningCount) {
+            mLock.lock();
+            try {
+                mMaxRunningCount = maxRunningCount;
+                mCanRun.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        public int getRunningCount() {
+            mLock.lock();
+            try {
+                return mRunningCount;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        // Threads take a running slot before they dequeue a task and give
+        // it back once the task is done, see afterExecute().
+        @Override
+        public Runnable take() throws InterruptedException {
+            while (true) {
+                acquire(Long.MAX_VALUE);
+
+                final Runnable task;
+                try {
+                    task = super.take();
+                } catch (InterruptedException e) {
+                    release();
+                    throw e;
+                }
+
+                if (canRun()) {
+                    return task;
+                }
+
+                // Paused or limited while waiting for a task, put it back
+                offer(task);
+                release();
+            }
+        }
+
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+
+            while (true) {
+                nanos = acquire(nanos);
+                if (nanos <= 0) {
+                    return null;
+                }
+
+                final long start = System.nanoTime();
+                final Runnable task;
+                try {
+                    task = super.poll(nanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    release();
+                    throw e;
+                }
+
+                if (task == null) {
+                    release();
+                    return null;
+                }
+
+                if (canRun()) {
+                    return task;
+                }
+
+                // Paused or limited while waiting for a task, put it back
+                offer(task);
+                release();
+                nanos -= System.nanoTime() - start;
+            }
+        }
+
+        private long acquire(long nanos) throws InterruptedException {
+            mLock.lock();
+            try {
+                while ((mPaused || mRunningCount >= mMaxRunningCount) && nanos > 0) {
+                    nanos = mCanRun.awaitNanos(nanos);
+                }
+
+                if (nanos > 0) {
+                    mRunningCount++;
+                }
+
+                return nanos;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        private boolean canRun() {
+            mLock.lock();
+            try {
+                return (!mPaused && mRunningCount <= mMaxRunningCount);
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        public void release() {
+            mLock.lock();
+            try {
+                mRunningCount--;
+                mCanRun.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+}
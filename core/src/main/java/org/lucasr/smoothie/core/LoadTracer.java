@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+/**
+ * {@code LoadTracer} traces each load of a {@link LoadScheduler} as an
+ * asynchronous slice, from the moment it's queued until its result is
+ * delivered e.g. as systrace sections on Android. The calls into the
+ * {@link ItemSource} are traced as synchronous sections.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public interface LoadTracer {
+    /**
+     * Begins a section on the calling thread.
+     *
+     * @param name - The name of the section.
+     * @param position - The item position.
+     * @param itemPart - The item part.
+     *
+     * @return Whether the section was traced. Only call
+     *         {@link #endSection()} if it was.
+     */
+    public boolean beginSection(String name, int position, int itemPart);
+
+    /**
+     * Ends the last section begun on the calling thread.
+     */
+    public void endSection();
+
+    /**
+     * Begins an asynchronous slice. This method might be called in any
+     * thread.
+     *
+     * @param name - The name of the slice.
+     * @param position - The item position.
+     * @param itemPart - The item part.
+     *
+     * @return The cookie to end the slice with, 0 if nothing was traced.
+     */
+    public int beginAsyncSection(String name, int position, int itemPart);
+
+    /**
+     * Ends an asynchronous slice. This method might be called in any
+     * thread.
+     *
+     * @param name - The name of the slice.
+     * @param position - The item position.
+     * @param itemPart - The item part.
+     * @param cookie - The cookie returned when the slice began.
+     */
+    public void endAsyncSection(String name, int position, int itemPart, int cookie);
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+/**
+ * {@code PreloadWindow} computes which items beyond the viewport get
+ * preloaded. Preloading is done in whole rows, so that all items in a
+ * grid row come into view loaded.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class PreloadWindow {
+    private PreloadWindow() {
+    }
+
+    /**
+     * @param preloadRowsCount - The configured number of rows to preload,
+     *        or 0 to use the number of items instead.
+     * @param preloadItemsCount - The configured number of items to preload.
+     * @param numColumns - The number of items per row.
+     *
+     * @return The number of rows to preload. The number of items is
+     *         rounded up to whole rows.
+     */
+    public static int getRowsCount(int preloadRowsCount, int preloadItemsCount, int numColumns) {
+        if (preloadRowsCount > 0) {
+            return preloadRowsCount;
+        }
+
+        return (preloadItemsCount + numColumns - 1) / numColumns;
+    }
+
+    /**
+     * @param firstPosition - The first position after the viewport.
+     * @param rowsCount - The number of rows to preload.
+     * @param numColumns - The number of items per row.
+     * @param itemCount - The total number of items.
+     *
+     * @return The position after the last one to preload.
+     */
+    public static int getEndPosition(int firstPosition, int rowsCount, int numColumns, int itemCount) {
+        return Math.min(firstPosition + rowsCount * numColumns, itemCount);
+    }
+
+    /**
+     * @param firstPosition - The first position after the viewport.
+     * @param position - A preloaded position.
+     * @param numColumns - The number of items per row.
+     *
+     * @return The row of the given position, counting from 0 for the
+     *         first row after the viewport.
+     */
+    public static int getRow(int firstPosition, int position, int numColumns) {
+        return (position - firstPosition) / numColumns;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+/**
+ * {@code RequestStats} holds counters about the item requests handled by
+ * a {@link LoadScheduler}.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class RequestStats {
+    private int mWarmStartRequestCount;
+    private int mWarmStartAdoptedCount;
+    private int mShedRequestCount;
+    private int mFailedLoadCount;
+    private int mRetryCount;
+    private int mSkippedFailedRequestCount;
+    private int mAbandonedLoadCount;
+    private int mHedgedLoadCount;
+    private int mHedgeWinCount;
+
+    RequestStats() {
+        mWarmStartRequestCount = 0;
+        mWarmStartAdoptedCount = 0;
+        mShedRequestCount = 0;
+        mFailedLoadCount = 0;
+        mRetryCount = 0;
+        mSkippedFailedRequestCount = 0;
+        mAbandonedLoadCount = 0;
+        mHedgedLoadCount = 0;
+        mHedgeWinCount = 0;
+    }
+
+    synchronized void incrementWarmStartRequestCount() {
+        mWarmStartRequestCount++;
+    }
+
+    synchronized void incrementWarmStartAdoptedCount() {
+        mWarmStartAdoptedCount++;
+    }
+
+    synchronized void incrementShedRequestCount() {
+        mShedRequestCount++;
+    }
+
+    synchronized void incrementFailedLoadCount() {
+        mFailedLoadCount++;
+    }
+
+    synchronized void incrementRetryCount() {
+        mRetryCount++;
+    }
+
+    synchronized void incrementSkippedFailedRequestCount() {
+        mSkippedFailedRequestCount++;
+    }
+
+    synchronized void incrementAbandonedLoadCount() {
+        mAbandonedLoadCount++;
+    }
+
+    synchronized void incrementHedgedLoadCount() {
+        mHedgedLoadCount++;
+    }
+
+    synchronized void incrementHedgeWinCount() {
+        mHedgeWinCount++;
+    }
+
+    /**
+     * @return The number of item part requests restored from a warm start
+     *         snapshot.
+     */
+    public synchronized int getWarmStartRequestCount() {
+        return mWarmStartRequestCount;
+    }
+
+    /**
+     * @return The number of warm start requests that were still pending when
+     *         their item was displayed, and were taken over by the item's
+     *         request instead of loading the item again.
+     */
+    public synchronized int getWarmStartAdoptedCount() {
+        return mWarmStartAdoptedCount;
+    }
+
+    /**
+     * @return The number of pending requests dropped because the request
+     *         queue was full.
+     *
+     * @see LoadScheduler.Builder#setMaxPendingRequests(int)
+     */
+    public synchronized int getShedRequestCount() {
+        return mShedRequestCount;
+    }
+
+    /**
+     * @return The number of item part loads that returned {@code null}.
+     */
+    public synchronized int getFailedLoadCount() {
+        return mFailedLoadCount;
+    }
+
+    /**
+     * @return The number of loads retried after a failure.
+     *
+     * @see LoadScheduler.Builder#setMaxRetries(int)
+     */
+    public synchronized int getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * @return The number of requests that were not loaded right away because
+     *         their item failed to load recently.
+     *
+     * @see LoadScheduler.Builder#setFailureTtl(long)
+     */
+    public synchronized int getSkippedFailedRequestCount() {
+        return mSkippedFailedRequestCount;
+    }
+
+    /**
+     * @return The number of loads abandoned because they ran past their
+     *         deadline.
+     *
+     * @see LoadScheduler.Builder#setLoadDeadline(long)
+     */
+    public synchronized int getAbandonedLoadCount() {
+        return mAbandonedLoadCount;
+    }
+
+    /**
+     * @return The number of duplicate loads started for slow visible items.
+     *
+     * @see LoadScheduler.Builder#setHedgedLoadsEnabled(boolean)
+     */
+    public synchronized int getHedgedLoadCount() {
+        return mHedgedLoadCount;
+    }
+
+    /**
+     * @return The number of duplicate loads that finished before the load
+     *         they duplicated.
+     */
+    public synchronized int getHedgeWinCount() {
+        return mHedgeWinCount;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@code ScrollRecordReader} decodes logs written by
+ * {@link ScrollRecorder#writeTo(java.io.OutputStream)}.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class ScrollRecordReader {
+    /**
+     * Receives the decoded records, in the order they were recorded.
+     */
+    public interface Listener {
+        /**
+         * Called at the start of the log, and whenever a block of the log
+         * starts, with the absolute state at that time.
+         */
+        void onKeyFrame(long time, float position, int scrollState, boolean touching);
+
+        void onScroll(long time, float position);
+
+        void onScrollStateChanged(long time, int scrollState);
+
+        void onTouch(long time, boolean touching);
+
+        void onUpdate(long time, int firstVisiblePosition, int lastVisiblePosition, int preloadCount);
+
+        void onLoadStart(long time, int position, int itemPart, boolean visible);
+
+        void onLoadFinish(long time, int position, int itemPart, boolean loaded);
+
+        void onLoadCancel(long time, int position, int itemPart);
+
+        void onMemoryHit(long time, int position, int itemPart);
+    }
+
+    private ScrollRecordReader() {
+    }
+
+    /**
+     * Reads a whole log. The given stream is not closed.
+     *
+     * @param in - The stream to read the log from.
+     * @param listener - The listener notified of each record.
+     *
+     * @throws IOException If the log can't be read or is malformed.
+     */
+    public static void read(InputStream in, Listener listener) throws IOException {
+        final DataInputStream dis = new DataInputStream(in);
+
+        if (dis.readInt() != ScrollRecorder.MAGIC) {
+            throw new IOException("Not a scroll record");
+        }
+
+        // Older logs just lack the newer record types
+        final int version = dis.readInt();
+        if (version < 1 || version > ScrollRecorder.VERSION) {
+            throw new IOException("Unsupported scroll record version " + version);
+        }
+
+        final int blockCount = dis.readInt();
+        for (int i = 0; i < blockCount; i++) {
+            final byte[] block = new byte[dis.readInt()];
+            dis.readFully(block);
+
+            readBlock(new DataInputStream(new ByteArrayInputStream(block)), listener);
+        }
+    }
+
+    private static void readBlock(DataInputStream in, Listener listener) throws IOException {
+        long time = 0;
+        int position = 0;
+
+        while (true) {
+            final int type = in.read();
+            if (type < 0) {
+                break;
+            }
+
+            if (type == ScrollRecorder.RECORD_KEY_FRAME) {
+                time = in.readLong();
+                position = in.readInt();
+                final int scrollState = in.readByte();
+                final boolean touching = (in.readByte() != 0);
+
+                listener.onKeyFrame(time, position / ScrollRecorder.POSITION_SCALE, scrollState,
+                        touching);
+                continue;
+            }
+
+            time += readVarLong(in);
+
+            switch (type) {
+            case ScrollRecorder.RECORD_SCROLL:
+                position += decodeZigZag(readVarInt(in));
+                listener.onScroll(time, position / ScrollRecorder.POSITION_SCALE);
+                break;
+
+            case ScrollRecorder.RECORD_SCROLL_STATE:
+                listener.onScrollStateChanged(time, readVarInt(in));
+                break;
+
+            case ScrollRecorder.RECORD_TOUCH:
+                listener.onTouch(time, readVarInt(in) != 0);
+                break;
+
+            case ScrollRecorder.RECORD_UPDATE:
+                final int firstVisiblePosition = readVarInt(in);
+                final int lastVisiblePosition = firstVisiblePosition + readVarInt(in);
+                final int preloadCount = readVarInt(in);
+
+                listener.onUpdate(time, firstVisiblePosition, lastVisiblePosition, preloadCount);
+                break;
+
+            case ScrollRecorder.RECORD_LOAD_START:
+            case ScrollRecorder.RECORD_LOAD_FINISH:
+            case ScrollRecorder.RECORD_LOAD_CANCEL:
+            case ScrollRecorder.RECORD_LOAD_MEMORY_HIT:
+                readLoad(type, time, in, listener);
+                break;
+
+            default:
+                throw new IOException("Unknown scroll record type " + type);
+            }
+        }
+    }
+
+    private static void readLoad(int type, long time, DataInputStream in, Listener listener)
+            throws IOException {
+        final int position = readVarInt(in);
+        final int itemPart = readVarInt(in);
+        final boolean flag = (readVarInt(in) != 0);
+
+        switch (type) {
+        case ScrollRecorder.RECORD_LOAD_START:
+            listener.onLoadStart(time, position, itemPart, flag);
+            break;
+
+        case ScrollRecorder.RECORD_LOAD_FINISH:
+            listener.onLoadFinish(time, position, itemPart, flag);
+            break;
+
+        case ScrollRecorder.RECORD_LOAD_CANCEL:
+            listener.onLoadCancel(time, position, itemPart);
+            break;
+
+        default:
+            listener.onMemoryHit(time, position, itemPart);
+            break;
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated scroll record");
+            }
+
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed scroll record");
+    }
+
+    private static int decodeZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
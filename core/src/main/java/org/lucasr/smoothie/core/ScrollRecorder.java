@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>{@code ScrollRecorder} logs scroll behavior into a fixed-size ring
+ * buffer: scroll positions, scroll state changes, touches and item
+ * update passes, along with the item loads they cause. The log can be
+ * dumped with {@link #writeTo(OutputStream)} for offline analysis, and
+ * read back with {@link ScrollRecordReader} e.g. to be replayed by the
+ * simulator.</p>
+ *
+ * <p>Recording is cheap enough for the UI thread: records are
+ * delta-encoded as variable-length integers into preallocated blocks,
+ * nothing is allocated per record. Once the buffer is full, the oldest
+ * block is overwritten. Each block starts with a key frame holding the
+ * absolute state so that the log can be decoded from any block.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class ScrollRecorder {
+    static final int MAGIC = 0x534d5352;
+    static final int VERSION = 2;
+
+    static final int RECORD_KEY_FRAME = 0;
+    static final int RECORD_SCROLL = 1;
+    static final int RECORD_SCROLL_STATE = 2;
+    static final int RECORD_TOUCH = 3;
+    static final int RECORD_UPDATE = 4;
+    static final int RECORD_LOAD_START = 5;
+    static final int RECORD_LOAD_FINISH = 6;
+    static final int RECORD_LOAD_CANCEL = 7;
+    static final int RECORD_LOAD_MEMORY_HIT = 8;
+
+    // Positions are recorded in thousandths of a row
+    static final float POSITION_SCALE = 1000;
+
+    private static final int BLOCK_SIZE = 4096;
+
+    // Key frame: type, time, position, scroll state and touch
+    private static final int KEY_FRAME_SIZE = 1 + 8 + 4 + 1 + 1;
+
+    // Largest record: type, time delta and three 32-bit varints
+    private static final int MAX_RECORD_SIZE = 1 + 10 + 3 * 5;
+
+    private final byte[][] mBlocks;
+    private final int[] mBlockLengths;
+    private int mCurrentBlock;
+    private int mBlockCount;
+
+    private long mTime;
+    private int mPosition;
+    private int mScrollState;
+    private boolean mTouching;
+
+    /**
+     * @param capacity - The maximum size of the log, in bytes.
+     */
+    public ScrollRecorder(int capacity) {
+        final int blockCount = Math.max(2, capacity / BLOCK_SIZE);
+
+        mBlocks = new byte[blockCount][BLOCK_SIZE];
+        mBlockLengths = new int[blockCount];
+
+        clear();
+    }
+
+    /**
+     * Records a scroll position.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param position - The scroll position, in rows. The integer part is
+     *        the first visible row, the fractional part how much of it is
+     *        scrolled out.
+     */
+    public synchronized void recordScroll(long time, float position) {
+        final int scaledPosition = Math.round(position * POSITION_SCALE);
+
+        ensureRecordSpace(time);
+
+        writeRecordHeader(RECORD_SCROLL, time);
+        writeVarInt(encodeZigZag(scaledPosition - mPosition));
+
+        mPosition = scaledPosition;
+    }
+
+    /**
+     * Records a scroll state change.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param scrollState - The new scroll state, one of the
+     *        {@code AbsListView.OnScrollListener.SCROLL_STATE_*} constants.
+     */
+    public synchronized void recordScrollState(long time, int scrollState) {
+        ensureRecordSpace(time);
+
+        writeRecordHeader(RECORD_SCROLL_STATE, time);
+        writeVarInt(scrollState);
+
+        mScrollState = scrollState;
+    }
+
+    /**
+     * Records a finger going down or up.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param touching - Whether a finger is on the screen.
+     */
+    public synchronized void recordTouch(long time, boolean touching) {
+        ensureRecordSpace(time);
+
+        writeRecordHeader(RECORD_TOUCH, time);
+        writeVarInt(touching ? 1 : 0);
+
+        mTouching = touching;
+    }
+
+    /**
+     * Records an item update pass.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param firstVisiblePosition - The first visible position.
+     * @param lastVisiblePosition - The last visible position.
+     * @param preloadCount - The number of positions preloaded.
+     */
+    public synchronized void recordUpdate(long time, int firstVisiblePosition, int lastVisiblePosition,
+            int preloadCount) {
+        ensureRecordSpace(time);
+
+        writeRecordHeader(RECORD_UPDATE, time);
+        writeVarInt(firstVisiblePosition);
+        writeVarInt(lastVisiblePosition - firstVisiblePosition);
+        writeVarInt(preloadCount);
+    }
+
+    /**
+     * Records an item part load starting. Loads are recorded from
+     * background threads, records are kept in the order they come in.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param position - The position of the item.
+     * @param itemPart - The item part.
+     * @param visible - Whether the item is on screen, as opposed to
+     *        being preloaded.
+     */
+    public synchronized void recordLoadStart(long time, int position, int itemPart, boolean visible) {
+        recordLoad(RECORD_LOAD_START, time, position, itemPart, (visible ? 1 : 0));
+    }
+
+    /**
+     * Records an item part load finishing.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param position - The position of the item.
+     * @param itemPart - The item part.
+     * @param loaded - Whether the item part was loaded, as opposed to
+     *        failing to load.
+     */
+    public synchronized void recordLoadFinish(long time, int position, int itemPart, boolean loaded) {
+        recordLoad(RECORD_LOAD_FINISH, time, position, itemPart, (loaded ? 1 : 0));
+    }
+
+    /**
+     * Records an item part request being cancelled before its load
+     * finished.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param position - The position of the item.
+     * @param itemPart - The item part.
+     */
+    public synchronized void recordLoadCancel(long time, int position, int itemPart) {
+        recordLoad(RECORD_LOAD_CANCEL, time, position, itemPart, 0);
+    }
+
+    /**
+     * Records an item part being displayed from memory, without loading.
+     *
+     * @param time - The time of the event, in milliseconds.
+     * @param position - The position of the item.
+     * @param itemPart - The item part.
+     */
+    public synchronized void recordMemoryHit(long time, int position, int itemPart) {
+        recordLoad(RECORD_LOAD_MEMORY_HIT, time, position, itemPart, 0);
+    }
+
+    /**
+     * Discards all records.
+     */
+    public synchronized void clear() {
+        mCurrentBlock = 0;
+        mBlockCount = 1;
+        mBlockLengths[0] = 0;
+
+        mTime = 0;
+        mPosition = 0;
+        mScrollState = 0;
+        mTouching = false;
+
+        writeKeyFrame();
+    }
+
+    /**
+     * Writes the log, from the oldest record to the newest one.
+     *
+     * @param out - The stream to write the log to. It's not closed.
+     *
+     * @throws IOException If the log can't be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        final DataOutputStream dos = new DataOutputStream(out);
+
+        synchronized (this) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(mBlockCount);
+
+            final int firstBlock = (mCurrentBlock - mBlockCount + 1 + mBlocks.length) % mBlocks.length;
+            for (int i = 0; i < mBlockCount; i++) {
+                final int block = (firstBlock + i) % mBlocks.length;
+
+                dos.writeInt(mBlockLengths[block]);
+                dos.write(mBlocks[block], 0, mBlockLengths[block]);
+            }
+        }
+
+        dos.flush();
+    }
+
+    private void recordLoad(int type, long time, int position, int itemPart, int flags) {
+        ensureRecordSpace(time);
+
+        writeRecordHeader(type, time);
+        writeVarInt(position);
+        writeVarInt(itemPart);
+        writeVarInt(flags);
+    }
+
+    private void ensureRecordSpace(long time) {
+        if (mBlockLengths[mCurrentBlock] + MAX_RECORD_SIZE <= BLOCK_SIZE) {
+            return;
+        }
+
+        // Move on to the next block, overwriting the oldest one once
+        // the ring is full.
+        mCurrentBlock = (mCurrentBlock + 1) % mBlocks.length;
+        mBlockLengths[mCurrentBlock] = 0;
+        mBlockCount = Math.min(mBlockCount + 1, mBlocks.length);
+
+        mTime = time;
+        writeKeyFrame();
+    }
+
+    private void writeKeyFrame() {
+        final byte[] block = mBlocks[mCurrentBlock];
+        int offset = mBlockLengths[mCurrentBlock];
+
+        block[offset++] = RECORD_KEY_FRAME;
+
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            block[offset++] = (byte) (mTime >>> shift);
+        }
+
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            block[offset++] = (byte) (mPosition >>> shift);
+        }
+
+        block[offset++] = (byte) mScrollState;
+        block[offset++] = (byte) (mTouching ? 1 : 0);
+
+        mBlockLengths[mCurrentBlock] = offset;
+    }
+
+    private void writeRecordHeader(int type, long time) {
+        mBlocks[mCurrentBlock][mBlockLengths[mCurrentBlock]++] = (byte) type;
+
+        // Events are recorded in time order, deltas are never negative.
+        // Loads finishing on other threads might come in slightly late.
+        writeVarLong(Math.max(0, time - mTime));
+        mTime = Math.max(mTime, time);
+    }
+
+    private void writeVarInt(int value) {
+        writeVarLong(value & 0xffffffffL);
+    }
+
+    private void writeVarLong(long value) {
+        final byte[] block = mBlocks[mCurrentBlock];
+        int offset = mBlockLengths[mCurrentBlock];
+
+        while ((value & ~0x7fL) != 0) {
+            block[offset++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        block[offset++] = (byte) value;
+        mBlockLengths[mCurrentBlock] = offset;
+    }
+
+    private static int encodeZigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+/**
+ * <p>{@code ScrollVelocity} tracks how fast a list scrolls, in rows per
+ * millisecond, and estimates when rows beyond the viewport come into view
+ * i.e. the deadlines of their preloads. See {@link LoadPriority}.</p>
+ *
+ * <p>The list going idle doesn't reset the velocity. Preloads are usually
+ * requested right after a fling stops and the user often keeps scrolling
+ * the same way, so the last velocity is kept and decays as time goes by
+ * instead.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class ScrollVelocity {
+    // Rows per millisecond, below this the list is considered idle
+    private static final float MIN_VELOCITY = 0.0005f;
+
+    // Time assumed for each row to come into view when the list is
+    // not scrolling towards it.
+    private static final long IDLE_ROW_TIME = 500;
+
+    // Time for the last velocity to decay to about a third
+    private static final long DECAY_TIME = 1000;
+
+    private float mPosition;
+    private long mPositionTime;
+    private float mVelocity;
+    private long mVelocityTime;
+
+    public ScrollVelocity() {
+        mPosition = 0;
+        mPositionTime = 0;
+        mVelocity = 0;
+        mVelocityTime = 0;
+    }
+
+    /**
+     * Adds a scroll position sample.
+     *
+     * @param time - The time of the sample, in milliseconds.
+     * @param position - The scroll position, in rows.
+     */
+    public void addPosition(long time, float position) {
+        if (mPositionTime > 0 && time > mPositionTime) {
+            final float velocity = (position - mPosition) / (time - mPositionTime);
+
+            // Smooth out uneven scroll event intervals
+            mVelocity = (getVelocity(time) + velocity) / 2;
+            mVelocityTime = time;
+        }
+
+        mPosition = position;
+        mPositionTime = time;
+    }
+
+    /**
+     * Stops measuring once the list is idle. The next sample starts a new
+     * measurement, the current velocity is kept and decays.
+     */
+    public void stop() {
+        mPositionTime = 0;
+    }
+
+    /**
+     * @param now - The current time, in milliseconds.
+     *
+     * @return The velocity in rows per millisecond, positive when
+     *         scrolling towards the end of the list.
+     */
+    public float getVelocity(long now) {
+        final long elapsed = Math.max(0, now - mVelocityTime);
+        return mVelocity * (float) Math.exp(-(double) elapsed / DECAY_TIME);
+    }
+
+    /**
+     * @param now - The current time, in milliseconds.
+     * @param rowDistance - The number of rows between the viewport and
+     *        the row, 1 for the row right after the viewport.
+     *
+     * @return The time the row is expected to come into view.
+     */
+    public long estimateRowDeadline(long now, int rowDistance) {
+        // Rows ahead of a list scrolling towards them come into view at
+        // the current scroll velocity.
+        final float velocity = getVelocity(now);
+        if (velocity > MIN_VELOCITY) {
+            return now + (long) (rowDistance / velocity);
+        }
+
+        return now + rowDistance * IDLE_ROW_TIME;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BackoffTest {
+    @Test
+    public void doublesOnEachFailure() {
+        assertEquals(1000, Backoff.getDelay(1, 1000, 60000));
+        assertEquals(2000, Backoff.getDelay(2, 1000, 60000));
+        assertEquals(4000, Backoff.getDelay(3, 1000, 60000));
+        assertEquals(8000, Backoff.getDelay(4, 1000, 60000));
+    }
+
+    @Test
+    public void isCappedToMaxDelay() {
+        assertEquals(60000, Backoff.getDelay(7, 1000, 60000));
+        assertEquals(60000, Backoff.getDelay(1000, 1000, 60000));
+        assertEquals(500, Backoff.getDelay(2, 1000, 500));
+    }
+
+    @Test
+    public void treatsNoFailuresAsTheFirstOne() {
+        assertEquals(1000, Backoff.getDelay(0, 1000, 60000));
+        assertEquals(1000, Backoff.getDelay(-1, 1000, 60000));
+    }
+}
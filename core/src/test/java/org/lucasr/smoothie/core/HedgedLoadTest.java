@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs hedged loads against a local stand-in server replying to each
+ * connection after a given delay.
+ */
+public class HedgedLoadTest {
+    private static final long SLOW_REPLY_DELAY = 3000;
+    private static final long TYPICAL_LATENCY = 50;
+
+    private DelayedServer mServer;
+    private ExecutorService mExecutor;
+    private LatencyTracker mLatencyTracker;
+
+    private CountDownLatch mCompleted;
+    private volatile String mWinner;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new DelayedServer();
+        mExecutor = Executors.newCachedThreadPool();
+
+        mLatencyTracker = new LatencyTracker();
+        for (int i = 0; i < 20; i++) {
+            mLatencyTracker.add(TYPICAL_LATENCY);
+        }
+
+        mCompleted = new CountDownLatch(1);
+        mWinner = null;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        // Unblocks the loads still waiting for a reply
+        mServer.close();
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void hedgedLoadWinsOverStuckLoad() throws Exception {
+        mServer.setReplyDelays(SLOW_REPLY_DELAY, 0);
+
+        final HedgedLoad hedgedLoad = new HedgedLoad();
+        final Future<?> load = mExecutor.submit(newLoad(hedgedLoad, false));
+        hedgedLoad.setLoad(load);
+
+        hedgeWhenSlow(hedgedLoad);
+
+        assertTrue(mCompleted.await(SLOW_REPLY_DELAY / 2, TimeUnit.MILLISECONDS));
+        assertEquals("hedge", mWinner);
+
+        // The stuck load is cancelled and can't complete anymore
+        assertTrue(load.isCancelled());
+        assertTrue(hedgedLoad.isDone());
+        assertFalse(hedgedLoad.isHedged());
+        assertFalse(hedgedLoad.complete(false));
+    }
+
+    @Test
+    public void fastLoadIsNotHedged() throws Exception {
+        mServer.setReplyDelays(0);
+
+        final HedgedLoad hedgedLoad = new HedgedLoad();
+        hedgedLoad.setLoad(mExecutor.submit(newLoad(hedgedLoad, false)));
+
+        assertTrue(mCompleted.await(SLOW_REPLY_DELAY, TimeUnit.MILLISECONDS));
+        assertEquals("load", mWinner);
+
+        assertNull(hedgedLoad.hedge(mExecutor, newHedgedLoad(hedgedLoad)));
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void loadWinsOverSlowerHedgedLoad() throws Exception {
+        mServer.setReplyDelays(TYPICAL_LATENCY * 4, SLOW_REPLY_DELAY);
+
+        final HedgedLoad hedgedLoad = new HedgedLoad();
+        hedgedLoad.setLoad(mExecutor.submit(newLoad(hedgedLoad, false)));
+
+        final Future<?> hedge = hedgeWhenSlow(hedgedLoad);
+
+        assertTrue(mCompleted.await(SLOW_REPLY_DELAY / 2, TimeUnit.MILLISECONDS));
+        assertEquals("load", mWinner);
+        assertTrue(hedge.isCancelled());
+    }
+
+    @Test
+    public void cancelCancelsBothLoads() throws Exception {
+        mServer.setReplyDelays(SLOW_REPLY_DELAY, SLOW_REPLY_DELAY);
+
+        final HedgedLoad hedgedLoad = new HedgedLoad();
+        final Future<?> load = mExecutor.submit(newLoad(hedgedLoad, false));
+        hedgedLoad.setLoad(load);
+
+        final Future<?> hedge = hedgeWhenSlow(hedgedLoad);
+        assertTrue(hedgedLoad.isHedged());
+
+        hedgedLoad.cancel();
+
+        assertTrue(load.isCancelled());
+        assertTrue(hedge.isCancelled());
+        assertFalse(hedgedLoad.isHedged());
+        assertFalse(hedgedLoad.complete(true));
+        assertNull(hedgedLoad.hedge(mExecutor, newHedgedLoad(hedgedLoad)));
+    }
+
+    @Test
+    public void loadHandedOverAfterCancelIsCancelled() {
+        final HedgedLoad hedgedLoad = new HedgedLoad();
+        hedgedLoad.cancel();
+
+        final Future<?> load = mExecutor.submit(newLoad(hedgedLoad, false));
+        hedgedLoad.setLoad(load);
+
+        assertTrue(load.isCancelled());
+    }
+
+    private Future<?> hedgeWhenSlow(HedgedLoad hedgedLoad) throws InterruptedException {
+        Thread.sleep(mLatencyTracker.getPercentile95());
+
+        final Future<?> hedge = hedgedLoad.hedge(mExecutor, newHedgedLoad(hedgedLoad));
+        assertNotNull(hedge);
+
+        return hedge;
+    }
+
+    private FutureTask<Void> newHedgedLoad(HedgedLoad hedgedLoad) {
+        return new FutureTask<Void>(newLoad(hedgedLoad, true), null);
+    }
+
+    private Runnable newLoad(final HedgedLoad hedgedLoad, final boolean hedged) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (mServer.fetch() == null) {
+                    return;
+                }
+
+                if (hedgedLoad.complete(hedged)) {
+                    mWinner = (hedged ? "hedge" : "load");
+                    mCompleted.countDown();
+                }
+            }
+        };
+    }
+
+    private static final class DelayedServer implements Runnable {
+        private final ServerSocket mServerSocket;
+        private final List<Socket> mSockets;
+        private long[] mReplyDelays;
+        private int mConnectionCount;
+
+        public DelayedServer() throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            mSockets = new ArrayList<Socket>();
+            mReplyDelays = new long[0];
+
+            final Thread thread = new Thread(this, "DelayedServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * @param replyDelays - The reply delay for each connection, in the
+         *        order they are accepted. Further connections get replies
+         *        right away.
+         */
+        public synchronized void setReplyDelays(long... replyDelays) {
+            mReplyDelays = replyDelays;
+        }
+
+        public synchronized int getConnectionCount() {
+            return mConnectionCount;
+        }
+
+        public String fetch() {
+            try {
+                final Socket socket = new Socket(mServerSocket.getInetAddress(), mServerSocket.getLocalPort());
+                try {
+                    socket.setSoTimeout((int) SLOW_REPLY_DELAY * 2);
+
+                    final OutputStream out = socket.getOutputStream();
+                    out.write("load\n".getBytes("UTF-8"));
+                    out.flush();
+
+                    final BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                    return in.readLine();
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        public synchronized void close() throws IOException {
+            mServerSocket.close();
+
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                final long replyDelay;
+
+                try {
+                    socket = mServerSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+
+                synchronized (this) {
+                    mSockets.add(socket);
+                    replyDelay = (mConnectionCount < mReplyDelays.length ?
+                            mReplyDelays[mConnectionCount] : 0);
+                    mConnectionCount++;
+                }
+
+                final Thread replyThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        reply(socket, replyDelay);
+                    }
+                });
+                replyThread.setDaemon(true);
+                replyThread.start();
+            }
+        }
+
+        private static void reply(Socket socket, long replyDelay) {
+            try {
+                new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine();
+                Thread.sleep(replyDelay);
+
+                final OutputStream out = socket.getOutputStream();
+                out.write("ok\n".getBytes("UTF-8"));
+                out.flush();
+            } catch (IOException e) {
+                // Closed by the test
+            } catch (InterruptedException e) {
+                // Closed by the test
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyTrackerTest {
+    @Test
+    public void needsEnoughSamples() {
+        final LatencyTracker tracker = new LatencyTracker();
+
+        for (int i = 0; i < 19; i++) {
+            tracker.add(100);
+        }
+
+        assertEquals(-1, tracker.getPercentile95());
+
+        tracker.add(100);
+        assertEquals(100, tracker.getPercentile95());
+    }
+
+    @Test
+    public void returnsThe95thPercentile() {
+        final LatencyTracker tracker = new LatencyTracker();
+
+        // Shuffled so that the samples have to be sorted
+        for (int i = 0; i < 100; i++) {
+            tracker.add((i * 37) % 100 + 1);
+        }
+
+        assertEquals(96, tracker.getPercentile95());
+    }
+
+    @Test
+    public void onlyKeepsRecentSamples() {
+        final LatencyTracker tracker = new LatencyTracker();
+
+        for (int i = 0; i < 100; i++) {
+            tracker.add(5000);
+        }
+
+        assertEquals(5000, tracker.getPercentile95());
+
+        for (int i = 0; i < 100; i++) {
+            tracker.add(50);
+        }
+
+        assertEquals(50, tracker.getPercentile95());
+    }
+
+    @Test
+    public void isUpdatedByNewSamples() {
+        final LatencyTracker tracker = new LatencyTracker();
+
+        for (int i = 0; i < 20; i++) {
+            tracker.add(10);
+        }
+
+        assertEquals(10, tracker.getPercentile95());
+
+        for (int i = 0; i < 5; i++) {
+            tracker.add(1000);
+        }
+
+        assertEquals(1000, tracker.getPercentile95());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LoadPriorityTest {
+    @Test
+    public void visibleLoadsGoFirst() {
+        final Priority visible = new Priority(true, 5000, 1, 10);
+        final Priority preload = new Priority(false, 100, 0, 1);
+
+        assertEquals(-1, LoadPriority.COMPARATOR.compare(visible, preload));
+        assertEquals(1, LoadPriority.COMPARATOR.compare(preload, visible));
+    }
+
+    @Test
+    public void earlierDeadlinesGoFirst() {
+        final Priority soon = new Priority(false, 100, 1, 10);
+        final Priority later = new Priority(false, 200, 0, 1);
+
+        assertEquals(-1, LoadPriority.COMPARATOR.compare(soon, later));
+    }
+
+    @Test
+    public void lowerPartsGoFirstForTheSameDeadline() {
+        final Priority main = new Priority(false, 100, 0, 10);
+        final Priority avatar = new Priority(false, 100, 1, 1);
+
+        assertEquals(-1, LoadPriority.COMPARATOR.compare(main, avatar));
+    }
+
+    @Test
+    public void olderRequestsGoFirstForTheSamePart() {
+        final Priority older = new Priority(true, 0, 0, 1);
+        final Priority newer = new Priority(true, 0, 0, 2);
+
+        assertEquals(-1, LoadPriority.COMPARATOR.compare(older, newer));
+        assertEquals(0, LoadPriority.COMPARATOR.compare(older, new Priority(true, 0, 0, 1)));
+    }
+
+    @Test
+    public void sortsMixedLoads() {
+        final Priority visible = new Priority(true, 0, 0, 3);
+        final Priority visibleAvatar = new Priority(true, 0, 1, 1);
+        final Priority nextRow = new Priority(false, 300, 0, 5);
+        final Priority lastRow = new Priority(false, 900, 0, 4);
+
+        final List<Priority> loads = new ArrayList<Priority>();
+        loads.add(lastRow);
+        loads.add(visibleAvatar);
+        loads.add(nextRow);
+        loads.add(visible);
+
+        Collections.sort(loads, LoadPriority.COMPARATOR);
+
+        assertSame(visible, loads.get(0));
+        assertSame(visibleAvatar, loads.get(1));
+        assertSame(nextRow, loads.get(2));
+        assertSame(lastRow, loads.get(3));
+    }
+
+    private static final class Priority implements LoadPriority {
+        private final boolean mVisible;
+        private final long mDeadline;
+        private final int mItemPart;
+        private final long mTimestamp;
+
+        public Priority(boolean visible, long deadline, int itemPart, long timestamp) {
+            mVisible = visible;
+            mDeadline = deadline;
+            mItemPart = itemPart;
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public boolean isVisible() {
+            return mVisible;
+        }
+
+        @Override
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        @Override
+        public int getItemPart() {
+            return mItemPart;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+    }
+}
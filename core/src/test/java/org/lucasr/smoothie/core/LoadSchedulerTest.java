@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives the scheduler on a fake clock, dispatcher and executor. Loads
+ * only run when the test asks the executor to, one at a time.
+ */
+public class LoadSchedulerTest {
+    private static final Object CONTAINER = new Object();
+    private static final Object OTHER_CONTAINER = new Object();
+
+    private FakeLooper mLooper;
+    private FakeExecutor mExecutor;
+    private FakeSource mSource;
+
+    @Before
+    public void setUp() {
+        mLooper = new FakeLooper();
+        mExecutor = new FakeExecutor();
+        mSource = new FakeSource();
+    }
+
+    @Test
+    public void visibleLoadsRunBeforePreloads() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder().build();
+
+        scheduler.performPreloadItemPart(CONTAINER, 10, 10, 0, 0, 1, 0);
+        scheduler.performPreloadItemPart(CONTAINER, 11, 11, 0, 0, 2, 0);
+        scheduler.performLoadItem(CONTAINER, "a", 1, 0, 1, 0, true, false);
+
+        assertTrue(mExecutor.runNext());
+        mLooper.runPending();
+
+        assertEquals(Collections.singletonList(1), mSource.mLoaded);
+        assertEquals("a=1", mSource.mDisplayed.get(0));
+        assertTrue(scheduler.isItemDisplayed("a"));
+    }
+
+    @Test
+    public void demotedContainerLoadsLikePreloads() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder().build();
+        mLooper.advance(1000);
+
+        scheduler.performLoadItem(CONTAINER, "a", 1, 0, 1, 0, true, false);
+        scheduler.performPreloadItemPart(OTHER_CONTAINER, 10, 10, 0, 0, 1, 0);
+
+        // Off-screen lists don't get the priority of visible items
+        scheduler.setContainerDemoted(CONTAINER, true);
+        assertTrue(mExecutor.runNext());
+        assertEquals(Collections.singletonList(10), mSource.mLoaded);
+
+        scheduler.performPreloadItemPart(OTHER_CONTAINER, 11, 11, 0, 0, 2, 0);
+        scheduler.setContainerDemoted(CONTAINER, false);
+        assertTrue(mExecutor.runNext());
+        assertEquals(Arrays.asList(10, 1), mSource.mLoaded);
+    }
+
+    @Test
+    public void pausedSchedulerHoldsLoads() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder().build();
+
+        // Several lists might share the scheduler, it's paused as long
+        // as any of them is.
+        scheduler.setPaused(true);
+        scheduler.setPaused(true);
+        scheduler.performLoadItem(CONTAINER, "a", 1, 0, 1, 0, true, false);
+        assertFalse(mExecutor.runNext());
+
+        scheduler.setPaused(false);
+        assertFalse(mExecutor.runNext());
+
+        scheduler.setPaused(false);
+        assertTrue(mExecutor.runNext());
+        assertEquals(Collections.singletonList(1), mSource.mLoaded);
+    }
+
+    @Test
+    public void shedsPreloadsDueLastPastMaxPendingRequests() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder()
+                .setMaxPendingRequests(2)
+                .build();
+
+        scheduler.performPreloadItemPart(CONTAINER, 10, 10, 0, 0, 1, 300);
+        scheduler.performLoadItem(CONTAINER, "a", 1, 0, 1, 0, true, false);
+        scheduler.performPreloadItemPart(CONTAINER, 11, 11, 0, 0, 2, 100);
+
+        assertEquals(2, mExecutor.getQueue().size());
+        assertEquals(1, scheduler.getStats().getShedRequestCount());
+
+        while (mExecutor.runNext()) {
+        }
+
+        assertEquals(Arrays.asList(1, 11), mSource.mLoaded);
+    }
+
+    @Test
+    public void retriesFailedVisibleLoadsWithBackoff() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder()
+                .setFailureTtl(60000)
+                .setMaxRetries(1)
+                .build();
+
+        mSource.mFailing.add(1);
+        scheduler.performLoadItem(CONTAINER, "a", 1, 0, 1, 0, true, false);
+        assertTrue(mExecutor.runNext());
+        mLooper.runPending();
+
+        // The item stays in its placeholder state until retried
+        assertTrue(mSource.mDisplayed.isEmpty());
+        assertEquals(1, scheduler.getStats().getFailedLoadCount());
+
+        mSource.mFailing.clear();
+        mLooper.advance(999);
+        assertFalse(mExecutor.runNext());
+
+        mLooper.advance(1);
+        assertTrue(mExecutor.runNext());
+        mLooper.runPending();
+
+        assertEquals(1, scheduler.getStats().getRetryCount());
+        assertEquals(Collections.singletonList("a=1"), mSource.mDisplayed);
+    }
+
+    @Test
+    public void skipsRecentlyFailedPreloads() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder()
+                .setFailureTtl(60000)
+                .build();
+
+        mSource.mFailing.add(10);
+        scheduler.performPreloadItemPart(CONTAINER, 10, 10, 0, 0, 1, 0);
+        assertTrue(mExecutor.runNext());
+
+        scheduler.performPreloadItemPart(CONTAINER, 10, 10, 0, 0, 2, 0);
+        assertFalse(mExecutor.runNext());
+        assertEquals(1, scheduler.getStats().getSkippedFailedRequestCount());
+    }
+
+    @Test
+    public void rebindingTargetCancelsItsPendingLoad() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder().build();
+
+        scheduler.performLoadItem(CONTAINER, "a", 1, 0, 1, 0, true, false);
+        scheduler.performLoadItem(CONTAINER, "a", 2, 5, 1, 0, true, false);
+
+        // Cancelled straight away, not on the next obsolete requests round
+        mExecutor.purge();
+        assertEquals(1, mExecutor.getQueue().size());
+
+        while (mExecutor.runNext()) {
+        }
+        mLooper.runPending();
+
+        assertEquals(Collections.singletonList(2), mSource.mLoaded);
+        assertEquals(Collections.singletonList("a=2"), mSource.mDisplayed);
+    }
+
+    @Test
+    public void obsoleteRequestsAreCancelled() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder().build();
+
+        scheduler.performPreloadItemPart(CONTAINER, 10, 10, 0, 0, 1, 0);
+        scheduler.performPreloadItemPart(CONTAINER, 11, 11, 0, 0, 2, 0);
+        scheduler.cancelObsoleteRequests(CONTAINER, 2);
+
+        while (mExecutor.runNext()) {
+        }
+
+        assertEquals(Collections.singletonList(11), mSource.mLoaded);
+    }
+
+    @Test
+    public void memoryHitsAreDisplayedWithoutLoading() {
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder().build();
+
+        mSource.mMemory.put(1, "1");
+        scheduler.performLoadItem(CONTAINER, "a", 1, 0, 1, 0, false, true);
+
+        assertFalse(mExecutor.runNext());
+        assertEquals(Collections.singletonList("a=1"), mSource.mDisplayed);
+        assertTrue(scheduler.isItemDisplayed("a"));
+    }
+
+    @Test
+    public void warmStartRequestsAreAdopted() throws IOException {
+        final LoadScheduler<String, Integer, String> previous = newBuilder().build();
+        previous.performLoadItem(CONTAINER, "a", 7, 0, 1, 0, false, false);
+
+        final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        assertTrue(previous.writeWarmStartSnapshot(Collections.singletonList("a"),
+                new DataOutputStream(snapshot)));
+
+        mExecutor = new FakeExecutor();
+        final LoadScheduler<String, Integer, String> scheduler = newBuilder().build();
+        scheduler.performWarmStart(new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray())));
+        assertEquals(1, scheduler.getStats().getWarmStartRequestCount());
+
+        scheduler.performLoadItem(CONTAINER, "b", 7, 0, 1, 0, true, false);
+        assertEquals(1, scheduler.getStats().getWarmStartAdoptedCount());
+
+        while (mExecutor.runNext()) {
+        }
+        mLooper.runPending();
+
+        assertEquals(Collections.singletonList(7), mSource.mLoaded);
+        assertEquals(Collections.singletonList("b=7"), mSource.mDisplayed);
+    }
+
+    private LoadScheduler.Builder<String, Integer, String> newBuilder() {
+        return new LoadScheduler.Builder<String, Integer, String>(mSource, mLooper, mLooper)
+                .setExecutorFactory(new LoadExecutor.Factory() {
+                    @Override
+                    public LoadExecutor createLoadExecutor(int maxRunningCount, int maximumPoolSize) {
+                        return mExecutor;
+                    }
+                });
+    }
+
+    private static final class FakeLooper implements Clock, Dispatcher {
+        private final List<Message> mMessages = new ArrayList<Message>();
+        private long mTime;
+
+        private static final class Message {
+            final Runnable runnable;
+            final long when;
+
+            Message(Runnable runnable, long when) {
+                this.runnable = runnable;
+                this.when = when;
+            }
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return mTime;
+        }
+
+        @Override
+        public void post(Runnable r) {
+            postDelayed(r, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable r, long delay) {
+            mMessages.add(new Message(r, mTime + delay));
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            for (Iterator<Message> i = mMessages.iterator(); i.hasNext();) {
+                if (i.next().runnable == r) {
+                    i.remove();
+                }
+            }
+        }
+
+        @Override
+        public boolean isDispatchThread() {
+            return true;
+        }
+
+        void advance(long time) {
+            mTime += time;
+            runPending();
+        }
+
+        void runPending() {
+            Message next;
+            while ((next = nextDueMessage()) != null) {
+                mMessages.remove(next);
+                next.runnable.run();
+            }
+        }
+
+        private Message nextDueMessage() {
+            Message next = null;
+            for (Message message : mMessages) {
+                if (message.when <= mTime && (next == null || message.when < next.when)) {
+                    next = message;
+                }
+            }
+
+            return next;
+        }
+    }
+
+    private static final class FakeExecutor implements LoadExecutor {
+        private final List<Runnable> mQueue = new ArrayList<Runnable>();
+        private boolean mPaused;
+
+        @Override
+        public void execute(Runnable task) {
+            mQueue.add(task);
+        }
+
+        @Override
+        public boolean remove(Runnable task) {
+            return mQueue.remove(task);
+        }
+
+        @Override
+        public void purge() {
+            for (Iterator<Runnable> i = mQueue.iterator(); i.hasNext();) {
+                if (((Future<?>) i.next()).isCancelled()) {
+                    i.remove();
+                }
+            }
+        }
+
+        @Override
+        public Collection<Runnable> getQueue() {
+            return mQueue;
+        }
+
+        @Override
+        public void setMaxRunningCount(int maxRunningCount) {
+        }
+
+        @Override
+        public void setPaused(boolean paused) {
+            mPaused = paused;
+        }
+
+        @Override
+        public int prestartAllCoreThreads() {
+            return 0;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        boolean runNext() {
+            purge();
+            if (mPaused || mQueue.isEmpty()) {
+                return false;
+            }
+
+            Runnable next = mQueue.get(0);
+            for (Runnable task : mQueue) {
+                if (((Comparable) task).compareTo(next) < 0) {
+                    next = task;
+                }
+            }
+
+            mQueue.remove(next);
+            next.run();
+
+            return true;
+        }
+    }
+
+    private static final class FakeSource implements ItemSource<String, Integer, String> {
+        final Map<Integer, String> mMemory = new HashMap<Integer, String>();
+        final Set<Integer> mFailing = new HashSet<Integer>();
+        final List<Integer> mLoaded = new ArrayList<Integer>();
+        final List<String> mDisplayed = new ArrayList<String>();
+
+        @Override
+        public int getTargetWidth(String target) {
+            return 100;
+        }
+
+        @Override
+        public int getTargetHeight(String target) {
+            return 100;
+        }
+
+        @Override
+        public String loadItemPartFromMemory(Integer itemParams, int itemPart, int targetWidth,
+                int targetHeight) {
+            return mMemory.get(itemParams);
+        }
+
+        @Override
+        public String loadItemPart(Integer itemParams, int itemPart, int targetWidth, int targetHeight) {
+            mLoaded.add(itemParams);
+            return (mFailing.contains(itemParams) ? null : String.valueOf(itemParams));
+        }
+
+        @Override
+        public Cancellable loadItemPartAsync(Integer itemParams, int itemPart,
+                LoadCallback<String> callback) {
+            return null;
+        }
+
+        @Override
+        public void displayItemPart(String target, String result, int itemPart, boolean fromMemory) {
+            mDisplayed.add(target + "=" + result);
+        }
+
+        @Override
+        public void retainItemPart(String result, int itemPart) {
+        }
+
+        @Override
+        public void releaseItemPart(String result, int itemPart) {
+        }
+
+        @Override
+        public boolean writeItemParams(Integer itemParams, DataOutput out) throws IOException {
+            out.writeInt(itemParams);
+            return true;
+        }
+
+        @Override
+        public Integer readItemParams(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadThreadPoolExecutorTest {
+    private static final long TIMEOUT = 5000;
+    private static final long SETTLE_TIME = 200;
+
+    private LoadThreadPoolExecutor mExecutor;
+    private AtomicInteger mRunning;
+    private AtomicInteger mDone;
+    private Semaphore mFinish;
+
+    @Before
+    public void setUp() {
+        mExecutor = new LoadThreadPoolExecutor(4, 8, 60, TimeUnit.SECONDS);
+        mRunning = new AtomicInteger();
+        mDone = new AtomicInteger();
+        mFinish = new Semaphore(0);
+    }
+
+    @After
+    public void tearDown() {
+        mFinish.release(1000);
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void runsUpToTheLimit() throws InterruptedException {
+        submit(10);
+
+        awaitRunning(4);
+        Thread.sleep(SETTLE_TIME);
+        assertEquals(4, mRunning.get());
+        assertEquals(6, mExecutor.getQueue().size());
+    }
+
+    @Test
+    public void loweringTheLimitCutsConcurrencyWhileLoadsAreQueued() throws InterruptedException {
+        submit(10);
+        awaitRunning(4);
+
+        mExecutor.setMaxRunningCount(2);
+
+        // The running loads are left alone
+        Thread.sleep(SETTLE_TIME);
+        assertEquals(4, mRunning.get());
+
+        // Only two loads replace the four that are done, even though
+        // the pool still has four threads and six loads are queued
+        mFinish.release(4);
+        awaitDone(4);
+        Thread.sleep(SETTLE_TIME);
+        assertEquals(2, mRunning.get());
+        assertEquals(4, mExecutor.getQueue().size());
+        assertTrue(mExecutor.getPoolSize() >= 4);
+
+        mExecutor.setMaxRunningCount(4);
+        awaitRunning(4);
+        assertEquals(2, mExecutor.getQueue().size());
+    }
+
+    @Test
+    public void pausingHoldsQueuedLoads() throws InterruptedException {
+        mExecutor.setPaused(true);
+
+        final Load[] loads = submit(3);
+        Thread.sleep(SETTLE_TIME);
+        assertEquals(0, mRunning.get());
+        assertEquals(3, mExecutor.getQueue().size());
+
+        // Held loads can still be removed
+        assertTrue(mExecutor.remove(loads[0]));
+
+        mExecutor.setPaused(false);
+        awaitRunning(2);
+        mFinish.release(2);
+        awaitDone(2);
+        assertEquals(0, mExecutor.getQueue().size());
+    }
+
+    private Load[] submit(int count) {
+        final Load[] loads = new Load[count];
+        for (int i = 0; i < count; i++) {
+            loads[i] = new Load(i);
+            mExecutor.execute(loads[i]);
+        }
+
+        return loads;
+    }
+
+    private void awaitRunning(int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (mRunning.get() < count) {
+            assertTrue("Timed out waiting for running loads", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitDone(int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (mDone.get() < count) {
+            assertTrue("Timed out waiting for loads to finish", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private final class Load implements Runnable, Comparable<Load> {
+        private final int mOrder;
+
+        public Load(int order) {
+            mOrder = order;
+        }
+
+        @Override
+        public void run() {
+            mRunning.incrementAndGet();
+            try {
+                mFinish.acquireUninterruptibly();
+            } finally {
+                mRunning.decrementAndGet();
+                mDone.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(Load other) {
+            return (mOrder < other.mOrder ? -1 : (mOrder == other.mOrder ? 0 : 1));
+        }
+    }
+}
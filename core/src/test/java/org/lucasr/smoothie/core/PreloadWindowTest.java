@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PreloadWindowTest {
+    @Test
+    public void rowsCountTakesPrecedence() {
+        assertEquals(3, PreloadWindow.getRowsCount(3, 10, 4));
+    }
+
+    @Test
+    public void itemsCountIsRoundedUpToWholeRows() {
+        assertEquals(3, PreloadWindow.getRowsCount(0, 10, 4));
+        assertEquals(2, PreloadWindow.getRowsCount(0, 8, 4));
+        assertEquals(10, PreloadWindow.getRowsCount(0, 10, 1));
+        assertEquals(0, PreloadWindow.getRowsCount(0, 0, 4));
+    }
+
+    @Test
+    public void endPositionCoversWholeRows() {
+        assertEquals(20, PreloadWindow.getEndPosition(8, 3, 4, 100));
+        assertEquals(13, PreloadWindow.getEndPosition(10, 3, 1, 100));
+    }
+
+    @Test
+    public void endPositionIsClampedToItemCount() {
+        assertEquals(18, PreloadWindow.getEndPosition(8, 3, 4, 18));
+        assertEquals(5, PreloadWindow.getEndPosition(5, 3, 4, 5));
+    }
+
+    @Test
+    public void rowsCountFromFirstPosition() {
+        assertEquals(0, PreloadWindow.getRow(8, 8, 4));
+        assertEquals(0, PreloadWindow.getRow(8, 11, 4));
+        assertEquals(1, PreloadWindow.getRow(8, 12, 4));
+        assertEquals(2, PreloadWindow.getRow(10, 12, 1));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class ScrollRecorderTest {
+    @Test
+    public void recordsAreReadBack() throws IOException {
+        final ScrollRecorder recorder = new ScrollRecorder(8192);
+
+        recorder.recordTouch(1000, true);
+        recorder.recordScrollState(1010, 1);
+        recorder.recordScroll(1016, 0.25f);
+        recorder.recordScroll(1032, 1.5f);
+        recorder.recordUpdate(1040, 1, 8, 4);
+        recorder.recordTouch(1048, false);
+        recorder.recordScrollState(1048, 2);
+        recorder.recordScroll(1300, 0.125f);
+        recorder.recordScrollState(1400, 0);
+
+        final List<String> records = readBack(recorder);
+
+        assertEquals(10, records.size());
+        assertEquals("key 0 0.000 0 false", records.get(0));
+        assertEquals("touch 1000 true", records.get(1));
+        assertEquals("state 1010 1", records.get(2));
+        assertEquals("scroll 1016 0.250", records.get(3));
+        assertEquals("scroll 1032 1.500", records.get(4));
+        assertEquals("update 1040 1 8 4", records.get(5));
+        assertEquals("touch 1048 false", records.get(6));
+        assertEquals("state 1048 2", records.get(7));
+        assertEquals("scroll 1300 0.125", records.get(8));
+        assertEquals("state 1400 0", records.get(9));
+    }
+
+    @Test
+    public void loadRecordsAreReadBack() throws IOException {
+        final ScrollRecorder recorder = new ScrollRecorder(8192);
+
+        recorder.recordUpdate(1000, 0, 7, 4);
+        recorder.recordMemoryHit(1000, 3, 0);
+        recorder.recordLoadStart(1002, 8, 0, false);
+        recorder.recordLoadStart(1003, 7, 1, true);
+        recorder.recordLoadCancel(1050, 8, 0);
+        recorder.recordLoadFinish(1120, 7, 1, true);
+        recorder.recordLoadFinish(1300, 9, 0, false);
+
+        final List<String> records = readBack(recorder);
+
+        assertEquals(8, records.size());
+        assertEquals("update 1000 0 7 4", records.get(1));
+        assertEquals("memoryHit 1000 3 0", records.get(2));
+        assertEquals("loadStart 1002 8 0 false", records.get(3));
+        assertEquals("loadStart 1003 7 1 true", records.get(4));
+        assertEquals("loadCancel 1050 8 0", records.get(5));
+        assertEquals("loadFinish 1120 7 1 true", records.get(6));
+        assertEquals("loadFinish 1300 9 0 false", records.get(7));
+    }
+
+    @Test
+    public void lateRecordsKeepTheirOrder() throws IOException {
+        final ScrollRecorder recorder = new ScrollRecorder(8192);
+
+        recorder.recordScroll(1000, 1);
+
+        // A load finishing on another thread, recorded after the scroll
+        recorder.recordLoadFinish(990, 4, 0, true);
+        recorder.recordScroll(1016, 2);
+
+        final List<String> records = readBack(recorder);
+
+        assertEquals("scroll 1000 1.000", records.get(1));
+        assertEquals("loadFinish 1000 4 0 true", records.get(2));
+        assertEquals("scroll 1016 2.000", records.get(3));
+    }
+
+    @Test
+    public void oldestBlocksAreOverwritten() throws IOException {
+        final ScrollRecorder recorder = new ScrollRecorder(8192);
+
+        recorder.recordTouch(0, true);
+        recorder.recordScrollState(0, 1);
+
+        // Way more than two blocks worth of records
+        final int count = 10000;
+        for (int i = 1; i <= count; i++) {
+            recorder.recordScroll(i * 16, i / 100f);
+        }
+
+        final List<String> records = readBack(recorder);
+
+        // The log now starts with a key frame holding the state at the
+        // time of the first record kept.
+        final String[] keyFrame = records.get(0).split(" ");
+        assertEquals("key", keyFrame[0]);
+        assertEquals("1", keyFrame[3]);
+        assertEquals("true", keyFrame[4]);
+        assertTrue(Long.parseLong(keyFrame[1]) > 0);
+
+        assertTrue(records.size() < count);
+        assertEquals("scroll " + (count * 16) + " 100.000", records.get(records.size() - 1));
+    }
+
+    @Test
+    public void clearDiscardsRecords() throws IOException {
+        final ScrollRecorder recorder = new ScrollRecorder(8192);
+
+        recorder.recordScroll(100, 3);
+        recorder.clear();
+        recorder.recordScroll(200, 1);
+
+        final List<String> records = readBack(recorder);
+
+        assertEquals(2, records.size());
+        assertEquals("key 0 0.000 0 false", records.get(0));
+        assertEquals("scroll 200 1.000", records.get(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws IOException {
+        ScrollRecordReader.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }),
+                new RecordCollector());
+    }
+
+    private static List<String> readBack(ScrollRecorder recorder) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+
+        final RecordCollector collector = new RecordCollector();
+        ScrollRecordReader.read(new ByteArrayInputStream(out.toByteArray()), collector);
+
+        return collector.records;
+    }
+
+    private static final class RecordCollector implements ScrollRecordReader.Listener {
+        public final List<String> records = new ArrayList<String>();
+
+        @Override
+        public void onKeyFrame(long time, float position, int scrollState, boolean touching) {
+            records.add("key " + time + " " + formatPosition(position) + " " + scrollState + " " + touching);
+        }
+
+        @Override
+        public void onScroll(long time, float position) {
+            records.add("scroll " + time + " " + formatPosition(position));
+        }
+
+        @Override
+        public void onScrollStateChanged(long time, int scrollState) {
+            records.add("state " + time + " " + scrollState);
+        }
+
+        @Override
+        public void onTouch(long time, boolean touching) {
+            records.add("touch " + time + " " + touching);
+        }
+
+        @Override
+        public void onUpdate(long time, int firstVisiblePosition, int lastVisiblePosition,
+                int preloadCount) {
+            records.add("update " + time + " " + firstVisiblePosition + " " + lastVisiblePosition + " " +
+                    preloadCount);
+        }
+
+        @Override
+        public void onLoadStart(long time, int position, int itemPart, boolean visible) {
+            records.add("loadStart " + time + " " + position + " " + itemPart + " " + visible);
+        }
+
+        @Override
+        public void onLoadFinish(long time, int position, int itemPart, boolean loaded) {
+            records.add("loadFinish " + time + " " + position + " " + itemPart + " " + loaded);
+        }
+
+        @Override
+        public void onLoadCancel(long time, int position, int itemPart) {
+            records.add("loadCancel " + time + " " + position + " " + itemPart);
+        }
+
+        @Override
+        public void onMemoryHit(long time, int position, int itemPart) {
+            records.add("memoryHit " + time + " " + position + " " + itemPart);
+        }
+
+        private static String formatPosition(float position) {
+            return String.format(Locale.US, "%.3f", position);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScrollVelocityTest {
+    @Test
+    public void idleListUsesIdleRowTime() {
+        final ScrollVelocity velocity = new ScrollVelocity();
+
+        assertEquals(0, velocity.getVelocity(1000), 0);
+        assertEquals(1500, velocity.estimateRowDeadline(1000, 1));
+        assertEquals(2500, velocity.estimateRowDeadline(1000, 3));
+    }
+
+    @Test
+    public void measuresScrollVelocity() {
+        final ScrollVelocity velocity = new ScrollVelocity();
+
+        // One row every 100ms
+        for (int i = 0; i <= 10; i++) {
+            velocity.addPosition(1000 + i * 16, i * 0.16f);
+        }
+
+        assertEquals(0.01f, velocity.getVelocity(1160), 0.0005f);
+        assertEquals(1160 + 300, velocity.estimateRowDeadline(1160, 3), 10);
+    }
+
+    @Test
+    public void keepsDecayingVelocityOnceStopped() {
+        final ScrollVelocity velocity = new ScrollVelocity();
+
+        for (int i = 0; i <= 10; i++) {
+            velocity.addPosition(1000 + i * 16, i * 0.16f);
+        }
+
+        velocity.stop();
+
+        // Right after a fling stops, rows still come into view way
+        // before the idle row time.
+        final long deadline = velocity.estimateRowDeadline(1160 + 550, 1);
+        assertTrue(deadline < 1160 + 550 + 500);
+        assertTrue(velocity.getVelocity(1160 + 550) < velocity.getVelocity(1160));
+
+        // Long after, the list is considered idle
+        assertEquals(10000 + 500, velocity.estimateRowDeadline(10000, 1));
+    }
+
+    @Test
+    public void scrollingBackIsNotTowardsPreloads() {
+        final ScrollVelocity velocity = new ScrollVelocity();
+
+        for (int i = 0; i <= 10; i++) {
+            velocity.addPosition(1000 + i * 16, 10 - i * 0.16f);
+        }
+
+        assertTrue(velocity.getVelocity(1160) < 0);
+        assertEquals(1160 + 500, velocity.estimateRowDeadline(1160, 1));
+    }
+
+    @Test
+    public void stopDoesNotMeasureAcrossIdleGaps() {
+        final ScrollVelocity velocity = new ScrollVelocity();
+
+        velocity.addPosition(1000, 0);
+        velocity.stop();
+
+        // Scrolled far away while idle e.g. setSelection()
+        velocity.addPosition(5000, 100);
+
+        assertEquals(0, velocity.getVelocity(5000), 0);
+    }
+}
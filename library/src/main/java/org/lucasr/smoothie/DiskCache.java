@@ -0,0 +1,984 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * <p>{@code DiskCache} is a disk cache for item data that avoids the
+ * per-entry file overhead of one-file-per-entry caches. Entries are
+ * appended to a few large segment files and located through a hash index
+ * that is memory-mapped from disk. A lookup is a probe in the mapped index
+ * followed by a read from the mapped segment, no file is opened or
+ * stat'ed.</p>
+ *
+ * <p>Segments are append-only. Replaced and removed entries leave dead
+ * records behind which are reclaimed by a background compaction: segments
+ * with mostly dead records have their live records copied over to the
+ * active segment, and the oldest segments are dropped altogether once the
+ * cache grows over its maximum size.</p>
+ *
+ * <p>This class is thread-safe. Records are synced to disk before the
+ * index points to them, the index itself is not synced. A crash might
+ * lose recently added entries but never returns partially written
+ * ones.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class DiskCache {
+    private static final String LOGTAG = "SmoothieDiskCache";
+    private static final boolean ENABLE_LOGGING = false;
+
+    private static final String INDEX_FILE_NAME = "index";
+    private static final String SEGMENT_FILE_PREFIX = "segment.";
+
+    // Index header: magic, version, capacity
+    private static final int INDEX_MAGIC = 0x534d4443;
+    private static final int INDEX_VERSION = 1;
+    private static final int INDEX_HEADER_SIZE = 12;
+
+    // Index slot: key hash, segment id, record offset, record length
+    private static final int SLOT_SIZE = 20;
+    private static final long EMPTY_SLOT = 0;
+    private static final int REMOVED_SEGMENT = -1;
+
+    private static final int DEFAULT_INDEX_CAPACITY = 1024;
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+
+    private static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    // Compact sealed segments once less than half of their
+    // bytes belong to live records.
+    private static final float MIN_LIVE_RATIO = 0.5f;
+
+    // Record header: key length, data length
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final long mSegmentSize;
+    private final TreeMap<Integer, Segment> mSegments;
+    private final ExecutorService mCompactionExecutor;
+
+    private RandomAccessFile mIndexFile;
+    private MappedByteBuffer mIndex;
+    private int mCapacity;
+    private int mCount;
+    private int mUsedSlots;
+
+    private Segment mActiveSegment;
+    private long mSize;
+    private boolean mCompactionScheduled;
+    private boolean mClosed;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * Opens the cache stored in the given directory, creating it if
+     * needed.
+     *
+     * @param directory - The directory to store the cache files in.
+     * @param maxSize - The maximum number of bytes held by the cache.
+     *
+     * @throws IOException If the cache files can't be opened.
+     */
+    public DiskCache(File directory, long maxSize) throws IOException {
+        this(directory, maxSize, Math.min(DEFAULT_SEGMENT_SIZE, maxSize / 4));
+    }
+
+    /**
+     * Opens the cache stored in the given directory, creating it if
+     * needed.
+     *
+     * @param directory - The directory to store the cache files in.
+     * @param maxSize - The maximum number of bytes held by the cache.
+     * @param segmentSize - The size at which segment files are sealed
+     *        and a new one is started.
+     *
+     * @throws IOException If the cache files can't be opened.
+     */
+    public DiskCache(File directory, long maxSize, long segmentSize) throws IOException {
+        if (segmentSize <= 0 || maxSize < segmentSize) {
+            throw new IllegalArgumentException("Cache size must be at least one segment");
+        }
+
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mSegmentSize = segmentSize;
+        mSegments = new TreeMap<Integer, Segment>();
+        mCompactionExecutor = Executors.newSingleThreadExecutor(new CompactionThreadFactory());
+
+        mDirectory.mkdirs();
+
+        if (!openIndex()) {
+            // Missing or incompatible index, the segments can't be
+            // read without it.
+            deleteSegmentFiles();
+            createIndex(DEFAULT_INDEX_CAPACITY);
+        }
+
+        openSegments();
+        validateIndex();
+
+        if (mSegments.isEmpty() || mSegments.get(mSegments.lastKey()).size >= mSegmentSize) {
+            mActiveSegment = createSegment();
+        } else {
+            mActiveSegment = mSegments.get(mSegments.lastKey());
+        }
+
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Opens a stream over the data cached for the given key. The stream
+     * reads straight from the memory-mapped segment and supports
+     * {@link InputStream#mark(int)} and {@link InputStream#reset()}.
+     *
+     * @param key - The cache key.
+     *
+     * @return A stream over the cached data or {@code null} if the key
+     *         is not in the cache.
+     *
+     * @throws IOException If the segment can't be read.
+     */
+    public synchronized InputStream get(String key) throws IOException {
+        checkNotClosed();
+
+        final ByteBuffer data = findData(key);
+        if (data == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        return new ByteBufferInputStream(data);
+    }
+
+    /**
+     * @param key - The cache key.
+     *
+     * @return Whether the given key is in the cache.
+     */
+    public synchronized boolean contains(String key) {
+        return (findSlot(getKeyBytes(key), hash(key)) >= 0);
+    }
+
+    /**
+     * Appends the data read from the given stream to the cache. The given
+     * stream is read until its end but not closed. The cache is locked
+     * while the stream is read, prefer {@link #put(String, File)} for
+     * data coming from slow sources e.g. the network.
+     *
+     * @param key - The cache key.
+     * @param is - The stream with the data to cache.
+     *
+     * @return A stream over the cached data.
+     *
+     * @throws IOException If the data can't be written to the cache.
+     */
+    public synchronized InputStream put(String key, InputStream is) throws IOException {
+        final ReadableByteChannel source = Channels.newChannel(is);
+
+        return append(key, new RecordWriter() {
+            @Override
+            public long write(FileChannel channel, long position) throws IOException {
+                long count = 0;
+
+                while (true) {
+                    final long transferred = channel.transferFrom(source, position + count,
+                            TRANSFER_CHUNK_SIZE);
+                    if (transferred <= 0) {
+                        break;
+                    }
+
+                    count += transferred;
+                }
+
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Appends the contents of the given file to the cache. The file is
+     * copied by the kernel, without going through the Java heap.
+     *
+     * @param key - The cache key.
+     * @param file - The file with the data to cache.
+     *
+     * @return A stream over the cached data.
+     *
+     * @throws IOException If the data can't be written to the cache.
+     */
+    public synchronized InputStream put(String key, File file) throws IOException {
+        final FileInputStream fis = new FileInputStream(file);
+
+        try {
+            final FileChannel source = fis.getChannel();
+
+            return append(key, new RecordWriter() {
+                @Override
+                public long write(FileChannel channel, long position) throws IOException {
+                    final long size = source.size();
+
+                    long count = 0;
+                    while (count < size) {
+                        count += source.transferTo(count, size - count, channel.position(position + count));
+                    }
+
+                    return count;
+                }
+            });
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Removes the entry for the given key from the cache.
+     *
+     * @param key - The cache key.
+     */
+    public synchronized void remove(String key) {
+        checkNotClosed();
+
+        final int slot = findSlot(getKeyBytes(key), hash(key));
+        if (slot >= 0) {
+            removeSlot(slot);
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    /**
+     * Closes the cache files. The cache can't be used anymore after
+     * this call.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+
+        mClosed = true;
+        mCompactionExecutor.shutdownNow();
+
+        for (Segment segment : mSegments.values()) {
+            closeQuietly(segment.file);
+        }
+
+        closeQuietly(mIndexFile);
+    }
+
+    /**
+     * @return The directory the cache files are stored in.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @return The number of bytes currently held by the segment files.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * @return The number of entries in the cache.
+     */
+    public synchronized int getEntryCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The number of lookups that found their key in the cache.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of lookups that didn't find their key in the cache.
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    private InputStream append(String key, RecordWriter writer) throws IOException {
+        checkNotClosed();
+
+        final byte[] keyBytes = getKeyBytes(key);
+        final Segment segment = mActiveSegment;
+        final FileChannel channel = segment.file.getChannel();
+        final long offset = segment.size;
+
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length);
+        header.putInt(keyBytes.length);
+        header.putInt(0);
+        header.put(keyBytes);
+        header.flip();
+
+        final long dataOffset = offset + header.limit();
+        final long dataLength;
+
+        try {
+            writeFully(channel, header, offset);
+            dataLength = writer.write(channel, dataOffset);
+
+            if (dataOffset + dataLength > Integer.MAX_VALUE) {
+                throw new IOException("Entry doesn't fit in a segment: " + key);
+            }
+
+            // Only set the data length once the data has been
+            // fully written.
+            final ByteBuffer length = ByteBuffer.allocate(4);
+            length.putInt((int) dataLength);
+            length.flip();
+            writeFully(channel, length, offset + 4);
+
+            // The index is memory-mapped and might be written back at
+            // any time. Make sure the record is on disk before the
+            // index points to it.
+            channel.force(false);
+        } catch (IOException e) {
+            // Drop the partially written record
+            channel.truncate(offset);
+            throw e;
+        }
+
+        final int recordLength = (int) (dataOffset + dataLength - offset);
+        segment.size += recordLength;
+        mSize += recordLength;
+
+        final long hash = hash(key);
+        final int previousSlot = findSlot(keyBytes, hash);
+        if (previousSlot >= 0) {
+            removeSlot(previousSlot);
+        }
+
+        ensureIndexCapacity();
+        addSlot(hash, segment, (int) offset, recordLength);
+
+        if (ENABLE_LOGGING) {
+            Log.d(LOGTAG, "Appended " + recordLength + " bytes to segment " + segment.id + ": " + key);
+        }
+
+        if (segment.size >= mSegmentSize) {
+            mActiveSegment = createSegment();
+        }
+
+        scheduleCompactionIfNeeded();
+
+        // Only map the new record. Remapping the whole segment on each
+        // append would map an ever-growing region.
+        return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataLength));
+    }
+
+    private ByteBuffer findData(String key) throws IOException {
+        final byte[] keyBytes = getKeyBytes(key);
+        final int slot = findSlot(keyBytes, hash(key));
+        if (slot < 0) {
+            return null;
+        }
+
+        final int position = getSlotPosition(slot);
+        final Segment segment = mSegments.get(mIndex.getInt(position + 8));
+
+        return readData(segment, mIndex.getInt(position + 12), mIndex.getInt(position + 16), keyBytes);
+    }
+
+    private ByteBuffer readData(Segment segment, int offset, int recordLength, byte[] keyBytes)
+            throws IOException {
+        final ByteBuffer record = segment.map(offset + recordLength).duplicate();
+        record.position(offset);
+        record.limit(offset + recordLength);
+
+        final int keyLength = record.getInt();
+        final int dataLength = record.getInt();
+
+        // Different keys might share the same hash, make sure the
+        // record actually belongs to the requested key.
+        if (keyLength != keyBytes.length) {
+            return null;
+        }
+
+        for (int i = 0; i < keyLength; i++) {
+            if (record.get() != keyBytes[i]) {
+                return null;
+            }
+        }
+
+        record.limit(record.position() + dataLength);
+        return record.slice();
+    }
+
+    private int findSlot(byte[] keyBytes, long hash) {
+        int slot = getFirstSlot(hash);
+
+        for (int i = 0; i < mCapacity; i++) {
+            final int position = getSlotPosition(slot);
+            final long slotHash = mIndex.getLong(position);
+
+            if (slotHash == EMPTY_SLOT) {
+                return -1;
+            }
+
+            final int segmentId = mIndex.getInt(position + 8);
+            if (slotHash == hash && segmentId != REMOVED_SEGMENT) {
+                final Segment segment = mSegments.get(segmentId);
+
+                try {
+                    if (segment != null && readData(segment, mIndex.getInt(position + 12),
+                            mIndex.getInt(position + 16), keyBytes) != null) {
+                        return slot;
+                    }
+                } catch (IOException e) {
+                    Log.w(LOGTAG, "Failed to read segment " + segmentId, e);
+                }
+            }
+
+            slot = (slot + 1) % mCapacity;
+        }
+
+        return -1;
+    }
+
+    private void addSlot(long hash, Segment segment, int offset, int recordLength) {
+        int slot = getFirstSlot(hash);
+
+        while (true) {
+            final int position = getSlotPosition(slot);
+            final long slotHash = mIndex.getLong(position);
+
+            if (slotHash == EMPTY_SLOT || mIndex.getInt(position + 8) == REMOVED_SEGMENT) {
+                if (slotHash == EMPTY_SLOT) {
+                    mUsedSlots++;
+                }
+
+                mIndex.putInt(position + 8, segment.id);
+                mIndex.putInt(position + 12, offset);
+                mIndex.putInt(position + 16, recordLength);
+
+                // Write the hash last so that the slot is never
+                // seen half-written.
+                mIndex.putLong(position, hash);
+                break;
+            }
+
+            slot = (slot + 1) % mCapacity;
+        }
+
+        segment.liveBytes += recordLength;
+        mCount++;
+    }
+
+    private void removeSlot(int slot) {
+        final int position = getSlotPosition(slot);
+        final Segment segment = mSegments.get(mIndex.getInt(position + 8));
+
+        if (segment != null) {
+            segment.liveBytes -= mIndex.getInt(position + 16);
+        }
+
+        // Keep the slot as a tombstone so that probing
+        // carries on past it.
+        mIndex.putInt(position + 8, REMOVED_SEGMENT);
+        mCount--;
+    }
+
+    private void ensureIndexCapacity() throws IOException {
+        if (mUsedSlots + 1 <= mCapacity * MAX_LOAD_FACTOR) {
+            return;
+        }
+
+        // Only grow the index if it's mostly live entries, otherwise
+        // rebuilding it is enough to clear the tombstones.
+        final int capacity = (mCount + 1 > mCapacity * MAX_LOAD_FACTOR / 2 ? mCapacity * 2 : mCapacity);
+        rebuildIndex(capacity);
+    }
+
+    private void rebuildIndex(int capacity) throws IOException {
+        final MappedByteBuffer oldIndex = mIndex;
+        final int oldCapacity = mCapacity;
+
+        closeQuietly(mIndexFile);
+        new File(mDirectory, INDEX_FILE_NAME).delete();
+        createIndex(capacity);
+
+        for (Segment segment : mSegments.values()) {
+            segment.liveBytes = 0;
+        }
+
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            final int position = getSlotPosition(slot);
+            final long hash = oldIndex.getLong(position);
+            final Segment segment = mSegments.get(oldIndex.getInt(position + 8));
+
+            if (hash != EMPTY_SLOT && segment != null) {
+                addSlot(hash, segment, oldIndex.getInt(position + 12), oldIndex.getInt(position + 16));
+            }
+        }
+
+        if (ENABLE_LOGGING) {
+            Log.d(LOGTAG, "Rebuilt index with capacity " + capacity + ", " + mCount + " entries");
+        }
+    }
+
+    private boolean openIndex() throws IOException {
+        final File file = new File(mDirectory, INDEX_FILE_NAME);
+        if (!file.exists() || file.length() < INDEX_HEADER_SIZE) {
+            return false;
+        }
+
+        mIndexFile = new RandomAccessFile(file, "rw");
+        mIndex = mIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+
+        mCapacity = mIndex.getInt(8);
+
+        if (mIndex.getInt(0) != INDEX_MAGIC || mIndex.getInt(4) != INDEX_VERSION ||
+            mCapacity <= 0 || file.length() != getSlotPosition(mCapacity)) {
+            closeQuietly(mIndexFile);
+            file.delete();
+            return false;
+        }
+
+        return true;
+    }
+
+    private void createIndex(int capacity) throws IOException {
+        final File file = new File(mDirectory, INDEX_FILE_NAME);
+
+        mIndexFile = new RandomAccessFile(file, "rw");
+        mIndexFile.setLength(0);
+
+        // Mapping a region past the end of the file grows it,
+        // filling it with zeroes i.e. empty slots.
+        mIndex = mIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                getSlotPosition(capacity));
+
+        mIndex.putInt(0, INDEX_MAGIC);
+        mIndex.putInt(4, INDEX_VERSION);
+        mIndex.putInt(8, capacity);
+
+        mCapacity = capacity;
+        mCount = 0;
+        mUsedSlots = 0;
+    }
+
+    private void validateIndex() {
+        mCount = 0;
+        mUsedSlots = 0;
+
+        for (int slot = 0; slot < mCapacity; slot++) {
+            final int position = getSlotPosition(slot);
+            if (mIndex.getLong(position) == EMPTY_SLOT) {
+                continue;
+            }
+
+            mUsedSlots++;
+
+            final int segmentId = mIndex.getInt(position + 8);
+            if (segmentId == REMOVED_SEGMENT) {
+                continue;
+            }
+
+            final Segment segment = mSegments.get(segmentId);
+            final int offset = mIndex.getInt(position + 12);
+            final int recordLength = mIndex.getInt(position + 16);
+
+            // Drop entries pointing past the end of their segment
+            // e.g. if the segment was deleted by the system.
+            if (segment == null || offset + (long) recordLength > segment.size) {
+                mIndex.putInt(position + 8, REMOVED_SEGMENT);
+                continue;
+            }
+
+            segment.liveBytes += recordLength;
+            mCount++;
+        }
+    }
+
+    private void openSegments() throws IOException {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            final int id = getSegmentId(file);
+            if (id < 0) {
+                continue;
+            }
+
+            final Segment segment = new Segment(id, new RandomAccessFile(file, "rw"));
+            mSegments.put(id, segment);
+            mSize += segment.size;
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        final int id = (mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1);
+        final File file = new File(mDirectory, SEGMENT_FILE_PREFIX + id);
+
+        final Segment segment = new Segment(id, new RandomAccessFile(file, "rw"));
+        segment.file.setLength(0);
+        segment.size = 0;
+
+        mSegments.put(id, segment);
+
+        if (ENABLE_LOGGING) {
+            Log.d(LOGTAG, "Created segment " + id);
+        }
+
+        return segment;
+    }
+
+    private void dropSegment(Segment segment) {
+        for (int slot = 0; slot < mCapacity; slot++) {
+            final int position = getSlotPosition(slot);
+
+            if (mIndex.getLong(position) != EMPTY_SLOT &&
+                mIndex.getInt(position + 8) == segment.id) {
+                removeSlot(slot);
+            }
+        }
+
+        mSegments.remove(segment.id);
+        mSize -= segment.size;
+
+        // Streams still reading from the segment keep working, the
+        // mapping outlives the file.
+        closeQuietly(segment.file);
+        new File(mDirectory, SEGMENT_FILE_PREFIX + segment.id).delete();
+
+        if (ENABLE_LOGGING) {
+            Log.d(LOGTAG, "Dropped segment " + segment.id);
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        final List<Integer> slots = new ArrayList<Integer>();
+        final List<Segment> targets = new ArrayList<Segment>();
+        final List<Long> targetOffsets = new ArrayList<Long>();
+
+        for (int slot = 0; slot < mCapacity; slot++) {
+            final int position = getSlotPosition(slot);
+
+            if (mIndex.getLong(position) != EMPTY_SLOT &&
+                mIndex.getInt(position + 8) == segment.id) {
+                slots.add(slot);
+            }
+        }
+
+        for (int slot : slots) {
+            final int position = getSlotPosition(slot);
+            final int offset = mIndex.getInt(position + 12);
+            final int recordLength = mIndex.getInt(position + 16);
+
+            final ByteBuffer record = segment.map(offset + recordLength).duplicate();
+            record.position(offset);
+            record.limit(offset + recordLength);
+
+            final Segment target = mActiveSegment;
+            final long targetOffset = target.size;
+            writeFully(target.file.getChannel(), record, targetOffset);
+
+            target.size += recordLength;
+            target.liveBytes += recordLength;
+            segment.liveBytes -= recordLength;
+            mSize += recordLength;
+
+            targets.add(target);
+            targetOffsets.add(targetOffset);
+
+            if (target.size >= mSegmentSize) {
+                target.file.getChannel().force(false);
+                mActiveSegment = createSegment();
+            }
+        }
+
+        // Same as appends, copies must be on disk before the index
+        // points to them.
+        mActiveSegment.file.getChannel().force(false);
+
+        for (int i = 0; i < slots.size(); i++) {
+            final int position = getSlotPosition(slots.get(i));
+
+            // Point the existing slot to the copied record
+            mIndex.putInt(position + 12, targetOffsets.get(i).intValue());
+            mIndex.putInt(position + 8, targets.get(i).id);
+        }
+
+        dropSegment(segment);
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (mCompactionScheduled || !needsCompaction()) {
+            return;
+        }
+
+        mCompactionScheduled = true;
+        mCompactionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    private boolean needsCompaction() {
+        if (mSize > mMaxSize) {
+            return true;
+        }
+
+        return (findSegmentToCompact() != null);
+    }
+
+    private Segment findSegmentToCompact() {
+        for (Segment segment : mSegments.values()) {
+            if (segment != mActiveSegment && segment.liveBytes < segment.size * MIN_LIVE_RATIO) {
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+    private void compact() {
+        // Compact one segment at a time so that lookups don't
+        // wait on the whole compaction.
+        while (true) {
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+
+                try {
+                    if (mSize > mMaxSize && mSegments.size() > 1) {
+                        dropSegment(mSegments.get(mSegments.firstKey()));
+                        continue;
+                    }
+
+                    final Segment segment = findSegmentToCompact();
+                    if (segment == null) {
+                        mCompactionScheduled = false;
+                        return;
+                    }
+
+                    compactSegment(segment);
+                } catch (IOException e) {
+                    Log.w(LOGTAG, "Failed to compact disk cache", e);
+                    mCompactionScheduled = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void deleteSegmentFiles() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (getSegmentId(file) >= 0) {
+                file.delete();
+            }
+        }
+    }
+
+    private void checkNotClosed() {
+        if (mClosed) {
+            throw new IllegalStateException("Disk cache is closed");
+        }
+    }
+
+    private int getFirstSlot(long hash) {
+        return (int) ((hash & Long.MAX_VALUE) % mCapacity);
+    }
+
+    private static int getSlotPosition(int slot) {
+        return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int getSegmentId(File file) {
+        final String name = file.getName();
+        if (!name.startsWith(SEGMENT_FILE_PREFIX)) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] getKeyBytes(String key) {
+        try {
+            return key.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not available", e);
+        }
+    }
+
+    private static long hash(String key) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        // Zero marks empty slots
+        return (hash == EMPTY_SLOT ? 1 : hash);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing we can do about it
+        }
+    }
+
+    private interface RecordWriter {
+        long write(FileChannel channel, long position) throws IOException;
+    }
+
+    private static final class Segment {
+        public final int id;
+        public final RandomAccessFile file;
+        public long size;
+        public long liveBytes;
+        private MappedByteBuffer mMapping;
+
+        public Segment(int id, RandomAccessFile file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.size = file.length();
+            this.liveBytes = 0;
+        }
+
+        public ByteBuffer map(long end) throws IOException {
+            // Segments keep growing, remap once a record
+            // past the current mapping is read.
+            if (mMapping == null || mMapping.capacity() < end) {
+                mMapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            return mMapping;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+
+            length = Math.min(length, mBuffer.remaining());
+            mBuffer.get(buffer, offset, length);
+
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final int skipped = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return mBuffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mBuffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            mBuffer.reset();
+        }
+    }
+
+    private static final class CompactionThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "SmoothieDiskCache");
+
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * <p>{@code EncodedMemoryCache} is an optional memory cache tier for the
+ * encoded (compressed) bytes of item data e.g. JPEG or PNG files. It sits
+ * between the disk and the cache of decoded results kept by an
+ * {@link ItemLoader}. Encoded data is usually an order of magnitude
+ * smaller than the decoded result, so this tier can hold many more
+ * items. Re-displaying an item evicted from the decoded cache only costs
+ * an in-memory decode instead of a disk read.</p>
+ *
+ * <p>The bytes are kept off the Java heap in fixed-size direct
+ * {@link ByteBuffer} slabs. Slabs are recycled between entries, the
+ * cache never allocates more slabs than its byte budget allows. Entries
+ * are evicted in least recently used order. Slabs of evicted entries
+ * still being read count towards the budget until their streams are
+ * closed, new entries are not cached if no room can be made for
+ * them.</p>
+ *
+ * <p>This class is thread-safe. Streams returned by the cache must be
+ * closed once consumed so that the slabs of evicted entries can be
+ * reused.</p>
+ *
+ * @param <K> - The cache key type.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class EncodedMemoryCache<K> {
+    private static final int DEFAULT_SLAB_SIZE = 16 * 1024;
+
+    // Don't let a single entry take over the whole cache
+    private static final int MAX_ENTRY_SIZE_RATIO = 4;
+
+    private final int mSlabSize;
+    private final int mMaxSlabs;
+    private final LinkedHashMap<K, Entry> mEntries;
+    private final LinkedList<ByteBuffer> mFreeSlabs;
+    private int mAllocatedSlabs;
+    private int mUsedSlabs;
+    private int mPinnedSlabs;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxSize - The maximum number of bytes held by the cache.
+     */
+    public EncodedMemoryCache(int maxSize) {
+        this(maxSize, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param maxSize - The maximum number of bytes held by the cache.
+     * @param slabSize - The size of each direct buffer slab.
+     */
+    public EncodedMemoryCache(int maxSize, int slabSize) {
+        if (slabSize <= 0 || maxSize < slabSize) {
+            throw new IllegalArgumentException("Cache size must be at least one slab");
+        }
+
+        mSlabSize = slabSize;
+        mMaxSlabs = maxSize / slabSize;
+        mEntries = new LinkedHashMap<K, Entry>(16, 0.75f, true);
+        mFreeSlabs = new LinkedList<ByteBuffer>();
+        mAllocatedSlabs = 0;
+        mUsedSlabs = 0;
+        mPinnedSlabs = 0;
+    }
+
+    /**
+     * Opens a stream over the encoded bytes cached for the given key. The
+     * returned stream supports {@link InputStream#mark(int)} and
+     * {@link InputStream#reset()} over the whole entry.
+     *
+     * @param key - The cache key.
+     *
+     * @return A stream over the cached bytes or {@code null} if the key
+     *         is not in the cache.
+     */
+    public synchronized InputStream get(K key) {
+        final Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        return new EntryInputStream(entry);
+    }
+
+    /**
+     * Reads the given stream until its end and stores its bytes in the
+     * cache. The given stream is not closed.
+     *
+     * @param key - The cache key.
+     * @param is - The stream with the encoded bytes.
+     *
+     * @return A stream over the stored bytes or {@code null} if the data
+     *         is too big to be cached, or if there's no room left because
+     *         the evicted entries are all still being read. In the latter
+     *         cases, the given stream has been partially consumed.
+     *
+     * @throws IOException If the given stream can't be read.
+     */
+    public InputStream put(K key, InputStream is) throws IOException {
+        final int maxEntrySlabs = Math.max(1, mMaxSlabs / MAX_ENTRY_SIZE_RATIO);
+        final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+        final byte[] buffer = new byte[mSlabSize];
+
+        int length = 0;
+        boolean stored = false;
+
+        try {
+            while (true) {
+                final int count = readFully(is, buffer);
+                if (count <= 0) {
+                    break;
+                }
+
+                if (slabs.size() == maxEntrySlabs) {
+                    return null;
+                }
+
+                final ByteBuffer slab = obtainSlab();
+                if (slab == null) {
+                    return null;
+                }
+
+                slab.put(buffer, 0, count);
+                slabs.add(slab);
+
+                length += count;
+
+                if (count < buffer.length) {
+                    break;
+                }
+            }
+
+            final Entry entry = new Entry(slabs, length);
+
+            synchronized (this) {
+                final Entry previous = mEntries.put(key, entry);
+                if (previous != null) {
+                    releaseEntry(previous);
+                }
+
+                mPutCount++;
+                stored = true;
+
+                return new EntryInputStream(entry);
+            }
+        } finally {
+            if (!stored) {
+                recycleSlabs(slabs);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for the given key from the cache.
+     *
+     * @param key - The cache key.
+     */
+    public synchronized void remove(K key) {
+        final Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            releaseEntry(entry);
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache holds at
+     * most the given number of bytes.
+     *
+     * @param maxSize - The maximum number of bytes to keep in the cache.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        final int maxSlabs = maxSize / mSlabSize;
+
+        evictEntries(maxSlabs);
+
+        // Let the garbage collector free the native memory of the
+        // slabs we're not going to need anymore.
+        while (mAllocatedSlabs > maxSlabs && !mFreeSlabs.isEmpty()) {
+            mFreeSlabs.removeFirst();
+            mAllocatedSlabs--;
+        }
+    }
+
+    /**
+     * Evicts all entries from the cache.
+     */
+    public void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return The number of bytes currently held by cached entries,
+     *         rounded up to whole slabs.
+     */
+    public synchronized int size() {
+        return mUsedSlabs * mSlabSize;
+    }
+
+    /**
+     * @return The number of lookups that found their key in the cache
+     *         i.e. the number of disk reads saved by the cache.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of lookups that didn't find their key in the cache.
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The number of entries stored in the cache.
+     */
+    public synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    /**
+     * @return The number of entries evicted from the cache.
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private synchronized void evictEntries(int maxSlabs) {
+        final Iterator<Entry> i = mEntries.values().iterator();
+        while (mUsedSlabs + mPinnedSlabs > maxSlabs && i.hasNext()) {
+            final Entry entry = i.next();
+            i.remove();
+
+            releaseEntry(entry);
+            mEvictionCount++;
+        }
+    }
+
+    private synchronized ByteBuffer obtainSlab() {
+        // Make room for the new slab by evicting older entries. Their
+        // slabs stay in the free list to be reused right away.
+        if (mUsedSlabs + mPinnedSlabs >= mMaxSlabs) {
+            evictEntries(mMaxSlabs - 1);
+        }
+
+        // Everything left is either being written or still being read
+        // from evicted entries. Don't go past the budget.
+        if (mUsedSlabs + mPinnedSlabs >= mMaxSlabs) {
+            return null;
+        }
+
+        mUsedSlabs++;
+
+        if (!mFreeSlabs.isEmpty()) {
+            return mFreeSlabs.removeFirst();
+        }
+
+        mAllocatedSlabs++;
+        return ByteBuffer.allocateDirect(mSlabSize);
+    }
+
+    private synchronized void recycleSlabs(List<ByteBuffer> slabs) {
+        freeSlabs(slabs);
+        mUsedSlabs -= slabs.size();
+    }
+
+    private synchronized void freeSlabs(List<ByteBuffer> slabs) {
+        for (ByteBuffer slab : slabs) {
+            slab.clear();
+            mFreeSlabs.addLast(slab);
+        }
+    }
+
+    private synchronized void releaseEntry(Entry entry) {
+        entry.evicted = true;
+
+        // Slabs are only recycled once every open stream on
+        // the entry has been closed. They're pinned until then.
+        if (entry.openStreams == 0) {
+            recycleSlabs(entry.slabs);
+        } else {
+            mUsedSlabs -= entry.slabs.size();
+            mPinnedSlabs += entry.slabs.size();
+        }
+    }
+
+    private synchronized void closeStream(Entry entry) {
+        entry.openStreams--;
+
+        if (entry.evicted && entry.openStreams == 0) {
+            freeSlabs(entry.slabs);
+            mPinnedSlabs -= entry.slabs.size();
+        }
+    }
+
+    private static int readFully(InputStream is, byte[] buffer) throws IOException {
+        int offset = 0;
+
+        while (offset < buffer.length) {
+            final int count = is.read(buffer, offset, buffer.length - offset);
+            if (count < 0) {
+                break;
+            }
+
+            offset += count;
+        }
+
+        return offset;
+    }
+
+    private static final class Entry {
+        public final List<ByteBuffer> slabs;
+        public final int length;
+        public int openStreams;
+        public boolean evicted;
+
+        public Entry(List<ByteBuffer> slabs, int length) {
+            this.slabs = slabs;
+            this.length = length;
+            this.openStreams = 0;
+            this.evicted = false;
+        }
+    }
+
+    private final class EntryInputStream extends InputStream {
+        private final Entry mEntry;
+        private final int mSlabSize;
+        private int mPosition;
+        private int mMark;
+        private boolean mClosed;
+
+        public EntryInputStream(Entry entry) {
+            mEntry = entry;
+            mSlabSize = EncodedMemoryCache.this.mSlabSize;
+            mPosition = 0;
+            mMark = 0;
+            mClosed = false;
+
+            entry.openStreams++;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mClosed || mPosition >= mEntry.length) {
+                return -1;
+            }
+
+            final ByteBuffer slab = mEntry.slabs.get(mPosition / mSlabSize);
+            final int value = slab.get(mPosition % mSlabSize) & 0xff;
+            mPosition++;
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mClosed || mPosition >= mEntry.length) {
+                return -1;
+            }
+
+            length = Math.min(length, mEntry.length - mPosition);
+
+            int count = 0;
+            while (count < length) {
+                // Use a duplicate so that concurrent readers of the
+                // same entry don't step on each other's positions.
+                final ByteBuffer slab = mEntry.slabs.get(mPosition / mSlabSize).duplicate();
+                final int slabOffset = mPosition % mSlabSize;
+                final int chunk = Math.min(length - count, mSlabSize - slabOffset);
+
+                slab.position(slabOffset);
+                slab.get(buffer, offset + count, chunk);
+
+                count += chunk;
+                mPosition += chunk;
+            }
+
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final int skipped = (int) Math.max(0, Math.min(n, mEntry.length - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (mClosed ? 0 : mEntry.length - mPosition);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            mMark = mPosition;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            mPosition = mMark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+
+            mClosed = true;
+            closeStream(mEntry);
+        }
+    }
+}
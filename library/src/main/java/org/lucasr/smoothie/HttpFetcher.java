@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>{@code HttpFetcher} is a network fetch stage to be used from
+ * {@link ItemLoader#loadItemPart(Object, int)} implementations. It
+ * downloads URLs straight into a disk cache directory and returns the
+ * cached file, which can then be decoded from disk.</p>
+ *
+ * <p>Response bodies are streamed into the cache file through
+ * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)},
+ * without ever holding the whole body in memory. Connections are fully
+ * consumed and closed without being disconnected so that they can be
+ * kept alive and reused for the next request to the same host. The
+ * number of concurrent requests per host is bounded.</p>
+ *
+ * <p>The cache directory is bounded in size. The least recently fetched
+ * files are deleted once it grows past its maximum size. Fetched files
+ * can also be moved into a {@link DiskCache} with
+ * {@link #fetch(String, DiskCache)}, in which case the cache directory
+ * only holds in-flight downloads.</p>
+ *
+ * <p>How many idle connections are kept alive per host is a process-wide
+ * {@link HttpURLConnection} setting, {@code HttpFetcher} leaves it alone.
+ * Apps allowing more concurrent requests per host than the platform
+ * default of 5 should raise the {@code http.maxConnections} system
+ * property on startup e.g. in {@code Application.onCreate()}.</p>
+ *
+ * <p>An example call from a {@link SimpleItemLoader}:</p>
+ * <pre>
+ * public Bitmap loadItem(String url) {
+ *     try {
+ *         File file = mHttpFetcher.fetch(url);
+ *         return BitmapFactory.decodeFile(file.getPath());
+ *     } catch (IOException e) {
+ *         return null;
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class HttpFetcher {
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+    private static final long DEFAULT_MAX_CACHE_SIZE = 32 * 1024 * 1024;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    // Some FileChannel implementations allocate a buffer as big as the
+    // requested count when transferring from a non-file channel.
+    private static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+    private final File mCacheDir;
+    private final int mMaxConnectionsPerHost;
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private final long mMaxCacheSize;
+    private final Map<String, Semaphore> mHostPermits;
+    private long mCacheSize;
+
+    /**
+     * Creates a fetcher with a cache directory of up to
+     * {@value #DEFAULT_MAX_CACHE_SIZE} bytes.
+     *
+     * @param cacheDir - The directory where fetched files are cached.
+     */
+    public HttpFetcher(File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheDir - The directory where fetched files are cached.
+     * @param maxCacheSize - The maximum number of bytes held by the cache
+     *        directory.
+     */
+    public HttpFetcher(File cacheDir, long maxCacheSize) {
+        this(cacheDir, maxCacheSize, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT,
+                DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param cacheDir - The directory where fetched files are cached.
+     * @param maxCacheSize - The maximum number of bytes held by the cache
+     *        directory.
+     * @param maxConnectionsPerHost - The maximum number of concurrent
+     *        requests to the same host.
+     * @param connectTimeout - The connect timeout in milliseconds.
+     * @param readTimeout - The read timeout in milliseconds.
+     */
+    public HttpFetcher(File cacheDir, long maxCacheSize, int maxConnectionsPerHost,
+            int connectTimeout, int readTimeout) {
+        mCacheDir = cacheDir;
+        mMaxCacheSize = maxCacheSize;
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mHostPermits = new HashMap<String, Semaphore>();
+
+        // Computed on the first download, listing the cache
+        // directory might be slow.
+        mCacheSize = -1;
+
+        mCacheDir.mkdirs();
+    }
+
+    /**
+     * Returns the cached file for the given URL, downloading it first if
+     * it's not in the cache yet. This method blocks and should be called
+     * in a background thread.
+     *
+     * @param url - The URL to fetch.
+     *
+     * @return The cached file with the response body.
+     *
+     * @throws IOException If the URL can't be fetched.
+     */
+    public File fetch(String url) throws IOException {
+        final File file = getCacheFile(url);
+        if (file.exists()) {
+            // Keep recently used files around when trimming the cache
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+
+        // Download to a temporary file first so that readers never
+        // see a partially written file.
+        final File tempFile = download(url, file);
+
+        final long length = tempFile.length();
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to move fetched file into the cache: " + file);
+        }
+
+        trimCache(length);
+
+        return file;
+    }
+
+    /**
+     * Opens a stream over the cached response body for the given URL,
+     * downloading it into the given disk cache first if it's not in the
+     * cache yet. The response body is downloaded to a temporary file
+     * which is then appended to the disk cache, concurrent downloads
+     * don't hold the disk cache. This method blocks and should be called
+     * in a background thread.
+     *
+     * @param url - The URL to fetch. It's also used as the cache key.
+     * @param diskCache - The disk cache to store the response body in.
+     *
+     * @return A stream over the cached response body.
+     *
+     * @throws IOException If the URL can't be fetched.
+     */
+    public InputStream fetch(String url, DiskCache diskCache) throws IOException {
+        final InputStream is = diskCache.get(url);
+        if (is != null) {
+            return is;
+        }
+
+        final File tempFile = download(url, getCacheFile(url));
+        try {
+            return diskCache.put(url, tempFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @param url - The URL to look up.
+     *
+     * @return The file the given URL is cached in. The file might not
+     *         exist yet.
+     */
+    public File getCacheFile(String url) {
+        return new File(mCacheDir, generateFileName(url));
+    }
+
+    /**
+     * Streams the response body for the given URL into a file channel.
+     * This method blocks and should be called in a background thread.
+     *
+     * @param url - The URL to fetch.
+     * @param channel - The channel to write the response body to.
+     * @param position - The position in the channel to start writing at.
+     *
+     * @return The number of bytes written to the channel.
+     *
+     * @throws IOException If the URL can't be fetched.
+     */
+    public long transferTo(String url, FileChannel channel, long position) throws IOException {
+        final URL u = new URL(url);
+        final Semaphore permits = getHostPermits(u.getHost());
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + u.getHost());
+        }
+
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) u.openConnection();
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+
+            final int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                closeErrorStream(connection);
+                throw new IOException("Unexpected response " + responseCode + " for " + url);
+            }
+
+            final InputStream is = connection.getInputStream();
+            try {
+                return transferFully(Channels.newChannel(is), channel, position);
+            } finally {
+                // Closing the stream without disconnecting hands the
+                // connection back to the keep-alive pool.
+                is.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private File download(String url, File file) throws IOException {
+        final File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX + Thread.currentThread().getId());
+
+        final FileOutputStream os = new FileOutputStream(tempFile);
+        try {
+            transferTo(url, os.getChannel(), 0);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        } finally {
+            os.close();
+        }
+
+        return tempFile;
+    }
+
+    private synchronized void trimCache(long addedSize) {
+        if (mCacheSize < 0) {
+            mCacheSize = 0;
+            for (File file : listCacheFiles()) {
+                mCacheSize += file.length();
+            }
+        } else {
+            mCacheSize += addedSize;
+        }
+
+        if (mCacheSize <= mMaxCacheSize) {
+            return;
+        }
+
+        // Least recently fetched files go first
+        final File[] files = listCacheFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return (lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1));
+            }
+        });
+
+        for (int i = 0; i < files.length && mCacheSize > mMaxCacheSize; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                mCacheSize -= length;
+            }
+        }
+    }
+
+    private File[] listCacheFiles() {
+        // In-flight downloads don't count, they're either
+        // moved into the cache or deleted.
+        final File[] files = mCacheDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return (file.isFile() && file.getName().indexOf(TEMP_FILE_SUFFIX) < 0);
+            }
+        });
+
+        return (files != null ? files : new File[0]);
+    }
+
+    private static long transferFully(ReadableByteChannel source, FileChannel channel, long position)
+            throws IOException {
+        long count = 0;
+
+        while (true) {
+            final long transferred = channel.transferFrom(source, position + count, TRANSFER_CHUNK_SIZE);
+            if (transferred <= 0) {
+                break;
+            }
+
+            count += transferred;
+        }
+
+        return count;
+    }
+
+    private static void closeErrorStream(HttpURLConnection connection) {
+        final InputStream es = connection.getErrorStream();
+        if (es == null) {
+            return;
+        }
+
+        try {
+            es.close();
+        } catch (IOException e) {
+            // Nothing we can do about it
+        }
+    }
+
+    private synchronized Semaphore getHostPermits(String host) {
+        Semaphore permits = mHostPermits.get(host);
+
+        if (permits == null) {
+            permits = new Semaphore(mMaxConnectionsPerHost, true);
+            mHostPermits.put(host, permits);
+        }
+
+        return permits;
+    }
+
+    private static String generateFileName(String url) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final byte[] hash = digest.digest(url.getBytes("UTF-8"));
+
+            final StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not available", e);
+        }
+    }
+}
@@ -16,26 +16,32 @@
 
 package org.lucasr.smoothie;
 
-import java.lang.ref.SoftReference;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import org.lucasr.smoothie.core.Clock;
+import org.lucasr.smoothie.core.Dispatcher;
+import org.lucasr.smoothie.core.ItemSource;
+import org.lucasr.smoothie.core.LoadExecutor;
+import org.lucasr.smoothie.core.LoadScheduler;
+import org.lucasr.smoothie.core.LoadThreadPoolExecutor;
+import org.lucasr.smoothie.core.LoadTracer;
+import org.lucasr.smoothie.core.ScrollRecorder;
+
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Process;
 import android.os.SystemClock;
-import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.Adapter;
-import android.widget.AdapterView;
 
 /**
  * {@code ItemLoader} is responsible for loading and displaying items
@@ -208,299 +214,250 @@ import android.widget.AdapterView;
  * return the previously loaded item. You can easily implement memory
  * caching using the Android support library's {@code LruCache}</p>
  *
+ * <h2>Warm starts</h2>
+ * <p>An {@link ItemManager} can persist the items visible when its view is
+ * detached and start loading them as soon as it's created on the next
+ * launch, before the Adapter's first
+ * {@link android.widget.Adapter#getView(int, View, android.view.ViewGroup) getView()}
+ * call. See {@link ItemManager.Builder#setWarmStartFile(java.io.File)}. Your
+ * ItemLoader has to implement {@link #writeItemParams(Object, DataOutput)} and
+ * {@link #readItemParams(DataInput)} for that to work.</p>
+ *
+ * <h2>Scheduling</h2>
+ * <p>Item requests are scheduled by a {@link LoadScheduler}, the platform
+ * independent engine in {@code org.lucasr.smoothie.core}. ItemLoader binds
+ * it to the UI thread's {@link Handler}, to item views as targets and to
+ * your loading and displaying logic.</p>
+ *
  * @param <Params> - The parameters for loading an item.
  * @param <Result> - The result of the item loading operation.
  *
  * @author Lucas Rocha <lucasr@lucasr.org>
  */
 public abstract class ItemLoader<Params, Result> {
-    private static final String LOGTAG = "SmoothieItemLoader";
-    private static final boolean ENABLE_LOGGING = false;
+    private static final int NO_TRIM_MEMORY_LEVEL = -1;
 
     private Handler mHandler;
-    private Map<View, ItemState<Params>> mItemStates;
-    private Map<String, ItemRequest<Params, Result>> mItemRequests;
-    private ThreadPoolExecutor mExecutorService;
-
-    static final class ItemState<Params> {
-        public boolean shouldLoadItem;
-        public Params itemParams;
-        public int position;
-    }
-
-    void init(Handler handler, int threadPoolSize) {
-        mHandler = handler;
-        mItemStates = Collections.synchronizedMap(new WeakHashMap<View, ItemState<Params>>());
-        mItemRequests = new ConcurrentHashMap<String, ItemRequest<Params, Result>>(8, 0.9f, 1);
-        mExecutorService = new ItemsThreadPoolExecutor<Params, Result>(threadPoolSize, threadPoolSize, 60,
-                TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
-    }
-
-    void performDisplayItem(View itemContainer, Adapter adapter, View itemView, long timestamp) {
-        final ItemState<Params> itemState = getItemState(itemView);
-        if (!itemState.shouldLoadItem) {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "Item should not load, bailing: " + itemState.itemParams);
+    private LoadScheduler<View, Params, Result> mScheduler;
+    private int mThreadPoolSize;
+    private int mMaxPendingRequests;
+    private long mFailureTtl;
+    private int mMaxRetries;
+    private long mLoadDeadline;
+    private SparseArray<Long> mPartLoadDeadlines;
+    private boolean mHedgedLoadsEnabled;
+    private LoadStats mLoadStats;
+    private int mTrimMemoryLevel;
+    private Runnable mTrimMemoryDoneRunnable;
+
+    void init(Handler handler, int threadPoolSize, int maxPendingRequests, long failureTtl,
+            int maxRetries, long loadDeadline, SparseArray<Long> partLoadDeadlines,
+            boolean hedgedLoadsEnabled) {
+        // The same ItemLoader might be shared between several ItemManagers
+        // e.g. one per page in a ViewPager. Keep the scheduler created by
+        // the first one so that requests from all containers are scheduled
+        // together. They must all be built with the same loader settings
+        // as the scheduler can only honour one set.
+        if (mHandler != null) {
+            if (!hasSameSettings(threadPoolSize, maxPendingRequests, failureTtl, maxRetries,
+                    loadDeadline, partLoadDeadlines, hedgedLoadsEnabled)) {
+                throw new IllegalStateException("ItemLoader shared by ItemManagers with different settings");
             }
 
             return;
         }
 
-        final Params itemParams = itemState.itemParams;
-        if (itemParams == null) {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "No item params, bailing");
+        mHandler = handler;
+        mThreadPoolSize = threadPoolSize;
+        mMaxPendingRequests = maxPendingRequests;
+        mFailureTtl = failureTtl;
+        mMaxRetries = maxRetries;
+        mLoadDeadline = loadDeadline;
+        mPartLoadDeadlines = partLoadDeadlines;
+        mHedgedLoadsEnabled = hedgedLoadsEnabled;
+        mTrimMemoryLevel = NO_TRIM_MEMORY_LEVEL;
+        mTrimMemoryDoneRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mTrimMemoryLevel = NO_TRIM_MEMORY_LEVEL;
             }
+        };
 
-            return;
-        }
+        final ItemLoaderSource source = new ItemLoaderSource();
 
-        final int position = itemState.position;
-        if (position == AdapterView.INVALID_POSITION) {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "Undefined position, bailing");
-            }
+        final LoadScheduler.Builder<View, Params, Result> builder =
+                new LoadScheduler.Builder<View, Params, Result>(source, new UptimeClock(),
+                        new HandlerDispatcher(handler));
 
-            return;
-        }
+        builder.setThreadPoolSize(threadPoolSize)
+               .setMaxPendingRequests(maxPendingRequests)
+               .setFailureTtl(failureTtl)
+               .setMaxRetries(maxRetries)
+               .setLoadDeadline(loadDeadline)
+               .setHedgedLoadsEnabled(hedgedLoadsEnabled)
+               .setExecutorFactory(new ItemsExecutorFactory())
+               .setLoadTracer(source);
 
-        final int partCount = getItemPartCount(adapter, position);
-        for (int itemPart = 0; itemPart < partCount; itemPart++) {
-            performDisplayItemPart(itemContainer, itemView, itemState, itemPart, timestamp);
+        for (int i = 0; i < partLoadDeadlines.size(); i++) {
+            builder.setLoadDeadline(partLoadDeadlines.keyAt(i), partLoadDeadlines.valueAt(i));
         }
+
+        mScheduler = builder.build();
+        mLoadStats = new LoadStats(mScheduler.getStats());
     }
 
-    private void performDisplayItemPart(View itemContainer, View itemView, ItemState<Params> itemState,
-                                        int itemPart, long timestamp) {
-        final int position = itemState.position;
-        final Params itemParams = itemState.itemParams;
+    private boolean hasSameSettings(int threadPoolSize, int maxPendingRequests, long failureTtl,
+            int maxRetries, long loadDeadline, SparseArray<Long> partLoadDeadlines,
+            boolean hedgedLoadsEnabled) {
+        if (threadPoolSize != mThreadPoolSize || maxPendingRequests != mMaxPendingRequests ||
+            failureTtl != mFailureTtl || maxRetries != mMaxRetries ||
+            loadDeadline != mLoadDeadline || hedgedLoadsEnabled != mHedgedLoadsEnabled) {
+            return false;
+        }
 
-        final String id = generateItemRequestId(position, itemPart);
-        ItemRequest<Params, Result> request = mItemRequests.get(id);
-        if (request == null) {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "(Display) No pending item request, creating new: " + itemParams);
-            }
+        final int partCount = partLoadDeadlines.size();
+        if (partCount != mPartLoadDeadlines.size()) {
+            return false;
+        }
 
-            // No existing item request, create a new one
-            request = new ItemRequest<Params, Result>(id, itemContainer, itemView, itemParams, position, itemPart, timestamp);
-            mItemRequests.put(id, request);
-        } else {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "(Display) There's a pending item request, reusing: " + itemParams);
+        for (int i = 0; i < partCount; i++) {
+            final Long deadline = mPartLoadDeadlines.get(partLoadDeadlines.keyAt(i));
+            if (deadline == null || !deadline.equals(partLoadDeadlines.valueAt(i))) {
+                return false;
             }
-
-            // There's a pending item request for these parameters, promote the
-            // existing request with higher priority. See LoadItemFutureTask
-            // for details on request priorities.
-            request.timestamp = timestamp;
-            request.itemView = new SoftReference<View>(itemView);
         }
 
-        // We're actually running this item request, make sure
-        // this item is not requested again.
-        itemState.shouldLoadItem = false;
-
-        Result result = loadItemPartFromMemory(itemParams, itemPart);
-        if (result != null) {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "Item is preloaded, quickly displaying");
-            }
+        return true;
+    }
 
-            cancelItemRequest(position, itemPart);
+    void prestartThreads() {
+        mScheduler.prestartThreads();
+    }
 
-            // The item is in memory, no need to asynchronously load it
-            // Run the final item display routine straight away.
-            request.result = new SoftReference<Result>(result);
-            mHandler.post(new DisplayItemRunnable<Params, Result>(this, request, true));
+    void setPaused(boolean paused) {
+        // Several managers might share this loader, it's paused
+        // as long as any of them is.
+        mScheduler.setPaused(paused);
+    }
 
-            return;
-        }
+    void setThrottled(boolean throttled) {
+        // Several managers might share this loader, it's throttled
+        // as long as any of them is dropping frames.
+        mScheduler.setThrottled(throttled);
+    }
 
-        request.loadItemTask = mExecutorService.submit(new LoadItemRunnable<Params, Result>(this, request));
+    void performDisplayItem(View itemContainer, Adapter adapter, View itemView, long timestamp) {
+        mScheduler.performDisplayItem(itemContainer, itemView, timestamp);
     }
 
-    void performLoadItem(View itemContainer, View itemView, Adapter adapter, int position, boolean shouldDisplayItem) {
-        // Loader returned no parameters for the item, just bail
+    void performLoadItem(View itemContainer, View itemView, Adapter adapter, int position,
+            boolean shouldDisplayItem, boolean displayMemoryHitsSynchronously) {
+        // No parameters means nothing to load for the item, the scheduler
+        // still cancels whatever the view was loading before.
         final Params itemParams = getItemParams(adapter, position);
-        if (itemParams == null) {
-            return;
-        }
-
-        final ItemState<Params> itemState = getItemState(itemView);
-        itemState.itemParams = itemParams;
-        itemState.position = position;
+        final int partCount = (itemParams != null ? getItemPartCount(adapter, position) : 0);
 
-        // Mark the view for loading
-        itemState.shouldLoadItem = true;
-
-        final int partCount = getItemPartCount(adapter, position);
-        for (int itemPart = 0; itemPart < partCount; itemPart++) {
-            if (shouldDisplayItem || isItemPartInMemory(itemParams, itemPart)) {
-                performDisplayItemPart(itemContainer, itemView, itemState, itemPart, SystemClock.uptimeMillis());
-            }
-        }
+        mScheduler.performLoadItem(itemContainer, itemView, itemParams, position, partCount,
+                adapter.getItemViewType(position), shouldDisplayItem, displayMemoryHitsSynchronously);
     }
 
-    void performPreloadItem(View itemContainer, Adapter adapter, int position, long timestamp) {
+    void performPreloadItem(View itemContainer, Adapter adapter, int position, long timestamp,
+            long deadline) {
         final Params itemParams = getItemParams(adapter, position);
         if (itemParams == null) {
             return;
         }
 
+        final int viewType = adapter.getItemViewType(position);
+
         final int partCount = getItemPartCount(adapter, position);
         for (int itemPart = 0; itemPart < partCount; itemPart++) {
             if (!shouldPreloadItemPart(adapter, position, itemPart)) {
                 continue;
             }
 
-            performPreloadItemPart(itemContainer, itemParams, adapter, position,
-                    itemPart, SystemClock.uptimeMillis());
+            mScheduler.performPreloadItemPart(itemContainer, itemParams, position, itemPart,
+                    viewType, timestamp, deadline);
         }
     }
 
-    private void performPreloadItemPart(View itemContainer, Params itemParams, Adapter adapter, int position,
-            int itemPart, long timestamp) {
-        // If item is memory, just cancel any pending requests for
-        // this item and return as the item has already been loaded.
-        if (isItemPartInMemory(itemParams, itemPart)) {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "Item is in memory, bailing: " + itemParams);
-            }
-
-            cancelItemRequest(position, itemPart);
-            return;
-        }
-
-        final String id = generateItemRequestId(position, itemPart);
-        ItemRequest<Params, Result> request = mItemRequests.get(id);
-        if (request == null) {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "(Preload) No pending item request, creating new: " + id);
-            }
-
-            // No pending item preload request, create a new one
-            request = new ItemRequest<Params, Result>(id, itemContainer, itemParams, position, itemPart, timestamp);
-            mItemRequests.put(id, request);
-
-            request.loadItemTask = mExecutorService.submit(new LoadItemRunnable<Params, Result>(this, request));
-        } else {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "(Preload) There's a pending item request, reusing: " + id);
-            }
-
-            // There's a pending item request for these parameters, demote the
-            // existing request with loader priority as it's just a preloading
-            // request. See LoadItemFutureTask for details on request priorities.
-            request.timestamp = timestamp;
-            request.itemView = null;
-        }
+    void cancelObsoleteRequests(View itemContainer, long timestamp) {
+        mScheduler.cancelObsoleteRequests(itemContainer, timestamp);
     }
 
-    boolean isItemPartInMemory(Params itemParams, int itemPart) {
-        return (loadItemPartFromMemory(itemParams, itemPart) != null);
+    void revalidateItem(View itemView) {
+        mScheduler.revalidateItem(itemView);
     }
 
-    void cancelObsoleteRequests(long timestamp) {
-        for (Iterator<ItemRequest<Params, Result>> i = mItemRequests.values().iterator(); i.hasNext();) {
-            final ItemRequest<Params, Result> request = i.next();
-
-            if (request.timestamp < timestamp) {
-                if (ENABLE_LOGGING) {
-                    Log.d(LOGTAG, "Cancelling obsolete request: " + request.itemParams);
-                }
-
-                if (request.loadItemTask != null) {
-                    request.loadItemTask.cancel(true);
-                }
-
-                i.remove();
-            }
-        }
-
-        // Actually remove any cancelled tasks from the queue
-        mExecutorService.purge();
+    void cancelPreloadRequests() {
+        mScheduler.cancelPreloadRequests();
     }
 
-    void cancelRequestsForContainer(View itemContainer) {
-        if (itemContainer == null) {
-            throw new IllegalArgumentException("Null itemContainer in cancelRequestsForContainer");
+    void trimMemory(int level) {
+        // Every ItemManager sharing this loader gets the same trim
+        // event from the system, in the same UI thread message. Only
+        // trim the caches once per event.
+        if (level == mTrimMemoryLevel) {
+            return;
         }
 
-        for (Iterator<ItemRequest<Params, Result>> i = mItemRequests.values().iterator(); i.hasNext();) {
-            final ItemRequest<Params, Result> request = i.next();
-            final View requestContainer = request.itemContainer.get();
-
-            if (requestContainer == itemContainer) {
-                if (ENABLE_LOGGING) {
-                    Log.d(LOGTAG, "Cancelling request for container: " + request.itemParams);
-                }
+        if (mTrimMemoryLevel == NO_TRIM_MEMORY_LEVEL) {
+            mHandler.post(mTrimMemoryDoneRunnable);
+        }
 
-                if (request.loadItemTask != null) {
-                    request.loadItemTask.cancel(true);
-                }
+        mTrimMemoryLevel = level;
+        onTrimMemory(level);
+    }
 
-                i.remove();
-            }
-        }
+    void setContainerDemoted(View itemContainer, boolean demoted) {
+        mScheduler.setContainerDemoted(itemContainer, demoted);
     }
 
-    private ItemState<Params> getItemState(View itemView) {
-        ItemState<Params> itemState = mItemStates.get(itemView);
+    void setScrollRecorder(View itemContainer, ScrollRecorder scrollRecorder) {
+        mScheduler.setScrollRecorder(itemContainer, scrollRecorder);
+    }
 
-        if (itemState == null) {
-            itemState = new ItemState<Params>();
-            itemState.itemParams = null;
-            itemState.shouldLoadItem = false;
-            itemState.position = AdapterView.INVALID_POSITION;
+    void cancelRequestsForContainer(View itemContainer) {
+        mScheduler.cancelRequestsForContainer(itemContainer);
+    }
 
-            mItemStates.put(itemView, itemState);
-        }
+    Object detachRequestsFromContainer(View itemContainer) {
+        return mScheduler.detachRequestsFromContainer(itemContainer);
+    }
 
-        return itemState;
+    void attachRequestsToContainer(View itemContainer, Object detachedRequests) {
+        mScheduler.attachRequestsToContainer(itemContainer, detachedRequests);
     }
 
-    private static String generateItemRequestId(int position, int itemPart) {
-        return String.valueOf(position) + String.valueOf(itemPart);
+    void cancelDetachedRequests(Object detachedRequests) {
+        mScheduler.cancelDetachedRequests(detachedRequests);
     }
 
-    private void cancelItemRequest(int position, int itemPart) {
-        final String id = generateItemRequestId(position, itemPart);
-        final ItemRequest<Params, Result> request = mItemRequests.get(id);
-        if (request == null) {
-            return;
-        }
+    boolean isItemDisplayed(View itemView) {
+        return mScheduler.isItemDisplayed(itemView);
+    }
 
-        mItemRequests.remove(id);
-        if (request.loadItemTask != null) {
-            request.loadItemTask.cancel(true);
-        }
+    LoadStats getLoadStats() {
+        return mLoadStats;
     }
 
-    private boolean itemViewReused(ItemRequest<Params, Result> request) {
-        // If itemView is null, this means this is a preload request
-        // with no target view to display. No view to be possibly recycled
-        // in this case.
-        if (request.itemView == null) {
-            return false;
-        }
+    boolean writeWarmStartSnapshot(ViewGroup itemContainer, DataOutput out) throws IOException {
+        final int count = itemContainer.getChildCount();
 
-        // If the request's soft reference to the view is now null, this means
-        // the view has been disposed from memory. Just bail.
-        final View itemView = request.itemView.get();
-        if (itemView == null) {
-            return true;
+        final List<View> itemViews = new ArrayList<View>(count);
+        for (int i = 0; i < count; i++) {
+            itemViews.add(itemContainer.getChildAt(i));
         }
 
-        // If the parameters associated with the view doesn't match the ones
-        // in the matching request, this means the view has been recycled to
-        // display something else.
-        final int position = getItemState(itemView).position;
-        if (position == AdapterView.INVALID_POSITION || request.position != position) {
-            return true;
-        }
+        return mScheduler.writeWarmStartSnapshot(itemViews, out);
+    }
 
-        return false;
+    void performWarmStart(DataInput in) throws IOException {
+        mScheduler.performWarmStart(in);
+    }
+
+    void cancelWarmStartRequests() {
+        mScheduler.cancelWarmStartRequests();
     }
 
     /**
@@ -565,6 +522,57 @@ public abstract class ItemLoader<Params, Result> {
      */
     public abstract Result loadItemPart(Params itemParams, int itemPart);
 
+    /**
+     * Loads the item data for a target view with the given size. This method
+     * is called in a background thread. Override it instead of
+     * {@link #loadItemPart(Object, int)} if you want to load the item data
+     * at the resolution the target view actually needs e.g. decoding images
+     * with the right sample size.
+     *
+     * <p>The target size is the size of the item view the data will be
+     * displayed in. Preload requests have no target view, the last known
+     * size for the item's view type is used instead. The default
+     * implementation simply calls {@link #loadItemPart(Object, int)}.</p>
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(Adapter, int)}.
+     * @param itemPart - The target item part to be loaded.
+     * @param targetWidth - The width of the target item view, or 0 if unknown.
+     * @param targetHeight - The height of the target item view, or 0 if unknown.
+     *
+     * @return The loaded item data.
+     */
+    public Result loadItemPart(Params itemParams, int itemPart, int targetWidth, int targetHeight) {
+        return loadItemPart(itemParams, itemPart);
+    }
+
+    /**
+     * Starts loading the item data without blocking the calling thread.
+     * This method is called in a background thread. Override it if your
+     * item data comes from an asynchronous source e.g. a non-blocking
+     * network client, so that pending loads don't hold any of the
+     * loader's threads.
+     *
+     * <p>The loaded data has to be delivered to the given callback, from
+     * any thread. The returned {@link Cancellable} is called when the
+     * request is cancelled e.g. because the item is not visible anymore,
+     * or has run past its deadline. Results delivered after that are
+     * ignored. The default implementation returns {@code null}, in which
+     * case the item data is loaded with
+     * {@link #loadItemPart(Object, int, int, int)} instead.</p>
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(Adapter, int)}.
+     * @param itemPart - The target item part to be loaded.
+     * @param callback - The callback to deliver the loaded item data to.
+     *
+     * @return A handle to cancel the load, or {@code null} to load the
+     *         item data synchronously instead.
+     */
+    public Cancellable loadItemPartAsync(Params itemParams, int itemPart, LoadCallback<Result> callback) {
+        return null;
+    }
+
     /**
      * Attempts to load the item data from memory. This method is called
      * in the UI thread. In most implementations, this method will simply
@@ -578,6 +586,28 @@ public abstract class ItemLoader<Params, Result> {
      */
     public abstract Result loadItemPartFromMemory(Params itemParams, int itemPart);
 
+    /**
+     * Attempts to load the item data for a target view with the given size
+     * from memory. This method is called in the UI thread. Override it
+     * along with {@link #loadItemPart(Object, int, int, int)} if the cached
+     * item data depends on the target size e.g. images decoded at the size
+     * of the view. The default implementation simply calls
+     * {@link #loadItemPartFromMemory(Object, int)}.
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(Adapter, int)}
+     * @param itemPart - The target item part to be loaded.
+     * @param targetWidth - The width of the target item view, or 0 if unknown.
+     * @param targetHeight - The height of the target item view, or 0 if unknown.
+     *
+     * @return The cached item data, {@code null} if there's none suitable
+     *         for the given size.
+     */
+    public Result loadItemPartFromMemory(Params itemParams, int itemPart, int targetWidth,
+            int targetHeight) {
+        return loadItemPartFromMemory(itemParams, itemPart);
+    }
+
     /**
      * Displays the loaded item data in the target view. This method is called
      * in the UI thread.
@@ -595,174 +625,266 @@ public abstract class ItemLoader<Params, Result> {
      */
     public abstract void displayItemPart(View itemView, Result result, int itemPart, boolean fromMemory);
 
-    private static final class ItemRequest<Params, Result> {
-        public SoftReference<View> itemContainer;
-        public SoftReference<View> itemView;
-        public SoftReference<Result> result;
-        public Future<?> loadItemTask;
-        public Long timestamp;
+    /**
+     * Called when loaded item data is handed over to be displayed later
+     * in the UI thread. Override it along with
+     * {@link #releaseItemPart(Object, int)} if your cached item data can
+     * be recycled once evicted e.g. pooled bitmaps, and keep it from
+     * being recycled until released. Item data that is only preloaded,
+     * or probed with {@link #loadItemPartFromMemory(Object, int)}, is
+     * never retained. The default implementation does nothing. This
+     * method might be called in any thread.
+     *
+     * @param result - The item data about to be displayed.
+     * @param itemPart - The item part the data belongs to.
+     */
+    public void retainItemPart(Result result, int itemPart) {
+    }
 
-        final public String id;
-        final public Params itemParams;
-        final public int position;
-        final public Integer itemPart;
+    /**
+     * Called once the item data handed over by
+     * {@link #retainItemPart(Object, int)} has been displayed, or dropped
+     * because its target view went away. It's called once per retain
+     * call. The default implementation does nothing. This method is
+     * called in the UI thread.
+     *
+     * @param result - The item data retained before.
+     * @param itemPart - The item part the data belongs to.
+     */
+    public void releaseItemPart(Result result, int itemPart) {
+    }
 
-        public ItemRequest(String id, View itemContainer, Params itemParams, int position, int itemPart,
-                long timestamp) {
-            this(id, itemContainer, null, itemParams, position, itemPart, timestamp);
-        }
+    /**
+     * Called when the system asks the app to trim its memory usage.
+     * Override this method to trim the caches held by your loader,
+     * according to the given level. The default implementation does
+     * nothing. This method is called on the UI thread.
+     *
+     * @param level - The context of the trim, one of the
+     *        {@code ComponentCallbacks2.TRIM_MEMORY_*} constants.
+     *
+     * @see ItemManager#onTrimMemory(int)
+     */
+    public void onTrimMemory(int level) {
+    }
 
-        public ItemRequest(String id, View itemContainer, View itemView, Params itemParams, int position,
-                int itemPart, long timestamp) {
-            this.id = id;
-            this.itemContainer = new SoftReference<View>(itemContainer);
-            this.itemView = (itemView != null ? new SoftReference<View>(itemView) : null);
-            this.itemParams = itemParams;
-            this.position = position;
-            this.itemPart = itemPart;
-            this.result = null;
-            this.timestamp = timestamp;
-            this.loadItemTask = null;
-        }
+    /**
+     * Writes the given item parameters to a warm start snapshot. Override
+     * this method along with {@link #readItemParams(DataInput)} to enable
+     * warm starts. This method is called in the UI thread.
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(Adapter, int)}.
+     * @param out - The snapshot to write the parameters to.
+     *
+     * @return Whether the parameters have been written. The default
+     *         implementation returns {@code false} i.e. no snapshot is written.
+     *
+     * @throws IOException If the parameters can't be written.
+     *
+     * @see ItemManager.Builder#setWarmStartFile(java.io.File)
+     */
+    public boolean writeItemParams(Params itemParams, DataOutput out) throws IOException {
+        return false;
+    }
+
+    /**
+     * Reads item parameters written by {@link #writeItemParams(Object, DataOutput)}
+     * from a warm start snapshot. This method is called in a background
+     * thread. The restored parameters are loaded with
+     * {@link #loadItemPart(Object, int, int, int)} whether or not they're
+     * still in memory, so check your memory cache there first. The
+     * restored parameters must be
+     * {@link Object#equals(Object) equal} to the ones returned by
+     * {@link #getItemParams(Adapter, int)} for the same item.
+     *
+     * @param in - The snapshot to read the parameters from.
+     *
+     * @return The restored parameters, or {@code null} to stop reading the
+     *         snapshot.
+     *
+     * @throws IOException If the parameters can't be read.
+     */
+    public Params readItemParams(DataInput in) throws IOException {
+        return null;
+    }
+
+    /**
+     * Receives the item data loaded by
+     * {@link ItemLoader#loadItemPartAsync(Object, int, LoadCallback)}.
+     */
+    public interface LoadCallback<Result> {
+        /**
+         * Delivers the loaded item data. This method can be called from
+         * any thread, only the first call for each load is taken into
+         * account.
+         *
+         * @param result - The loaded item data, or {@code null} if the item
+         *        failed to load.
+         */
+        public void onItemPartLoaded(Result result);
+    }
+
+    /**
+     * Cancels an asynchronous load started by
+     * {@link ItemLoader#loadItemPartAsync(Object, int, LoadCallback)}.
+     */
+    public interface Cancellable extends ItemSource.Cancellable {
+        /**
+         * Cancels the load. This method is called in the UI thread and
+         * must not block.
+         */
+        @Override
+        public void cancel();
     }
 
-    private static final class ItemsThreadPoolExecutor<Params, Result> extends ThreadPoolExecutor {
-        public ItemsThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
-                long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
-            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+    private final class ItemLoaderSource implements ItemSource<View, Params, Result>, LoadTracer {
+        @Override
+        public int getTargetWidth(View itemView) {
+            return itemView.getWidth();
         }
 
         @Override
-        public Future<?> submit(Runnable task) {
-            if (task == null) {
-                throw new NullPointerException();
-            }
+        public int getTargetHeight(View itemView) {
+            return itemView.getHeight();
+        }
 
-            @SuppressWarnings("unchecked")
-            LoadItemFutureTask<Params, Result> ftask =
-                    new LoadItemFutureTask<Params, Result>((LoadItemRunnable<Params, Result>) task);
+        @Override
+        public Result loadItemPartFromMemory(Params itemParams, int itemPart, int targetWidth,
+                int targetHeight) {
+            return ItemLoader.this.loadItemPartFromMemory(itemParams, itemPart, targetWidth, targetHeight);
+        }
 
-            execute(ftask);
-            return ftask;
+        @Override
+        public Result loadItemPart(Params itemParams, int itemPart, int targetWidth, int targetHeight) {
+            return ItemLoader.this.loadItemPart(itemParams, itemPart, targetWidth, targetHeight);
         }
-    }
 
-    private static final class LoadItemFutureTask<Params, Result> extends FutureTask<LoadItemRunnable<Params, Result>>
-            implements Comparable<LoadItemFutureTask<Params, Result>> {
-        private final LoadItemRunnable<Params, Result> mRunnable;
+        @Override
+        public ItemSource.Cancellable loadItemPartAsync(Params itemParams, int itemPart,
+                final ItemSource.LoadCallback<Result> callback) {
+            // The subclass implements the loader's own callback type
+            return ItemLoader.this.loadItemPartAsync(itemParams, itemPart,
+                    new ItemLoader.LoadCallback<Result>() {
+                        @Override
+                        public void onItemPartLoaded(Result result) {
+                            callback.onItemPartLoaded(result);
+                        }
+                    });
+        }
 
-        public LoadItemFutureTask(LoadItemRunnable<Params, Result> runnable) {
-            super(runnable, null);
-            mRunnable = runnable;
+        @Override
+        public void displayItemPart(View itemView, Result result, int itemPart, boolean fromMemory) {
+            ItemLoader.this.displayItemPart(itemView, result, itemPart, fromMemory);
         }
 
         @Override
-        public int compareTo(LoadItemFutureTask<Params, Result> another) {
-            ItemRequest<Params, Result> r1 = mRunnable.getItemRequest();
-            ItemRequest<Params, Result> r2 = another.mRunnable.getItemRequest();
-
-            // A null itemView here means that the requests has no target view
-            // to display the loaded content, which means it's a preload request.
-            // Preloading requests always have lower priority than requests for items
-            // that are visible on screen. Parts with lower indexes have priority
-            // over higher ones. Request priorities are dynamically updated as the
-            // user scroll the list view. See performDisplayItem() and
-            // performPreloadItem() for details.
-            if (r1.itemView != null && r2.itemView == null) {
-                return -1;
-            } else if (r1.itemView == null && r2.itemView != null) {
-                return 1;
-            } else if (!r1.itemPart.equals(r2.itemPart)) {
-                return r1.itemPart.compareTo(r2.itemPart);
-            } else {
-                return r1.timestamp.compareTo(r2.timestamp);
-            }
+        public void retainItemPart(Result result, int itemPart) {
+            ItemLoader.this.retainItemPart(result, itemPart);
         }
-    }
 
-    private static final class LoadItemRunnable<Params, Result> implements Runnable {
-        private final ItemLoader<Params, Result> mItemLoader;
-        private final ItemRequest<Params, Result> mRequest;
+        @Override
+        public void releaseItemPart(Result result, int itemPart) {
+            ItemLoader.this.releaseItemPart(result, itemPart);
+        }
 
-        public LoadItemRunnable(ItemLoader<Params, Result> itemLoader, ItemRequest<Params, Result> request) {
-            mItemLoader = itemLoader;
-            mRequest = request;
+        @Override
+        public boolean writeItemParams(Params itemParams, DataOutput out) throws IOException {
+            return ItemLoader.this.writeItemParams(itemParams, out);
         }
 
-        public ItemRequest<Params, Result> getItemRequest() {
-            return mRequest;
+        @Override
+        public Params readItemParams(DataInput in) throws IOException {
+            return ItemLoader.this.readItemParams(in);
         }
 
         @Override
-        public void run() {
-            if (ENABLE_LOGGING) {
-                Log.d(LOGTAG, "Running: " + ItemLoader.generateItemRequestId(mRequest.position, mRequest.itemPart));
-            }
+        public boolean beginSection(String name, int position, int itemPart) {
+            return ItemTrace.beginSection(name, position, itemPart);
+        }
 
-            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-            mItemLoader.mItemRequests.remove(mRequest.id);
+        @Override
+        public void endSection() {
+            ItemTrace.endSection();
+        }
 
-            if (mItemLoader.itemViewReused(mRequest)) {
-                return;
-            }
+        @Override
+        public int beginAsyncSection(String name, int position, int itemPart) {
+            return ItemTrace.beginAsyncSection(name, position, itemPart);
+        }
 
-            Result result = mItemLoader.loadItemPart(mRequest.itemParams, mRequest.itemPart);
-            mRequest.result = new SoftReference<Result>(result);
-
-            // If itemView is not null, this is a request for an item
-            // that is currently visible on screen.
-            if (mRequest.itemView != null) {
-                if (ENABLE_LOGGING) {
-                    Log.d(LOGTAG, "Done loading image: " + mRequest.itemParams);
-                }
-
-                if (mItemLoader.itemViewReused(mRequest)) {
-                    return;
-                }
-
-                // Item is now loaded, run the display routine
-                mItemLoader.mHandler.post(new DisplayItemRunnable<Params, Result>(mItemLoader, mRequest, false));
-            } else {
-                // This is just a preload request, we're done here
-                if (ENABLE_LOGGING) {
-                    Log.d(LOGTAG, "Done preloading: " + mRequest.itemParams);
-                }
-            }
+        @Override
+        public void endAsyncSection(String name, int position, int itemPart, int cookie) {
+            ItemTrace.endAsyncSection(name, position, itemPart, cookie);
         }
     }
 
-    private static final class DisplayItemRunnable<Params, Result> implements Runnable {
-        private final ItemLoader<Params, Result> mItemLoader;
-        private final ItemRequest<Params, Result> mRequest;
-        private final boolean mFromMemory;
+    private static final class UptimeClock implements Clock {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    }
 
-        public DisplayItemRunnable(ItemLoader<Params, Result> itemLoader,
-                ItemRequest<Params, Result> request, boolean fromMemory) {
-            mItemLoader = itemLoader;
-            mRequest = request;
-            mFromMemory = fromMemory;
+    private static final class HandlerDispatcher implements Dispatcher {
+        private final Handler mHandler;
+
+        public HandlerDispatcher(Handler handler) {
+            mHandler = handler;
         }
 
         @Override
-        public void run() {
-            if (mItemLoader.itemViewReused(mRequest)) {
-                return;
-            }
+        public void post(Runnable r) {
+            mHandler.post(r);
+        }
 
-            // We should have set the result to a non-null value at this point
-            if (mRequest.result == null) {
-                throw new IllegalStateException("Result should not be null when displaying an item part");
-            }
+        @Override
+        public void postDelayed(Runnable r, long delay) {
+            mHandler.postDelayed(r, delay);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            mHandler.removeCallbacks(r);
+        }
 
-            // Simply bail if the view has been garbage collected
-            final View itemView = mRequest.itemView.get();
-            if (itemView == null) {
-                return;
+        @Override
+        public boolean isDispatchThread() {
+            return (Looper.myLooper() == mHandler.getLooper());
+        }
+    }
+
+    private final class ItemsExecutorFactory implements LoadExecutor.Factory {
+        @Override
+        @TargetApi(9)
+        public LoadExecutor createLoadExecutor(int maxRunningCount, int maximumPoolSize) {
+            final ItemsThreadPoolExecutor executorService = new ItemsThreadPoolExecutor(
+                    maxRunningCount, maximumPoolSize, 60, TimeUnit.SECONDS);
+
+            // Let idle threads go away instead of keeping a full pool
+            // around for each list.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+                executorService.allowCoreThreadTimeOut(true);
             }
 
-            // Deliver the result to display the item part
-            final Result result = mRequest.result.get();
-            mItemLoader.displayItemPart(itemView, result, mRequest.itemPart, mFromMemory);
+            return executorService;
+        }
+    }
+
+    private final class ItemsThreadPoolExecutor extends LoadThreadPoolExecutor {
+        public ItemsThreadPoolExecutor(int maxRunningCount, int maximumPoolSize,
+                long keepAliveTime, TimeUnit unit) {
+            super(maxRunningCount, maximumPoolSize, keepAliveTime, unit);
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable task) {
+            // Leave as much CPU as possible to the UI thread while
+            // it's dropping frames. See ItemManager.
+            Process.setThreadPriority(mScheduler.isThrottled() ?
+                    Process.THREAD_PRIORITY_LOWEST : Process.THREAD_PRIORITY_BACKGROUND);
+
+            super.beforeExecute(thread, task);
         }
     }
 }
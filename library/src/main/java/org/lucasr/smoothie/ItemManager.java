@@ -16,9 +16,38 @@
 
 package org.lucasr.smoothie;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.lucasr.smoothie.core.PreloadWindow;
+import org.lucasr.smoothie.core.ScrollRecorder;
+import org.lucasr.smoothie.core.ScrollVelocity;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Configuration;
+import android.graphics.Rect;
+import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnTouchListener;
@@ -27,6 +56,7 @@ import android.widget.AbsListView.OnScrollListener;
 import android.widget.Adapter;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
+import android.widget.GridView;
 import android.widget.ListAdapter;
 import android.widget.WrapperListAdapter;
 
@@ -51,8 +81,30 @@ import android.widget.WrapperListAdapter;
  * @author Lucas Rocha <lucasr@lucasr.org>
  */
 public final class ItemManager {
+    private static final String LOGTAG = "SmoothieItemManager";
+
     private static final int MESSAGE_UPDATE_ITEMS = 1;
+    private static final int MESSAGE_CHECK_FIRST_SCREEN = 2;
     private static final int DELAY_SHOW_ITEMS = 550;
+    private static final int DELAY_CHECK_FIRST_SCREEN = 16;
+
+    // Frame interval assumed until a shorter one is observed, and the
+    // shortest one considered plausible, in nanoseconds.
+    private static final long DEFAULT_FRAME_INTERVAL = 16666667;
+    private static final long MIN_FRAME_INTERVAL = 4000000;
+
+    // Preloading is restored one step at a time, once there's been
+    // no memory pressure for this long.
+    private static final long PRELOAD_RESTORE_DELAY = 10000;
+    private static final float MIN_PRELOAD_SCALE = 0.25f;
+
+    // All managers share the same UI thread handler, messages
+    // are tagged with their target manager.
+    private static Handler sHandler;
+    private static ExecutorService sWarmStartExecutor;
+
+    // Only used on the UI thread, see isOnScreen()
+    private static final Rect sVisibleRect = new Rect();
 
     private ItemManaged mManaged;
 
@@ -61,25 +113,368 @@ public final class ItemManager {
 
     private final boolean mPreloadItemsEnabled;
     private final int mPreloadItemsCount;
+    private final int mPreloadRowsCount;
     private long mLastPreloadTimestamp;
+    private final boolean mDeadlineSchedulingEnabled;
+
+    private final boolean mSynchronousMemoryHitsEnabled;
+
+    private final File mWarmStartFile;
+    private final long mCreationTime;
+    private boolean mFirstScreenDone;
 
     private int mScrollState;
     private boolean mPendingItemsUpdate;
     private boolean mFingerUp;
 
+    private final ScrollVelocity mScrollVelocity;
+
+    private final ScrollRecorder mScrollRecorder;
+
+    private final boolean mJankThrottlingEnabled;
+    private FrameMonitor mFrameMonitor;
+    private boolean mThrottled;
+
+    private final PrefetchCoordinator mPrefetchCoordinator;
+    private boolean mBackground;
+    private boolean mBackgroundThrottled;
+
+    private final boolean mTrimMemoryEnabled;
+    private TrimMemoryTracker mTrimMemoryTracker;
+    private float mPreloadScale;
+    private long mLastTrimMemoryTime;
+
+    private boolean mPaused;
+    private boolean mLoaderPaused;
+
+    private boolean mRetained;
+    private Object mDetachedRequests;
+
     private ItemManager(ItemLoader<?, ?> itemLoader, boolean preloadItemsEnabled,
-            int preloadItemsCount, int threadPoolSize) {
+            int preloadItemsCount, int preloadRowsCount, int threadPoolSize,
+            boolean synchronousMemoryHitsEnabled, File warmStartFile, int maxPendingRequests,
+            long failureTtl, int maxRetries, long loadDeadline, SparseArray<Long> partLoadDeadlines,
+            boolean hedgedLoadsEnabled, boolean deadlineSchedulingEnabled,
+            ScrollRecorder scrollRecorder, boolean jankThrottlingEnabled,
+            PrefetchCoordinator prefetchCoordinator, boolean trimMemoryEnabled) {
         mManaged = null;
+        mCreationTime = SystemClock.uptimeMillis();
 
-        mHandler = new ItemsListHandler();
+        mHandler = getSharedHandler();
         mItemLoader = itemLoader;
-        mItemLoader.init(mHandler, threadPoolSize);
+        mItemLoader.init(mHandler, threadPoolSize, maxPendingRequests, failureTtl, maxRetries,
+                loadDeadline, partLoadDeadlines, hedgedLoadsEnabled);
 
         mPreloadItemsEnabled = preloadItemsEnabled;
         mPreloadItemsCount = preloadItemsCount;
+        mPreloadRowsCount = preloadRowsCount;
         mLastPreloadTimestamp = SystemClock.uptimeMillis();
+        mDeadlineSchedulingEnabled = deadlineSchedulingEnabled;
+
+        mSynchronousMemoryHitsEnabled = synchronousMemoryHitsEnabled;
+
+        mWarmStartFile = warmStartFile;
+        mFirstScreenDone = false;
 
         mScrollState = OnScrollListener.SCROLL_STATE_IDLE;
+        mScrollVelocity = new ScrollVelocity();
+
+        mScrollRecorder = scrollRecorder;
+
+        // Frame callbacks are only available from Jelly Bean
+        mJankThrottlingEnabled = (jankThrottlingEnabled &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        mFrameMonitor = null;
+        mThrottled = false;
+
+        mPrefetchCoordinator = prefetchCoordinator;
+        mBackground = false;
+        mBackgroundThrottled = false;
+
+        // Memory trim callbacks are only available from Ice Cream Sandwich
+        mTrimMemoryEnabled = (trimMemoryEnabled &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH);
+        mTrimMemoryTracker = null;
+        mPreloadScale = 1;
+        mLastTrimMemoryTime = 0;
+
+        mPaused = false;
+        mLoaderPaused = false;
+
+        mRetained = false;
+        mDetachedRequests = null;
+
+        if (mWarmStartFile != null) {
+            startWarmStart();
+        }
+    }
+
+    /**
+     * Starts the background threads used to load items ahead of the first
+     * load request. Threads are otherwise only started when items actually
+     * need to be loaded. Call this method if you know items are about to be
+     * loaded e.g. right before showing a list that was off-screen.
+     */
+    public void prestartThreads() {
+        mItemLoader.prestartThreads();
+    }
+
+    /**
+     * Pauses item loading e.g. when your activity goes to the background
+     * while the list is still attached. Loads already running are allowed
+     * to finish, and their results are cached by the {@link ItemLoader}
+     * as usual. Pending requests are kept, in order, but not run until
+     * {@link #resume()} is called. If the loader is shared with other
+     * managers, it's paused as long as any of them is. This method must
+     * be called on the UI thread.
+     */
+    public void pause() {
+        if (mPaused) {
+            return;
+        }
+
+        mPaused = true;
+        setLoaderPaused(true);
+
+        if (mJankThrottlingEnabled) {
+            stopFrameMonitor();
+        }
+    }
+
+    /**
+     * Resumes item loading paused with {@link #pause()}. The pending
+     * requests are first checked against the current viewport: requests
+     * for items still on screen are refreshed, the ones for items that
+     * have gone away are cancelled. Items loaded while paused are
+     * displayed straight from memory. This method must be called on the
+     * UI thread.
+     */
+    public void resume() {
+        if (!mPaused) {
+            return;
+        }
+
+        mPaused = false;
+
+        if (mManaged != null) {
+            final AbsListView absListView = mManaged.getAbsListView();
+
+            final int count = absListView.getChildCount();
+            for (int i = 0; i < count; i++) {
+                mItemLoader.revalidateItem(absListView.getChildAt(i));
+            }
+        }
+
+        // Revalidate the queue before letting the loader run it
+        mHandler.removeMessages(MESSAGE_UPDATE_ITEMS, this);
+        updateItems();
+
+        setLoaderPaused(false);
+    }
+
+    /**
+     * @return Whether item loading is paused.
+     *
+     * @see #pause()
+     */
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    void setRetained(boolean retained) {
+        mRetained = retained;
+
+        // The activity is gone for good, don't keep requests
+        // around for a list that will never come back.
+        if (!mRetained && mDetachedRequests != null) {
+            mItemLoader.cancelDetachedRequests(mDetachedRequests);
+            mDetachedRequests = null;
+        }
+    }
+
+    private void setLoaderPaused(boolean paused) {
+        if (mLoaderPaused == paused) {
+            return;
+        }
+
+        mLoaderPaused = paused;
+        mItemLoader.setPaused(paused);
+    }
+
+    /**
+     * Reacts to memory pressure. Depending on the level, preloading is
+     * scaled down or paused, queued preload requests are cancelled, and
+     * the {@link ItemLoader} is asked to trim its caches through
+     * {@link ItemLoader#onTrimMemory(int)}. Preloading is gradually
+     * restored once there's been no memory pressure for a while. Levels
+     * sent while the UI is hidden only cancel the queued preloads.
+     * ItemManagers sharing a loader only trim it once per level.
+     *
+     * <p>This method is called automatically if memory trimming is
+     * enabled, see {@link Builder#setTrimMemoryEnabled(boolean)}.
+     * Otherwise, call it from your component's
+     * {@link ComponentCallbacks2#onTrimMemory(int)}. It must be called on
+     * the UI thread.</p>
+     *
+     * @param level - The context of the trim, one of the
+     *        {@code ComponentCallbacks2.TRIM_MEMORY_*} constants.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // The list is not visible anymore, nothing will be scrolled
+            // into view. Drop the queued preloads but leave the preload
+            // scale alone, there's no memory pressure to recover from
+            // once the app is back in the foreground.
+            mItemLoader.cancelPreloadRequests();
+        } else {
+            final float preloadScale = getPreloadScale(level);
+
+            mPreloadScale = Math.min(mPreloadScale, preloadScale);
+            mLastTrimMemoryTime = SystemClock.uptimeMillis();
+
+            if (preloadScale < 1) {
+                mItemLoader.cancelPreloadRequests();
+            }
+        }
+
+        mItemLoader.trimMemory(level);
+    }
+
+    private static float getPreloadScale(int level) {
+        // The app is in the foreground but about to start killing
+        // background processes
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0;
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return MIN_PRELOAD_SCALE;
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.5f;
+        }
+
+        return 1;
+    }
+
+    private void restorePreloadScale() {
+        if (mPreloadScale >= 1) {
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        if (now - mLastTrimMemoryTime < PRELOAD_RESTORE_DELAY) {
+            return;
+        }
+
+        mPreloadScale = (mPreloadScale == 0 ? MIN_PRELOAD_SCALE : Math.min(1, mPreloadScale * 2));
+        mLastTrimMemoryTime = now;
+    }
+
+    /**
+     * @return The load stats of this manager's {@link ItemLoader}. The stats
+     *         are shared by all managers using the same loader.
+     */
+    public LoadStats getLoadStats() {
+        return mItemLoader.getLoadStats();
+    }
+
+    private void startWarmStart() {
+        // Read the snapshot in the background so that the items start
+        // loading while the UI is still being inflated.
+        getWarmStartExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mWarmStartFile.exists()) {
+                    return;
+                }
+
+                try {
+                    final DataInputStream in = new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(mWarmStartFile)));
+
+                    try {
+                        mItemLoader.performWarmStart(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Log.w(LOGTAG, "Failed to read warm start snapshot", e);
+                }
+            }
+        });
+    }
+
+    private void saveWarmStartSnapshot() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            if (!mItemLoader.writeWarmStartSnapshot(mManaged.getAbsListView(),
+                    new DataOutputStream(bytes))) {
+                return;
+            }
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Failed to create warm start snapshot", e);
+            return;
+        }
+
+        final byte[] snapshot = bytes.toByteArray();
+
+        getWarmStartExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final File tempFile = new File(mWarmStartFile.getPath() + ".tmp");
+
+                try {
+                    final FileOutputStream os = new FileOutputStream(tempFile);
+                    try {
+                        os.write(snapshot);
+                    } finally {
+                        os.close();
+                    }
+
+                    if (!tempFile.renameTo(mWarmStartFile)) {
+                        tempFile.delete();
+                    }
+                } catch (IOException e) {
+                    Log.w(LOGTAG, "Failed to write warm start snapshot", e);
+                    tempFile.delete();
+                }
+            }
+        });
+    }
+
+    private void checkFirstScreen() {
+        if (mFirstScreenDone || mManaged == null) {
+            return;
+        }
+
+        mHandler.removeMessages(MESSAGE_CHECK_FIRST_SCREEN, this);
+
+        // The user didn't wait for the first screen, it's not
+        // meaningful anymore.
+        if (mScrollState != OnScrollListener.SCROLL_STATE_IDLE) {
+            mFirstScreenDone = true;
+            return;
+        }
+
+        final AbsListView absListView = mManaged.getAbsListView();
+        final int count = absListView.getChildCount();
+        if (count == 0) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!mItemLoader.isItemDisplayed(absListView.getChildAt(i))) {
+                final Message msg = mHandler.obtainMessage(MESSAGE_CHECK_FIRST_SCREEN, this);
+                mHandler.sendMessageDelayed(msg, DELAY_CHECK_FIRST_SCREEN);
+                return;
+            }
+        }
+
+        mFirstScreenDone = true;
+        mItemLoader.getLoadStats().setTimeToFirstFullScreen(SystemClock.uptimeMillis() - mCreationTime);
     }
 
     private void updateItems() {
@@ -96,6 +491,21 @@ public final class ItemManager {
             return;
         }
 
+        // Lists register with their coordinator on their first update
+        // after being attached.
+        if (mPrefetchCoordinator != null) {
+            mPrefetchCoordinator.register(this);
+        }
+
+        if (mTrimMemoryEnabled) {
+            registerTrimMemoryTracker(absListView.getContext());
+        }
+
+        // The loader is let go while detached, see cancelAllRequests()
+        if (mPaused) {
+            setLoaderPaused(true);
+        }
+
         long timestamp = SystemClock.uptimeMillis();
 
         // Perform display routine on each of the visible items
@@ -106,41 +516,255 @@ public final class ItemManager {
             mItemLoader.performDisplayItem(absListView, adapter, itemView, timestamp++);
         }
 
-        if (mPreloadItemsEnabled) {
+        if (count > 0) {
+            // The visible items have taken over their warm start requests
+            // at this point, the remaining ones are not needed anymore.
+            mItemLoader.cancelWarmStartRequests();
+            checkFirstScreen();
+        }
+
+        int preloadCount = 0;
+
+        // Preloads are paused while throttled. Pending ones are cancelled
+        // below as obsolete to free up the throttled threads.
+        if (mPreloadItemsEnabled && mThrottled) {
+            mItemLoader.getLoadStats().incrementPausedPreloadCount();
+        } else if (mPreloadItemsEnabled) {
             // Preload items beyond the visible viewport with a lower
             // request priority. See ItemLoader for details.
             final int lastFetchedPosition = absListView.getLastVisiblePosition() + 1;
             if (lastFetchedPosition > 0) {
                 final int adapterCount = adapter.getCount();
 
-                for (int i = lastFetchedPosition;
-                     i < lastFetchedPosition + mPreloadItemsCount && i < adapterCount;
-                     i++) {
-                    mItemLoader.performPreloadItem(absListView, adapter, i, timestamp++);
+                // Preloading is done in whole rows. All items in the same
+                // row share the same timestamp so that rows closer to the
+                // viewport are loaded first.
+                final int numColumns = getNumColumns(absListView);
+                final int preloadRowsCount = getPreloadRowsCount(numColumns);
+                final int lastPreloadPosition = PreloadWindow.getEndPosition(lastFetchedPosition,
+                        preloadRowsCount, numColumns, adapterCount);
+
+                final long now = SystemClock.uptimeMillis();
+
+                for (int i = lastFetchedPosition; i < lastPreloadPosition; i++) {
+                    final int row = PreloadWindow.getRow(lastFetchedPosition, i, numColumns);
+                    final long rowTimestamp = timestamp + row;
+                    final long rowDeadline = (mDeadlineSchedulingEnabled ?
+                            mScrollVelocity.estimateRowDeadline(now, row + 1) : 0);
+
+                    mItemLoader.performPreloadItem(absListView, adapter, i, rowTimestamp, rowDeadline);
                 }
+
+                timestamp += preloadRowsCount;
+                preloadCount = Math.max(0, lastPreloadPosition - lastFetchedPosition);
             }
         }
 
+        if (mScrollRecorder != null) {
+            mScrollRecorder.recordUpdate(SystemClock.uptimeMillis(),
+                    absListView.getFirstVisiblePosition(), absListView.getLastVisiblePosition(),
+                    preloadCount);
+        }
+
         // Cancel all pending item requests that haven't got their timestamps
         // updated in this round. In practice, this means requests for items
         // that are not relevant anymore for the current scroll position.
-        mItemLoader.cancelObsoleteRequests(mLastPreloadTimestamp);
+        final boolean traced = ItemTrace.beginSection("cancelObsoleteRequests");
+        try {
+            mItemLoader.cancelObsoleteRequests(absListView, mLastPreloadTimestamp);
+        } finally {
+            if (traced) {
+                ItemTrace.endSection();
+            }
+        }
         mLastPreloadTimestamp = timestamp;
 
         absListView.invalidate();
     }
 
+    private void updateScrollVelocity(AbsListView absListView, int firstVisibleItem, long now) {
+        final float position = getScrollPosition(absListView, firstVisibleItem);
+        if (position >= 0) {
+            mScrollVelocity.addPosition(now, position);
+        }
+    }
+
+    private static float getScrollPosition(AbsListView absListView, int firstVisibleItem) {
+        final View firstChild = absListView.getChildAt(0);
+        if (firstChild == null || firstChild.getHeight() == 0) {
+            return -1;
+        }
+
+        // Scroll position in rows, including the hidden part of the
+        // first visible row.
+        return firstVisibleItem / getNumColumns(absListView) +
+                (float) -firstChild.getTop() / firstChild.getHeight();
+    }
+
+    @TargetApi(14)
+    private void registerTrimMemoryTracker(Context context) {
+        if (mTrimMemoryTracker != null) {
+            return;
+        }
+
+        mTrimMemoryTracker = new TrimMemoryTracker(context.getApplicationContext());
+        mTrimMemoryTracker.register();
+    }
+
+    @TargetApi(14)
+    private void unregisterTrimMemoryTracker() {
+        if (mTrimMemoryTracker != null) {
+            mTrimMemoryTracker.unregister();
+            mTrimMemoryTracker = null;
+        }
+    }
+
+    @TargetApi(16)
+    private void startFrameMonitor() {
+        if (mFrameMonitor == null) {
+            mFrameMonitor = new FrameMonitor();
+        }
+
+        mFrameMonitor.start();
+    }
+
+    @TargetApi(16)
+    private void stopFrameMonitor() {
+        if (mFrameMonitor != null) {
+            mFrameMonitor.stop();
+        }
+
+        setThrottled(false);
+    }
+
+    private void onFramesMissed(int missedFrames) {
+        mItemLoader.getLoadStats().incrementMissedFrameCount(missedFrames);
+
+        if (!mThrottled) {
+            mItemLoader.getLoadStats().incrementThrottleCount();
+            setThrottled(true);
+        }
+    }
+
+    private void setThrottled(boolean throttled) {
+        if (mThrottled == throttled) {
+            return;
+        }
+
+        mThrottled = throttled;
+        mItemLoader.setThrottled(throttled);
+    }
+
+    private int getPreloadRowsCount(int numColumns) {
+        // Shrink the preload window under memory pressure
+        restorePreloadScale();
+        final int preloadRowsCount = (int) (mPreloadScale *
+                PreloadWindow.getRowsCount(mPreloadRowsCount, mPreloadItemsCount, numColumns));
+
+        if (mPrefetchCoordinator == null) {
+            return preloadRowsCount;
+        }
+
+        // Only preload as many whole rows as the shared budget allows
+        final int preloadItemsCount =
+                mPrefetchCoordinator.getPreloadItemsCount(this, preloadRowsCount * numColumns);
+        return preloadItemsCount / numColumns;
+    }
+
+    ItemLoader<?, ?> getItemLoader() {
+        return mItemLoader;
+    }
+
+    boolean isOnScreen() {
+        if (mManaged == null) {
+            return false;
+        }
+
+        // Pages of a ViewPager are laid out next to each other,
+        // off-screen ones are still shown.
+        final AbsListView absListView = mManaged.getAbsListView();
+        return (absListView.isShown() && absListView.getGlobalVisibleRect(sVisibleRect));
+    }
+
+    void setBackground(boolean background, boolean throttleLoader) {
+        final boolean backgroundThrottled = (background && throttleLoader);
+        if (mBackgroundThrottled != backgroundThrottled) {
+            mBackgroundThrottled = backgroundThrottled;
+            mItemLoader.setThrottled(backgroundThrottled);
+        }
+
+        if (mBackground == background) {
+            return;
+        }
+
+        mBackground = background;
+
+        // Run a round of item updates to demote or promote the pending
+        // requests, and to drop or restore the preloads.
+        if (mManaged != null) {
+            mItemLoader.setContainerDemoted(mManaged.getAbsListView(), background);
+            postUpdateItems();
+        }
+    }
+
+    @TargetApi(11)
+    private static int getNumColumns(AbsListView absListView) {
+        if (!(absListView instanceof GridView)) {
+            return 1;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            final int numColumns = ((GridView) absListView).getNumColumns();
+            if (numColumns > 0) {
+                return numColumns;
+            }
+        }
+
+        // GridView doesn't expose its number of columns before Honeycomb
+        // (or before the first layout with AUTO_FIT). Count the children
+        // laid out on the first row instead.
+        final int childCount = absListView.getChildCount();
+        if (childCount == 0) {
+            return 1;
+        }
+
+        final int firstRowTop = absListView.getChildAt(0).getTop();
+
+        int numColumns = 1;
+        while (numColumns < childCount && absListView.getChildAt(numColumns).getTop() == firstRowTop) {
+            numColumns++;
+        }
+
+        return numColumns;
+    }
+
     void postUpdateItems() {
         final Message msg = mHandler.obtainMessage(MESSAGE_UPDATE_ITEMS,
                                                    ItemManager.this);
 
-        mHandler.removeMessages(MESSAGE_UPDATE_ITEMS);
+        mHandler.removeMessages(MESSAGE_UPDATE_ITEMS, this);
         mPendingItemsUpdate = true;
 
         mHandler.sendMessage(msg);
     }
 
     void setItemManaged(ItemManaged itemManaged) {
+        if (mJankThrottlingEnabled) {
+            stopFrameMonitor();
+        }
+
+        if (mPrefetchCoordinator != null) {
+            mPrefetchCoordinator.unregister(this);
+        }
+
+        // Don't leak this manager through the application context
+        if (mTrimMemoryEnabled) {
+            unregisterTrimMemoryTracker();
+        }
+
+        // Don't hold up a shared loader from a list that's gone
+        setLoaderPaused(false);
+
         mManaged = itemManaged;
 
         if (mManaged != null) {
@@ -151,6 +775,18 @@ public final class ItemManager {
             absListView.setOnScrollListener(new ScrollManager());
             absListView.setOnTouchListener(new FingerTracker());
             absListView.setOnItemSelectedListener(new SelectionTracker());
+
+            // Loads for this list's items are logged along with its scrolls
+            if (mScrollRecorder != null) {
+                mItemLoader.setScrollRecorder(absListView, mScrollRecorder);
+            }
+
+            // Hand the requests kept from the list torn down by a
+            // configuration change over to the new one. See ItemManagerHolder.
+            if (mDetachedRequests != null) {
+                mItemLoader.attachRequestsToContainer(absListView, mDetachedRequests);
+                mDetachedRequests = null;
+            }
         }
     }
 
@@ -159,7 +795,56 @@ public final class ItemManager {
             throw new IllegalStateException("Cannot cancel requests with no managed view");
         }
 
-        mItemLoader.cancelRequestsForContainer(mManaged.getAbsListView());
+        if (mWarmStartFile != null) {
+            saveWarmStartSnapshot();
+        }
+
+        // The list might go away mid-scroll, don't leave the
+        // loader throttled.
+        if (mJankThrottlingEnabled) {
+            stopFrameMonitor();
+        }
+
+        if (mPrefetchCoordinator != null) {
+            mPrefetchCoordinator.unregister(this);
+        }
+
+        if (mTrimMemoryEnabled) {
+            unregisterTrimMemoryTracker();
+        }
+
+        // A paused list might never be resumed once detached e.g. when
+        // its activity is destroyed. Don't hold up a shared loader.
+        setLoaderPaused(false);
+
+        final AbsListView absListView = mManaged.getAbsListView();
+
+        // The activity is being recreated and a new list will take over
+        // this manager. Keep the requests going instead of loading the
+        // same items again.
+        if (mRetained && isChangingConfigurations(absListView.getContext())) {
+            mDetachedRequests = mItemLoader.detachRequestsFromContainer(absListView);
+            return;
+        }
+
+        mItemLoader.cancelRequestsForContainer(absListView);
+    }
+
+    @TargetApi(11)
+    private static boolean isChangingConfigurations(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return false;
+        }
+
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return ((Activity) context).isChangingConfigurations();
+            }
+
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+
+        return false;
     }
 
     void loadItem(View itemContainer, View itemView, int position) {
@@ -172,7 +857,15 @@ public final class ItemManager {
         // This runs on each Adapter.getView() call. Will only trigger an
         // actual item loading request if the view is not being flung or finger
         // is down scrolling the view.
-        mItemLoader.performLoadItem(itemContainer, itemView, adapter, position, shouldDisplayItem);
+        final boolean traced = ItemTrace.beginSection("performLoadItem", position);
+        try {
+            mItemLoader.performLoadItem(itemContainer, itemView, adapter, position, shouldDisplayItem,
+                    mSynchronousMemoryHitsEnabled);
+        } finally {
+            if (traced) {
+                ItemTrace.endSection();
+            }
+        }
     }
 
     private class ScrollManager implements AbsListView.OnScrollListener {
@@ -187,7 +880,7 @@ public final class ItemManager {
                 final Message msg = mHandler.obtainMessage(MESSAGE_UPDATE_ITEMS,
                                                            ItemManager.this);
 
-                mHandler.removeMessages(MESSAGE_UPDATE_ITEMS);
+                mHandler.removeMessages(MESSAGE_UPDATE_ITEMS, ItemManager.this);
 
                 final int delay = (mFingerUp ? 0 : DELAY_SHOW_ITEMS);
                 mHandler.sendMessageDelayed(msg, delay);
@@ -195,11 +888,31 @@ public final class ItemManager {
                 mPendingItemsUpdate = true;
             } else if (scrollState == SCROLL_STATE_FLING) {
                 mPendingItemsUpdate = false;
-                mHandler.removeMessages(MESSAGE_UPDATE_ITEMS);
+                mHandler.removeMessages(MESSAGE_UPDATE_ITEMS, ItemManager.this);
             }
 
             mScrollState = scrollState;
 
+            // The update after a fling runs once the list is idle, the
+            // velocity is kept for its preload deadlines. See ScrollVelocity.
+            if (scrollState == SCROLL_STATE_IDLE) {
+                mScrollVelocity.stop();
+            }
+
+            // Watch for missed frames while scrolling, and restore
+            // full speed loading once the list is idle.
+            if (mJankThrottlingEnabled) {
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    stopFrameMonitor();
+                } else {
+                    startFrameMonitor();
+                }
+            }
+
+            if (mScrollRecorder != null) {
+                mScrollRecorder.recordScrollState(SystemClock.uptimeMillis(), scrollState);
+            }
+
             final OnScrollListener l = mManaged.getOnScrollListener();
             if (l != null) {
                 l.onScrollStateChanged(view, scrollState);
@@ -209,6 +922,19 @@ public final class ItemManager {
         @Override
         public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
                 int totalItemCount) {
+            final long now = SystemClock.uptimeMillis();
+
+            if (mDeadlineSchedulingEnabled && mScrollState != SCROLL_STATE_IDLE) {
+                updateScrollVelocity(view, firstVisibleItem, now);
+            }
+
+            if (mScrollRecorder != null) {
+                final float position = getScrollPosition(view, firstVisibleItem);
+                if (position >= 0) {
+                    mScrollRecorder.recordScroll(now, position);
+                }
+            }
+
             final OnScrollListener l = mManaged.getOnScrollListener();
             if (l != null) {
                 l.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
@@ -216,6 +942,94 @@ public final class ItemManager {
         }
     }
 
+    @TargetApi(16)
+    private class FrameMonitor implements Choreographer.FrameCallback {
+        private long mLastFrameTime;
+        private long mFrameInterval;
+        private boolean mRunning;
+
+        public FrameMonitor() {
+            mLastFrameTime = 0;
+            mFrameInterval = DEFAULT_FRAME_INTERVAL;
+            mRunning = false;
+        }
+
+        public void start() {
+            if (mRunning) {
+                return;
+            }
+
+            mRunning = true;
+            mLastFrameTime = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        public void stop() {
+            if (!mRunning) {
+                return;
+            }
+
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+
+            if (mLastFrameTime > 0) {
+                final long interval = frameTimeNanos - mLastFrameTime;
+
+                // The shortest interval seen so far is the display's
+                // refresh period.
+                if (interval >= MIN_FRAME_INTERVAL) {
+                    mFrameInterval = Math.min(mFrameInterval, interval);
+                }
+
+                final int missedFrames = (int) ((interval + mFrameInterval / 2) / mFrameInterval) - 1;
+                if (missedFrames > 0) {
+                    onFramesMissed(missedFrames);
+                }
+            }
+
+            mLastFrameTime = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @TargetApi(14)
+    private class TrimMemoryTracker implements ComponentCallbacks2 {
+        private final Context mContext;
+
+        public TrimMemoryTracker(Context context) {
+            mContext = context;
+        }
+
+        public void register() {
+            mContext.registerComponentCallbacks(this);
+        }
+
+        public void unregister() {
+            mContext.unregisterComponentCallbacks(this);
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            ItemManager.this.onTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            ItemManager.this.onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    }
+
     private class FingerTracker implements OnTouchListener {
         @Override
         public boolean onTouch(View view, MotionEvent event) {
@@ -224,6 +1038,15 @@ public final class ItemManager {
             mFingerUp = (action == MotionEvent.ACTION_UP ||
                          action == MotionEvent.ACTION_CANCEL);
 
+            if (mScrollRecorder != null && (mFingerUp || action == MotionEvent.ACTION_DOWN)) {
+                mScrollRecorder.recordTouch(event.getEventTime(), !mFingerUp);
+            }
+
+            // The list being touched is the one the user is looking at
+            if (mPrefetchCoordinator != null && action == MotionEvent.ACTION_DOWN) {
+                mPrefetchCoordinator.setForeground(ItemManager.this);
+            }
+
             // If finger is up and view is not flinging, trigger a new round
             // of item updates.
             if (mFingerUp && mScrollState != OnScrollListener.SCROLL_STATE_FLING) {
@@ -262,13 +1085,63 @@ public final class ItemManager {
         }
     }
 
+    private static Handler getSharedHandler() {
+        if (sHandler == null) {
+            sHandler = new ItemsListHandler();
+        }
+
+        return sHandler;
+    }
+
+    private static ExecutorService getWarmStartExecutor() {
+        // Snapshots of all managers are read and written on the same
+        // thread, in order.
+        if (sWarmStartExecutor == null) {
+            sWarmStartExecutor = Executors.newSingleThreadExecutor(new WarmStartThreadFactory());
+        }
+
+        return sWarmStartExecutor;
+    }
+
+    private static final class WarmStartThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "SmoothieWarmStart");
+
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     private static class ItemsListHandler extends Handler {
+        public ItemsListHandler() {
+            super(Looper.getMainLooper());
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MESSAGE_UPDATE_ITEMS:
                     final ItemManager smoothie = (ItemManager) msg.obj;
-                    smoothie.updateItems();
+
+                    final boolean traced = ItemTrace.beginSection("updateItems");
+                    try {
+                        smoothie.updateItems();
+                    } finally {
+                        if (traced) {
+                            ItemTrace.endSection();
+                        }
+                    }
+                    break;
+
+                case MESSAGE_CHECK_FIRST_SCREEN:
+                    ((ItemManager) msg.obj).checkFirstScreen();
                     break;
             }
         }
@@ -283,13 +1156,37 @@ public final class ItemManager {
     public final static class Builder {
         private static final boolean DEFAULT_PRELOAD_ITEMS_ENABLED = false;
         private static final int DEFAULT_PRELOAD_ITEMS_COUNT = 4;
+        private static final int DEFAULT_PRELOAD_ROWS_COUNT = 0;
         private static final int DEFAULT_THREAD_POOL_SIZE = 2;
+        private static final boolean DEFAULT_SYNCHRONOUS_MEMORY_HITS_ENABLED = false;
+        private static final int DEFAULT_MAX_PENDING_REQUESTS = 0;
+        private static final long DEFAULT_FAILURE_TTL = 0;
+        private static final int DEFAULT_MAX_RETRIES = 0;
+        private static final long DEFAULT_LOAD_DEADLINE = 0;
+        private static final boolean DEFAULT_HEDGED_LOADS_ENABLED = false;
+        private static final boolean DEFAULT_DEADLINE_SCHEDULING_ENABLED = false;
+        private static final boolean DEFAULT_JANK_THROTTLING_ENABLED = false;
+        private static final boolean DEFAULT_TRIM_MEMORY_ENABLED = false;
 
         private final ItemLoader<?, ?> mItemLoader;
 
         private boolean mPreloadItemsEnabled;
         private int mPreloadItemsCount;
+        private int mPreloadRowsCount;
         private int mThreadPoolSize;
+        private boolean mSynchronousMemoryHitsEnabled;
+        private File mWarmStartFile;
+        private int mMaxPendingRequests;
+        private long mFailureTtl;
+        private int mMaxRetries;
+        private long mLoadDeadline;
+        private final SparseArray<Long> mPartLoadDeadlines;
+        private boolean mHedgedLoadsEnabled;
+        private boolean mDeadlineSchedulingEnabled;
+        private ScrollRecorder mScrollRecorder;
+        private boolean mJankThrottlingEnabled;
+        private PrefetchCoordinator mPrefetchCoordinator;
+        private boolean mTrimMemoryEnabled;
 
         /**
          * @param itemLoader - Your {@link ItemLoader} subclass implementation.
@@ -299,7 +1196,21 @@ public final class ItemManager {
 
             mPreloadItemsEnabled = DEFAULT_PRELOAD_ITEMS_ENABLED;
             mPreloadItemsCount = DEFAULT_PRELOAD_ITEMS_COUNT;
+            mPreloadRowsCount = DEFAULT_PRELOAD_ROWS_COUNT;
             mThreadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+            mSynchronousMemoryHitsEnabled = DEFAULT_SYNCHRONOUS_MEMORY_HITS_ENABLED;
+            mWarmStartFile = null;
+            mMaxPendingRequests = DEFAULT_MAX_PENDING_REQUESTS;
+            mFailureTtl = DEFAULT_FAILURE_TTL;
+            mMaxRetries = DEFAULT_MAX_RETRIES;
+            mLoadDeadline = DEFAULT_LOAD_DEADLINE;
+            mPartLoadDeadlines = new SparseArray<Long>();
+            mHedgedLoadsEnabled = DEFAULT_HEDGED_LOADS_ENABLED;
+            mDeadlineSchedulingEnabled = DEFAULT_DEADLINE_SCHEDULING_ENABLED;
+            mScrollRecorder = null;
+            mJankThrottlingEnabled = DEFAULT_JANK_THROTTLING_ENABLED;
+            mPrefetchCoordinator = null;
+            mTrimMemoryEnabled = DEFAULT_TRIM_MEMORY_ENABLED;
         }
 
         /**
@@ -319,7 +1230,8 @@ public final class ItemManager {
 
         /**
          * Sets the maximum number of offscreen items to be preloaded after
-         * the visible items finish loading. Defaults to
+         * the visible items finish loading. On an {@link AsyncGridView}, the
+         * count is rounded up to whole rows. Defaults to
          * {@value #DEFAULT_PRELOAD_ITEMS_COUNT}.
          *
          * @param preloadItemsCount - Number of offscreen items to preload.
@@ -332,6 +1244,23 @@ public final class ItemManager {
             return this;
         }
 
+        /**
+         * Sets the number of offscreen rows to be preloaded after the visible
+         * items finish loading. On an {@link AsyncListView}, a row is a single
+         * item. On an {@link AsyncGridView}, all items of a row are preloaded
+         * together. Overrides {@link #setPreloadItemsCount(int)} when set to a
+         * positive value. Defaults to {@value #DEFAULT_PRELOAD_ROWS_COUNT}.
+         *
+         * @param preloadRowsCount - Number of offscreen rows to preload.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setPreloadRowsCount(int preloadRowsCount) {
+            mPreloadRowsCount = preloadRowsCount;
+            return this;
+        }
+
         /**
          * Sets the number of background threads available to asynchronously
          * load items in the target view. Defaults to
@@ -349,12 +1278,273 @@ public final class ItemManager {
         }
 
         /**
+         * Sets whether items that are already in memory should be displayed
+         * synchronously from the Adapter's
+         * {@link android.widget.Adapter#getView(int, View, android.view.ViewGroup) getView()}
+         * call, before the item view is returned. This avoids drawing cached
+         * items empty for one frame. Defaults to
+         * {@value #DEFAULT_SYNCHRONOUS_MEMORY_HITS_ENABLED}.
+         *
+         * @param synchronousMemoryHitsEnabled - {@code true} to display memory
+         *        hits synchronously.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setSynchronousMemoryHitsEnabled(boolean synchronousMemoryHitsEnabled) {
+            mSynchronousMemoryHitsEnabled = synchronousMemoryHitsEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of item requests waiting for a background
+         * thread. Once the limit is reached, pending preload requests are
+         * dropped first, the oldest ones first, then the oldest requests
+         * for visible items. Dropped visible items are requested again on
+         * the next round of item updates. A value of 0 means no limit.
+         * Defaults to {@value #DEFAULT_MAX_PENDING_REQUESTS}.
+         *
+         * @param maxPendingRequests - Maximum number of pending requests.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         *
+         * @see LoadStats#getShedRequestCount()
+         */
+        public Builder setMaxPendingRequests(int maxPendingRequests) {
+            mMaxPendingRequests = maxPendingRequests;
+            return this;
+        }
+
+        /**
+         * Sets how long, in milliseconds, a failed item part load is
+         * remembered. A load fails when
+         * {@link ItemLoader#loadItemPart(Object, int)} returns {@code null}.
+         * While a failure is remembered, the item part is not preloaded and
+         * visible requests for it are retried with an exponential backoff.
+         * Only enable it if your loader never returns {@code null} for
+         * items that legitimately have no data e.g. rows with no image,
+         * as these would be retried too. A value of 0 disables failure
+         * tracking. Defaults to {@value #DEFAULT_FAILURE_TTL}.
+         *
+         * @param failureTtl - Time to remember failures for, in milliseconds.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setFailureTtl(long failureTtl) {
+            mFailureTtl = failureTtl;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of consecutive retries for visible item
+         * parts that failed to load. Retries are delayed by one second,
+         * doubled after each failure. Once out of retries, the item part is
+         * displayed with a {@code null} result until the failure expires.
+         * Defaults to {@value #DEFAULT_MAX_RETRIES}.
+         *
+         * @param maxRetries - Maximum number of retries.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         *
+         * @see #setFailureTtl(long)
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the time after which a running item part load is abandoned.
+         * The loading thread is interrupted and replaced so that a stuck
+         * load doesn't hold up the rest of the queue. Abandoned loads count
+         * as failures. A value of 0 disables deadlines. Defaults to
+         * {@value #DEFAULT_LOAD_DEADLINE}.
+         *
+         * @param loadDeadline - Maximum load time, in milliseconds.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         *
+         * @see #setLoadDeadline(int, long)
+         */
+        public Builder setLoadDeadline(long loadDeadline) {
+            mLoadDeadline = loadDeadline;
+            return this;
+        }
+
+        /**
+         * Sets the time after which a running load for the given item part
+         * is abandoned, overriding the value set with
+         * {@link #setLoadDeadline(long)} for that part.
+         *
+         * @param itemPart - The item part.
+         * @param loadDeadline - Maximum load time, in milliseconds.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setLoadDeadline(int itemPart, long loadDeadline) {
+            mPartLoadDeadlines.put(itemPart, loadDeadline);
+            return this;
+        }
+
+        /**
+         * Sets whether slow loads for visible items should be hedged. When
+         * a load takes longer than 95% of the recent loads for the same item
+         * part, a second load is started for the item and the first one to
+         * finish is displayed. Defaults to
+         * {@value #DEFAULT_HEDGED_LOADS_ENABLED}.
+         *
+         * @param hedgedLoadsEnabled - {@code true} to enable hedged loads.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setHedgedLoadsEnabled(boolean hedgedLoadsEnabled) {
+            mHedgedLoadsEnabled = hedgedLoadsEnabled;
+            return this;
+        }
+
+        /**
+         * Sets whether preload requests should be scheduled earliest
+         * deadline first. Each preloaded row gets a deadline estimated from
+         * its distance to the viewport and the recent scroll velocity, and
+         * rows due sooner are loaded first, across all item parts and all
+         * lists sharing the same {@link ItemLoader}. Otherwise, preload
+         * requests are ordered by item part, then by distance to the
+         * viewport. Defaults to {@value #DEFAULT_DEADLINE_SCHEDULING_ENABLED}.
+         *
+         * @param deadlineSchedulingEnabled - {@code true} to enable deadline
+         *        scheduling.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setDeadlineSchedulingEnabled(boolean deadlineSchedulingEnabled) {
+            mDeadlineSchedulingEnabled = deadlineSchedulingEnabled;
+            return this;
+        }
+
+        /**
+         * Sets whether background loading should be throttled when frames
+         * are missed while scrolling. Once a frame is missed, half as many
+         * loads run at once and at the lowest thread priority, and items
+         * are not preloaded, until the list stops scrolling. Only
+         * supported on Jelly Bean and later. Defaults to
+         * {@value #DEFAULT_JANK_THROTTLING_ENABLED}.
+         *
+         * @param jankThrottlingEnabled - {@code true} to enable throttling.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         *
+         * @see LoadStats#getThrottleCount()
+         */
+        public Builder setJankThrottlingEnabled(boolean jankThrottlingEnabled) {
+            mJankThrottlingEnabled = jankThrottlingEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the coordinator to share the preload budget with other
+         * managers e.g. the ones of the other pages in a
+         * {@code ViewPager}. The preload count set on this builder is then
+         * an upper bound. Disabled by default.
+         *
+         * @param prefetchCoordinator - The prefetch coordinator, {@code null}
+         *        to preload independently from other managers.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setPrefetchCoordinator(PrefetchCoordinator prefetchCoordinator) {
+            mPrefetchCoordinator = prefetchCoordinator;
+            return this;
+        }
+
+        /**
+         * Sets whether the {@link ItemManager} should react to memory
+         * pressure on its own. It listens to the application's memory trim
+         * callbacks while its view is attached. See
+         * {@link ItemManager#onTrimMemory(int)}. Only supported on Ice
+         * Cream Sandwich and later. Defaults to
+         * {@value #DEFAULT_TRIM_MEMORY_ENABLED}.
+         *
+         * @param trimMemoryEnabled - {@code true} to enable memory trimming.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setTrimMemoryEnabled(boolean trimMemoryEnabled) {
+            mTrimMemoryEnabled = trimMemoryEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the file to persist the visible items in when the target view
+         * is detached. On the next launch, the persisted items start loading
+         * as soon as the {@link ItemManager} is created, before the view is
+         * laid out. Your {@link ItemLoader} has to implement
+         * {@link ItemLoader#writeItemParams(Object, java.io.DataOutput)} and
+         * {@link ItemLoader#readItemParams(java.io.DataInput)}. Disabled by
+         * default.
+         *
+         * @param warmStartFile - The warm start snapshot file, {@code null}
+         *        to disable warm starts.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setWarmStartFile(File warmStartFile) {
+            mWarmStartFile = warmStartFile;
+            return this;
+        }
+
+        /**
+         * Sets the recorder to log scroll positions, scroll state changes,
+         * touches, item updates and the item loads they trigger into. The log can later be dumped with
+         * {@link ScrollRecorder#writeTo(java.io.OutputStream)} for offline
+         * analysis or replay in the simulator. Disabled by default.
+         *
+         * @param scrollRecorder - The scroll recorder, {@code null} to
+         *        disable recording.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setScrollRecorder(ScrollRecorder scrollRecorder) {
+            mScrollRecorder = scrollRecorder;
+            return this;
+        }
+
+        /**
+         * Builds the manager. Managers sharing an {@link ItemLoader} must
+         * be built with the same thread pool size, maximum pending
+         * requests, failure TTL, maximum retries, load deadlines and
+         * hedged loads setting, as these are applied to the loader.
+         *
          * @return A new {@link ItemManager} created with the arguments
          *         supplied to this builder.
+         *
+         * @throws IllegalStateException If the loader is already used by
+         *         a manager built with different loader settings.
          */
         public ItemManager build() {
+            // Don't share the deadlines with managers built later on
+            final SparseArray<Long> partLoadDeadlines = new SparseArray<Long>();
+            for (int i = 0; i < mPartLoadDeadlines.size(); i++) {
+                partLoadDeadlines.put(mPartLoadDeadlines.keyAt(i), mPartLoadDeadlines.valueAt(i));
+            }
+
             return new ItemManager(mItemLoader, mPreloadItemsEnabled,
-                    mPreloadItemsCount, mThreadPoolSize);
+                    mPreloadItemsCount, mPreloadRowsCount, mThreadPoolSize,
+                    mSynchronousMemoryHitsEnabled, mWarmStartFile, mMaxPendingRequests,
+                    mFailureTtl, mMaxRetries, mLoadDeadline, partLoadDeadlines,
+                    mHedgedLoadsEnabled, mDeadlineSchedulingEnabled, mScrollRecorder,
+                    mJankThrottlingEnabled, mPrefetchCoordinator, mTrimMemoryEnabled);
         }
     }
 }
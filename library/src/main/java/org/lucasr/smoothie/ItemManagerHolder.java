@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.os.Bundle;
+
+/**
+ * <p>{@code ItemManagerHolder} keeps {@link ItemManager}s, and their
+ * {@link ItemLoader}s, alive across configuration changes e.g. screen
+ * rotations. It's a headless fragment retained by the activity.</p>
+ *
+ * <p>Without it, the list cancels all of its requests when the old
+ * activity goes away, and the new activity loads its first screen from
+ * scratch. A retained manager instead keeps its pending and running
+ * requests going while the activity is recreated, and hands them over to
+ * the new list once it's set up with the same manager. Requests are
+ * matched to the new item views by position and part, items loaded in
+ * the meantime are displayed straight from the loader's memory
+ * cache.</p>
+ *
+ * <p>As they outlive the activity, retained loaders must not hold on to
+ * it. Use the application context instead. The manager and its loader
+ * are only created through the given {@link Factory} the first time,
+ * later activities get the retained ones. An example call from
+ * {@code Activity.onCreate()}:</p>
+ *
+ * <pre>
+ * ItemManager itemManager = ItemManagerHolder.obtain(this, "list", new ItemManagerHolder.Factory() {
+ *     public ItemManager createItemManager() {
+ *         ItemManager.Builder builder = new ItemManager.Builder(new YourItemLoader(getApplicationContext()));
+ *         builder.setPreloadItemsEnabled(true).setPreloadItemsCount(10);
+ *         return builder.build();
+ *     }
+ * });
+ *
+ * listView.setItemManager(itemManager);
+ * </pre>
+ *
+ * <p>Only supported on Honeycomb and later.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+@TargetApi(11)
+public final class ItemManagerHolder extends Fragment {
+    private static final String FRAGMENT_TAG = "org.lucasr.smoothie.ItemManagerHolder";
+
+    private final Map<String, ItemManager> mItemManagers;
+
+    /**
+     * Creates the {@link ItemManager} to be retained by
+     * {@link ItemManagerHolder#obtain(Activity, String, Factory)}.
+     */
+    public interface Factory {
+        /**
+         * Called on the UI thread when there's no manager retained
+         * under the requested key yet.
+         *
+         * @return A new manager, along with its {@link ItemLoader}.
+         */
+        ItemManager createItemManager();
+    }
+
+    public ItemManagerHolder() {
+        mItemManagers = new HashMap<String, ItemManager>();
+    }
+
+    /**
+     * Returns the manager retained under the given key in the given
+     * activity. If there's none yet, one is created with the given factory
+     * and retained. This method must be called on the UI thread.
+     *
+     * @param activity - The activity to retain the manager in.
+     * @param key - The key identifying the manager within the activity
+     *        e.g. one per list.
+     * @param factory - The factory to create the manager with, only called
+     *        if there's no manager retained under the given key yet.
+     *
+     * @return The retained manager.
+     */
+    public static ItemManager obtain(Activity activity, String key, Factory factory) {
+        final ItemManagerHolder holder = getHolder(activity);
+
+        ItemManager itemManager = holder.mItemManagers.get(key);
+        if (itemManager == null) {
+            itemManager = factory.createItemManager();
+            itemManager.setRetained(true);
+            holder.mItemManagers.put(key, itemManager);
+        }
+
+        return itemManager;
+    }
+
+    private static ItemManagerHolder getHolder(Activity activity) {
+        final FragmentManager fm = activity.getFragmentManager();
+
+        ItemManagerHolder holder = (ItemManagerHolder) fm.findFragmentByTag(FRAGMENT_TAG);
+        if (holder == null) {
+            holder = new ItemManagerHolder();
+            fm.beginTransaction().add(holder, FRAGMENT_TAG).commit();
+
+            // Make the holder visible to the next obtain() call
+            fm.executePendingTransactions();
+        }
+
+        return holder;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        // The activity is finishing for good, let the lists cancel
+        // their requests once detached.
+        for (ItemManager itemManager : mItemManagers.values()) {
+            itemManager.setRetained(false);
+        }
+
+        mItemManagers.clear();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * <p>{@code ItemTrace} emits systrace sections around the item loading
+ * and display pipeline: item update rounds, {@code getView()} load
+ * requests, obsolete request cancellations, and each item part load and
+ * display, tagged with the item position and part. Each load is also
+ * traced as an asynchronous slice from the moment it's queued until its
+ * result is delivered, so that the whole lifecycle of an item shows up
+ * on a systrace or Perfetto timeline.</p>
+ *
+ * <p>Tracing is disabled by default and requires API level 18 or later.
+ * Asynchronous slices rely on hidden platform methods before API level 29
+ * and are silently skipped if those are not available. Enable it with
+ * {@link #setEnabled(boolean)}, e.g. in debug builds only.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class ItemTrace {
+    private static final String SECTION_PREFIX = "Smoothie:";
+
+    // Trace.TRACE_TAG_APP, hidden before API level 29
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    private static volatile boolean sEnabled = false;
+
+    private static final AtomicInteger sNextCookie = new AtomicInteger(1);
+
+    private static boolean sAsyncMethodsResolved = false;
+    private static Method sBeginAsyncMethod;
+    private static Method sEndAsyncMethod;
+    private static boolean sAsyncMethodsTagged;
+
+    private ItemTrace() {
+    }
+
+    /**
+     * Sets whether trace sections should be emitted. Sections are only
+     * recorded while a trace is being captured.
+     *
+     * @param enabled - {@code true} to enable tracing.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return Whether tracing is enabled and supported on this device.
+     */
+    public static boolean isEnabled() {
+        return (sEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2);
+    }
+
+    /**
+     * Begins a section on the calling thread. Only call
+     * {@link #endSection()} if this method returned {@code true}.
+     */
+    static boolean beginSection(String name) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        traceBeginSection(SECTION_PREFIX + name);
+        return true;
+    }
+
+    /**
+     * Begins a section tagged with an item position on the calling
+     * thread. Only call {@link #endSection()} if this method returned
+     * {@code true}.
+     */
+    static boolean beginSection(String name, int position) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        traceBeginSection(SECTION_PREFIX + name + " pos=" + position);
+        return true;
+    }
+
+    /**
+     * Begins a section tagged with an item position and part on the
+     * calling thread. Only call {@link #endSection()} if this method
+     * returned {@code true}.
+     */
+    static boolean beginSection(String name, int position, int itemPart) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        traceBeginSection(getSectionName(name, position, itemPart));
+        return true;
+    }
+
+    static void endSection() {
+        traceEndSection();
+    }
+
+    /**
+     * Begins an asynchronous slice tagged with an item position and part.
+     * It can be ended on any thread.
+     *
+     * @return The cookie to end the slice with, or 0 if it's not traced.
+     */
+    static int beginAsyncSection(String name, int position, int itemPart) {
+        if (!isEnabled() || !resolveAsyncMethods()) {
+            return 0;
+        }
+
+        int cookie = sNextCookie.getAndIncrement();
+        if (cookie == 0) {
+            cookie = sNextCookie.getAndIncrement();
+        }
+
+        invokeAsyncMethod(sBeginAsyncMethod, getSectionName(name, position, itemPart), cookie);
+        return cookie;
+    }
+
+    static void endAsyncSection(String name, int position, int itemPart, int cookie) {
+        if (cookie == 0 || !resolveAsyncMethods()) {
+            return;
+        }
+
+        invokeAsyncMethod(sEndAsyncMethod, getSectionName(name, position, itemPart), cookie);
+    }
+
+    private static String getSectionName(String name, int position, int itemPart) {
+        return SECTION_PREFIX + name + " pos=" + position + " part=" + itemPart;
+    }
+
+    @TargetApi(18)
+    private static void traceBeginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(18)
+    private static void traceEndSection() {
+        Trace.endSection();
+    }
+
+    private static synchronized boolean resolveAsyncMethods() {
+        if (sAsyncMethodsResolved) {
+            return (sBeginAsyncMethod != null);
+        }
+
+        sAsyncMethodsResolved = true;
+
+        try {
+            // Public since API level 29
+            sBeginAsyncMethod = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+            sEndAsyncMethod = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+            sAsyncMethodsTagged = false;
+        } catch (NoSuchMethodException e) {
+            try {
+                sBeginAsyncMethod = Trace.class.getMethod("asyncTraceBegin", long.class, String.class,
+                        int.class);
+                sEndAsyncMethod = Trace.class.getMethod("asyncTraceEnd", long.class, String.class,
+                        int.class);
+                sAsyncMethodsTagged = true;
+            } catch (NoSuchMethodException e2) {
+                sBeginAsyncMethod = null;
+                sEndAsyncMethod = null;
+            }
+        }
+
+        return (sBeginAsyncMethod != null);
+    }
+
+    private static void invokeAsyncMethod(Method method, String name, int cookie) {
+        try {
+            if (sAsyncMethodsTagged) {
+                method.invoke(null, TRACE_TAG_APP, name, cookie);
+            } else {
+                method.invoke(null, name, cookie);
+            }
+        } catch (Exception e) {
+            // Tracing is best effort, never break loading because of it
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie;
+
+import org.lucasr.smoothie.core.RequestStats;
+
+/**
+ * {@code LoadStats} holds counters about the item requests handled by an
+ * {@link ItemLoader}. They're shared by all {@link ItemManager}s using the
+ * same loader and can be retrieved with {@link ItemManager#getLoadStats()}.
+ * The request counters are kept by the loader's
+ * {@link org.lucasr.smoothie.core.LoadScheduler}, see {@link RequestStats}.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class LoadStats {
+    private final RequestStats mRequestStats;
+    private long mTimeToFirstFullScreen;
+    private int mMissedFrameCount;
+    private int mThrottleCount;
+    private int mPausedPreloadCount;
+
+    LoadStats(RequestStats requestStats) {
+        mRequestStats = requestStats;
+        mTimeToFirstFullScreen = -1;
+        mMissedFrameCount = 0;
+        mThrottleCount = 0;
+        mPausedPreloadCount = 0;
+    }
+
+    synchronized void setTimeToFirstFullScreen(long timeToFirstFullScreen) {
+        // Only the first screen of the first list counts
+        if (mTimeToFirstFullScreen < 0) {
+            mTimeToFirstFullScreen = timeToFirstFullScreen;
+        }
+    }
+
+    synchronized void incrementMissedFrameCount(int count) {
+        mMissedFrameCount += count;
+    }
+
+    synchronized void incrementThrottleCount() {
+        mThrottleCount++;
+    }
+
+    synchronized void incrementPausedPreloadCount() {
+        mPausedPreloadCount++;
+    }
+
+    /**
+     * @return The time in milliseconds between the creation of the first
+     *         {@link ItemManager} and all items on its first screen being
+     *         displayed, or -1 if it hasn't happened yet or if the user
+     *         scrolled before the first screen was complete.
+     */
+    public synchronized long getTimeToFirstFullScreen() {
+        return mTimeToFirstFullScreen;
+    }
+
+    /**
+     * @return The number of item part requests restored from a warm start
+     *         snapshot.
+     *
+     * @see ItemManager.Builder#setWarmStartFile(java.io.File)
+     */
+    public int getWarmStartRequestCount() {
+        return mRequestStats.getWarmStartRequestCount();
+    }
+
+    /**
+     * @return The number of warm start requests that were still pending when
+     *         their item was displayed, and were taken over by the item's
+     *         request instead of loading the item again.
+     */
+    public int getWarmStartAdoptedCount() {
+        return mRequestStats.getWarmStartAdoptedCount();
+    }
+
+    /**
+     * @return The number of pending requests dropped because the request
+     *         queue was full.
+     *
+     * @see ItemManager.Builder#setMaxPendingRequests(int)
+     */
+    public int getShedRequestCount() {
+        return mRequestStats.getShedRequestCount();
+    }
+
+    /**
+     * @return The number of item part loads that returned {@code null}.
+     */
+    public int getFailedLoadCount() {
+        return mRequestStats.getFailedLoadCount();
+    }
+
+    /**
+     * @return The number of loads retried after a failure.
+     *
+     * @see ItemManager.Builder#setMaxRetries(int)
+     */
+    public int getRetryCount() {
+        return mRequestStats.getRetryCount();
+    }
+
+    /**
+     * @return The number of requests that were not loaded right away because
+     *         their item failed to load recently.
+     *
+     * @see ItemManager.Builder#setFailureTtl(long)
+     */
+    public int getSkippedFailedRequestCount() {
+        return mRequestStats.getSkippedFailedRequestCount();
+    }
+
+    /**
+     * @return The number of loads abandoned because they ran past their
+     *         deadline.
+     *
+     * @see ItemManager.Builder#setLoadDeadline(long)
+     */
+    public int getAbandonedLoadCount() {
+        return mRequestStats.getAbandonedLoadCount();
+    }
+
+    /**
+     * @return The number of duplicate loads started for slow visible items.
+     *
+     * @see ItemManager.Builder#setHedgedLoadsEnabled(boolean)
+     */
+    public int getHedgedLoadCount() {
+        return mRequestStats.getHedgedLoadCount();
+    }
+
+    /**
+     * @return The number of duplicate loads that finished before the load
+     *         they duplicated.
+     */
+    public int getHedgeWinCount() {
+        return mRequestStats.getHedgeWinCount();
+    }
+
+    /**
+     * @return The number of frames missed while scrolling.
+     *
+     * @see ItemManager.Builder#setJankThrottlingEnabled(boolean)
+     */
+    public synchronized int getMissedFrameCount() {
+        return mMissedFrameCount;
+    }
+
+    /**
+     * @return The number of times background loading was throttled
+     *         because frames were missed while scrolling.
+     */
+    public synchronized int getThrottleCount() {
+        return mThrottleCount;
+    }
+
+    /**
+     * @return The number of item update rounds that skipped preloading
+     *         because background loading was throttled.
+     */
+    public synchronized int getPausedPreloadCount() {
+        return mPausedPreloadCount;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>{@code PrefetchCoordinator} shares a preload budget between several
+ * {@link ItemManager}s e.g. one per page in a {@code ViewPager}. Without
+ * it, each manager preloads its own items independently and off-screen
+ * pages compete with the one the user is looking at.</p>
+ *
+ * <p>Managers built with the same coordinator register with it while
+ * their list is attached. The foreground manager gets the preload budget
+ * first. Other managers with their list on screen share what's left,
+ * and managers with their list off screen don't preload at all. The
+ * requests of off-screen lists are also scheduled after all the other
+ * requests of their {@link ItemLoader}. If an off-screen list doesn't
+ * share its loader with the foreground list, that loader is throttled
+ * as well.</p>
+ *
+ * <p>The last touched list becomes the foreground one. Call
+ * {@link #setForeground(ItemManager)} to change it explicitly e.g. when
+ * a new page is selected. All methods must be called on the UI
+ * thread.</p>
+ *
+ * <pre>
+ * PrefetchCoordinator coordinator = new PrefetchCoordinator(12);
+ *
+ * ItemManager.Builder builder = new ItemManager.Builder(loader);
+ * builder.setPreloadItemsEnabled(true).setPreloadItemsCount(12);
+ * builder.setPrefetchCoordinator(coordinator);
+ * </pre>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class PrefetchCoordinator {
+    private final int mPreloadBudget;
+    private final List<ItemManager> mManagers;
+    private ItemManager mForeground;
+    private int mForegroundPreloadCount;
+
+    /**
+     * @param preloadBudget - The maximum number of items preloaded at the
+     *        same time across all the coordinated managers.
+     */
+    public PrefetchCoordinator(int preloadBudget) {
+        if (preloadBudget < 0) {
+            throw new IllegalArgumentException("Preload budget can't be negative");
+        }
+
+        mPreloadBudget = preloadBudget;
+        mManagers = new ArrayList<ItemManager>();
+        mForeground = null;
+        mForegroundPreloadCount = 0;
+    }
+
+    /**
+     * Sets the manager whose list the user is looking at. It gets the
+     * preload budget first, and its requests are never demoted.
+     *
+     * @param manager - The foreground manager.
+     */
+    public void setForeground(ItemManager manager) {
+        if (mForeground == manager) {
+            return;
+        }
+
+        mForeground = manager;
+        mForegroundPreloadCount = 0;
+
+        updateManagers();
+    }
+
+    /**
+     * @return The foreground manager, or {@code null} if there's none.
+     */
+    public ItemManager getForeground() {
+        return mForeground;
+    }
+
+    /**
+     * @return The maximum number of items preloaded at the same time
+     *         across all the coordinated managers.
+     */
+    public int getPreloadBudget() {
+        return mPreloadBudget;
+    }
+
+    void register(ItemManager manager) {
+        // Registered lists might have moved on or off screen since
+        // their last update e.g. while swiping between pages.
+        if (mManagers.contains(manager)) {
+            updateManager(manager);
+            return;
+        }
+
+        mManagers.add(manager);
+
+        // The first list to show up is in the foreground until
+        // another one is touched.
+        if (mForeground == null) {
+            mForeground = manager;
+        }
+
+        updateManagers();
+    }
+
+    void unregister(ItemManager manager) {
+        if (!mManagers.remove(manager)) {
+            return;
+        }
+
+        manager.setBackground(false, false);
+
+        if (mForeground == manager) {
+            mForeground = (mManagers.isEmpty() ? null : mManagers.get(0));
+            mForegroundPreloadCount = 0;
+        }
+
+        updateManagers();
+    }
+
+    int getPreloadItemsCount(ItemManager manager, int preloadItemsCount) {
+        if (manager == mForeground) {
+            mForegroundPreloadCount = Math.min(preloadItemsCount, mPreloadBudget);
+            return mForegroundPreloadCount;
+        }
+
+        if (!manager.isOnScreen()) {
+            return 0;
+        }
+
+        // Other lists on screen share what the foreground list left
+        int onScreenCount = 0;
+        for (ItemManager m : mManagers) {
+            if (m != mForeground && m.isOnScreen()) {
+                onScreenCount++;
+            }
+        }
+
+        final int budget = (mPreloadBudget - mForegroundPreloadCount) / Math.max(1, onScreenCount);
+        return Math.min(preloadItemsCount, budget);
+    }
+
+    boolean isBackground(ItemManager manager) {
+        return (manager != mForeground && !manager.isOnScreen());
+    }
+
+    private void updateManagers() {
+        for (ItemManager manager : mManagers) {
+            updateManager(manager);
+        }
+    }
+
+    private void updateManager(ItemManager manager) {
+        // Off-screen lists sharing their loader with the foreground
+        // list are only demoted, throttling would slow both down.
+        final boolean throttleLoader = (mForeground == null ||
+                manager.getItemLoader() != mForeground.getItemLoader());
+
+        manager.setBackground(isBackground(manager), throttleLoader);
+    }
+}
@@ -45,6 +45,54 @@ public abstract class SimpleItemLoader<Params, Result> extends ItemLoader<Params
      */
     public abstract Result loadItem(Params itemParams);
 
+    @Override
+    final public Result loadItemPart(Params itemParams, int itemPart, int targetWidth, int targetHeight) {
+        return loadItem(itemParams, targetWidth, targetHeight);
+    }
+
+    /**
+     * Loads the item data for a target view with the given size. This method
+     * is called in a background thread. The default implementation simply
+     * calls {@link #loadItem(Object)}.
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(Adapter, int)}.
+     * @param targetWidth - The width of the target item view, or 0 if unknown.
+     * @param targetHeight - The height of the target item view, or 0 if unknown.
+     *
+     * @return The loaded item data.
+     *
+     * @see ItemLoader#loadItemPart(Object, int, int, int)
+     */
+    public Result loadItem(Params itemParams, int targetWidth, int targetHeight) {
+        return loadItem(itemParams);
+    }
+
+    @Override
+    final public Cancellable loadItemPartAsync(Params itemParams, int itemPart,
+            LoadCallback<Result> callback) {
+        return loadItemAsync(itemParams, callback);
+    }
+
+    /**
+     * Starts loading the item data without blocking the calling thread.
+     * This method is called in a background thread. The default
+     * implementation returns {@code null}, in which case the item data is
+     * loaded with {@link #loadItem(Object, int, int)} instead.
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(Adapter, int)}.
+     * @param callback - The callback to deliver the loaded item data to.
+     *
+     * @return A handle to cancel the load, or {@code null} to load the
+     *         item data synchronously instead.
+     *
+     * @see ItemLoader#loadItemPartAsync(Object, int, ItemLoader.LoadCallback)
+     */
+    public Cancellable loadItemAsync(Params itemParams, LoadCallback<Result> callback) {
+        return null;
+    }
+
     @Override
     final public Result loadItemPartFromMemory(Params itemParams, int itemPart) {
         return loadItemFromMemory(itemParams);
@@ -62,6 +110,31 @@ public abstract class SimpleItemLoader<Params, Result> extends ItemLoader<Params
      */
     public abstract Result loadItemFromMemory(Params itemParams);
 
+    @Override
+    final public Result loadItemPartFromMemory(Params itemParams, int itemPart, int targetWidth,
+            int targetHeight) {
+        return loadItemFromMemory(itemParams, targetWidth, targetHeight);
+    }
+
+    /**
+     * Attempts to load the item data for a target view with the given size
+     * from memory. This method is called in the UI thread. The default
+     * implementation simply calls {@link #loadItemFromMemory(Object)}.
+     *
+     * @param itemParams - The parameters generated by
+     *        {@link #getItemParams(Adapter, int)}
+     * @param targetWidth - The width of the target item view, or 0 if unknown.
+     * @param targetHeight - The height of the target item view, or 0 if unknown.
+     *
+     * @return The cached item data, {@code null} if there's none suitable
+     *         for the given size.
+     *
+     * @see ItemLoader#loadItemPartFromMemory(Object, int, int, int)
+     */
+    public Result loadItemFromMemory(Params itemParams, int targetWidth, int targetHeight) {
+        return loadItemFromMemory(itemParams);
+    }
+
     @Override
     final public void displayItemPart(View itemView, Result result, int itemPart,
             boolean fromMemory) {
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lucasr.smoothie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Fetches files from a local stand-in HTTP server which keeps
+ * connections alive and counts connections and concurrent requests.
+ */
+public class HttpFetcherTest {
+    private static final int MAX_CONNECTIONS_PER_HOST = 2;
+    private static final int TIMEOUT = 5000;
+    private static final long SLOW_REPLY_DELAY = 200;
+
+    // Bigger than the fetcher's transfer chunks
+    private static final int BODY_SIZE = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private File mCacheDir;
+    private HttpFetcher mHttpFetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new HttpServer();
+        mCacheDir = mTemporaryFolder.newFolder("fetcher");
+        mHttpFetcher = new HttpFetcher(mCacheDir, 16 * 1024 * 1024, MAX_CONNECTIONS_PER_HOST,
+                TIMEOUT, TIMEOUT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void fetchStreamsResponseBodyIntoCacheFile() throws IOException {
+        final String url = mServer.getUrl("/image");
+
+        final File file = mHttpFetcher.fetch(url);
+        assertEquals(mHttpFetcher.getCacheFile(url), file);
+        assertArrayEquals(HttpServer.getBody("/image"), readFully(new FileInputStream(file)));
+
+        // No temporary files left behind
+        assertEquals(1, mCacheDir.listFiles().length);
+
+        // Served from the cache from now on
+        assertEquals(file, mHttpFetcher.fetch(url));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void fetchReusesKeptAliveConnection() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            mHttpFetcher.fetch(mServer.getUrl("/image" + i));
+        }
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void fetchBoundsConcurrentRequestsPerHost() throws Exception {
+        mServer.setReplyDelay(SLOW_REPLY_DELAY);
+
+        final int fetchCount = MAX_CONNECTIONS_PER_HOST * 3;
+        final ExecutorService executor = Executors.newFixedThreadPool(fetchCount);
+
+        try {
+            final List<Future<File>> futures = new ArrayList<Future<File>>();
+            for (int i = 0; i < fetchCount; i++) {
+                final String url = mServer.getUrl("/image" + i);
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return mHttpFetcher.fetch(url);
+                    }
+                }));
+            }
+
+            for (Future<File> future : futures) {
+                assertTrue(future.get().exists());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(fetchCount, mServer.getRequestCount());
+        assertEquals(MAX_CONNECTIONS_PER_HOST, mServer.getMaxRunningCount());
+    }
+
+    @Test
+    public void fetchStreamsResponseBodyIntoDiskCache() throws IOException {
+        final DiskCache diskCache = new DiskCache(mTemporaryFolder.newFolder("cache"), 4 * BODY_SIZE);
+
+        try {
+            final String url = mServer.getUrl("/image");
+
+            assertArrayEquals(HttpServer.getBody("/image"), readFully(mHttpFetcher.fetch(url, diskCache)));
+            assertTrue(diskCache.contains(url));
+
+            // The downloaded file was moved into the disk cache
+            assertEquals(0, mCacheDir.listFiles().length);
+
+            assertArrayEquals(HttpServer.getBody("/image"), readFully(mHttpFetcher.fetch(url, diskCache)));
+            assertEquals(1, mServer.getRequestCount());
+        } finally {
+            diskCache.close();
+        }
+    }
+
+    @Test
+    public void failedFetchLeavesNoFileBehind() {
+        final String url = mServer.getUrl(HttpServer.MISSING_PATH);
+
+        try {
+            mHttpFetcher.fetch(url);
+            fail("Expected the fetch to fail");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertFalse(mHttpFetcher.getCacheFile(url).exists());
+        assertEquals(0, mCacheDir.listFiles().length);
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+
+            return bytes.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * A minimal HTTP/1.1 server replying to GET requests with a body
+     * generated from the request path. Connections are kept alive until
+     * the client closes them.
+     */
+    private static final class HttpServer implements Runnable {
+        public static final String MISSING_PATH = "/missing";
+
+        private final ServerSocket mServerSocket;
+        private final List<Socket> mSockets;
+        private long mReplyDelay;
+        private int mConnectionCount;
+        private int mRequestCount;
+        private int mRunningCount;
+        private int mMaxRunningCount;
+
+        public HttpServer() throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            mSockets = new ArrayList<Socket>();
+
+            final Thread thread = new Thread(this, "HttpServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public static byte[] getBody(String path) {
+            final byte[] body = new byte[BODY_SIZE];
+            final int seed = path.hashCode();
+
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) (seed + i * 31);
+            }
+
+            return body;
+        }
+
+        public String getUrl(String path) {
+            return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+        }
+
+        public synchronized void setReplyDelay(long replyDelay) {
+            mReplyDelay = replyDelay;
+        }
+
+        public synchronized int getConnectionCount() {
+            return mConnectionCount;
+        }
+
+        public synchronized int getRequestCount() {
+            return mRequestCount;
+        }
+
+        public synchronized int getMaxRunningCount() {
+            return mMaxRunningCount;
+        }
+
+        public synchronized void close() throws IOException {
+            mServerSocket.close();
+
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = mServerSocket.accept();
+                } catch (IOException e) {
+                    // Server closed
+                    return;
+                }
+
+                synchronized (this) {
+                    mSockets.add(socket);
+                    mConnectionCount++;
+                }
+
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "HttpServerConnection");
+
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                final BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                final OutputStream out = socket.getOutputStream();
+
+                String requestLine;
+                while ((requestLine = in.readLine()) != null) {
+                    // Skip the request headers, GET requests have no body
+                    String header;
+                    while ((header = in.readLine()) != null && header.length() > 0) {
+                    }
+
+                    final String path = requestLine.split(" ")[1];
+                    reply(out, path);
+                }
+            } catch (SocketException e) {
+                // Server closed
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                // Server closed
+            }
+        }
+
+        private void reply(OutputStream out, String path) throws IOException, InterruptedException {
+            final long replyDelay;
+            synchronized (this) {
+                mRequestCount++;
+                mRunningCount++;
+                mMaxRunningCount = Math.max(mMaxRunningCount, mRunningCount);
+                replyDelay = mReplyDelay;
+            }
+
+            Thread.sleep(replyDelay);
+
+            // The client only lets the next request in once it read
+            // this reply, stop counting this one as running before.
+            synchronized (this) {
+                mRunningCount--;
+            }
+
+            final byte[] body = (MISSING_PATH.equals(path) ? "Not found".getBytes("US-ASCII") : getBody(path));
+            final String status = (MISSING_PATH.equals(path) ? "404 Not Found" : "200 OK");
+
+            final String headers = "HTTP/1.1 " + status + "\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "\r\n";
+
+            out.write(headers.getBytes("US-ASCII"));
+            out.write(body);
+            out.flush();
+        }
+    }
+}
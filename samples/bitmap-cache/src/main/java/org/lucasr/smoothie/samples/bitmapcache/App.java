@@ -17,32 +17,58 @@
 package org.lucasr.smoothie.samples.bitmapcache;
 
 import java.io.File;
+import java.io.IOException;
+
+import org.lucasr.smoothie.DiskCache;
+import org.lucasr.smoothie.HttpFetcher;
 
 import uk.co.senab.bitmapcache.BitmapLruCache;
 import android.app.Application;
 import android.content.Context;
+import android.util.Log;
 
 public class App extends Application {
+	private static final long DISK_CACHE_SIZE = 32 * 1024 * 1024;
+
 	private BitmapLruCache mCache;
+	private DiskCache mDiskCache;
+	private HttpFetcher mHttpFetcher;
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
 
-        File cacheDir = new File(getCacheDir(), "smoothie");
+		File cacheDir = new File(getCacheDir(), "smoothie");
 		cacheDir.mkdirs();
 
+		// Images are fetched into smoothie's disk cache by HttpFetcher,
+		// the bitmap cache only keeps them in memory.
 		BitmapLruCache.Builder builder = new BitmapLruCache.Builder();
 		builder.setMemoryCacheEnabled(true).setMemoryCacheMaxSizeUsingHeapSize();
-		builder.setDiskCacheEnabled(true).setDiskCacheLocation(cacheDir);
+		builder.setDiskCacheEnabled(false);
 
 		mCache = builder.build();
+		mHttpFetcher = new HttpFetcher(new File(cacheDir, "downloads"));
+
+		try {
+			mDiskCache = new DiskCache(new File(cacheDir, "images"), DISK_CACHE_SIZE);
+		} catch (IOException e) {
+			Log.w("App", "Failed to open disk cache", e);
+		}
 	}
 
 	public BitmapLruCache getBitmapCache() {
 		return mCache;
 	}
 
+	public DiskCache getDiskCache() {
+		return mDiskCache;
+	}
+
+	public HttpFetcher getHttpFetcher() {
+		return mHttpFetcher;
+	}
+
 	public static App getInstance(Context context) {
 		return (App) context.getApplicationContext();
 	}
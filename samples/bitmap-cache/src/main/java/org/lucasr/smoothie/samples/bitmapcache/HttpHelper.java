@@ -17,10 +17,10 @@
 package org.lucasr.smoothie.samples.bitmapcache;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
@@ -28,15 +28,18 @@ import org.json.JSONArray;
 import org.json.JSONException;
 
 public class HttpHelper {
+    private static final int BUFFER_SIZE = 4096;
+
     static private String convertStreamToString(InputStream is) {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        Reader reader = new InputStreamReader(is);
         StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[BUFFER_SIZE];
 
         try {
-            String line = null;
+            int count;
 
-            while ((line = reader.readLine()) != null) {
-                sb.append(line + "\n");
+            while ((count = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, count);
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
@@ -53,6 +56,7 @@ public class HttpHelper {
         try {
             connection = (HttpURLConnection) new URL(url).openConnection();
             connection.setConnectTimeout(5000);
+            connection.setReadTimeout(15000);
 
             is = new BufferedInputStream(connection.getInputStream());
             json = new JSONArray(convertStreamToString(is));
@@ -76,20 +80,4 @@ public class HttpHelper {
 
         return json;
     }
-
-    static public InputStream loadImage(String url) {
-        HttpURLConnection connection = null;
-        InputStream is = null;
-
-        try {
-            connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setConnectTimeout(15000);
-
-            is = new BufferedInputStream(connection.getInputStream());
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
-        }
-
-        return is;
-    }
 }
@@ -24,7 +24,6 @@ import org.json.JSONObject;
 import org.lucasr.smoothie.AsyncListView;
 import org.lucasr.smoothie.ItemManager;
 
-import uk.co.senab.bitmapcache.BitmapLruCache;
 import android.app.Activity;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -39,12 +38,14 @@ public class MainActivity extends Activity {
         setContentView(R.layout.main_activity);
         mListView = (AsyncListView) findViewById(R.id.list);
 
-        BitmapLruCache cache = App.getInstance(this).getBitmapCache();
-        PatternsListLoader loader = new PatternsListLoader(cache);
+        App app = App.getInstance(this);
+        PatternsListLoader loader = new PatternsListLoader(app.getBitmapCache(), app.getDiskCache(),
+                app.getHttpFetcher());
 
         ItemManager.Builder builder = new ItemManager.Builder(loader);
         builder.setPreloadItemsEnabled(true).setPreloadItemsCount(5);
         builder.setThreadPoolSize(4);
+        builder.setMaxPendingRequests(20);
 
         mListView.setItemManager(builder.build());
 
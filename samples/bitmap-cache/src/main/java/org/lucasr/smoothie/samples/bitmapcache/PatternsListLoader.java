@@ -16,6 +16,13 @@
 
 package org.lucasr.smoothie.samples.bitmapcache;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.lucasr.smoothie.DiskCache;
+import org.lucasr.smoothie.HttpFetcher;
 import org.lucasr.smoothie.SimpleItemLoader;
 import org.lucasr.smoothie.samples.bitmapcache.PatternsListAdapter.ViewHolder;
 
@@ -30,9 +37,13 @@ import android.widget.Adapter;
 
 public class PatternsListLoader extends SimpleItemLoader<String, CacheableBitmapDrawable> {
     final BitmapLruCache mCache;
+    final DiskCache mDiskCache;
+    final HttpFetcher mHttpFetcher;
 
-    public PatternsListLoader(BitmapLruCache cache) {
+    public PatternsListLoader(BitmapLruCache cache, DiskCache diskCache, HttpFetcher httpFetcher) {
         mCache = cache;
+        mDiskCache = diskCache;
+        mHttpFetcher = httpFetcher;
     }
 
     @Override
@@ -48,8 +59,30 @@ public class PatternsListLoader extends SimpleItemLoader<String, CacheableBitmap
     @Override
     public CacheableBitmapDrawable loadItem(String url) {
         CacheableBitmapDrawable wrapper = mCache.get(url);
-        if (wrapper == null) {
-            wrapper = mCache.put(url, HttpHelper.loadImage(url));
+        if (wrapper != null) {
+            return wrapper;
+        }
+
+        InputStream is = null;
+        try {
+            if (mDiskCache != null) {
+                is = mHttpFetcher.fetch(url, mDiskCache);
+            } else {
+                File file = mHttpFetcher.fetch(url);
+                is = new FileInputStream(file);
+            }
+
+            wrapper = mCache.put(url, is);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } finally {
+            try {
+                if (is != null) {
+                    is.close();
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
         }
 
         return wrapper;
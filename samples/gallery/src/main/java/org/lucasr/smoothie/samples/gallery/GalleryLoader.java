@@ -16,47 +16,39 @@
 
 package org.lucasr.smoothie.samples.gallery;
 
-import java.io.FileNotFoundException;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
 
-import org.lucasr.smoothie.SimpleItemLoader;
+import org.lucasr.smoothie.EncodedMemoryCache;
+import org.lucasr.smoothie.bitmap.BitmapItemLoader;
 import org.lucasr.smoothie.samples.gallery.GalleryAdapter.ViewHolder;
 
 import android.content.Context;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
 import android.net.Uri;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Images.ImageColumns;
-import android.support.v4.util.LruCache;
 import android.view.View;
 import android.widget.Adapter;
 
-public class GalleryLoader extends SimpleItemLoader<Long, Bitmap> {
+public class GalleryLoader extends BitmapItemLoader<Long> {
+    // Encoded images live off the Java heap
+    private static final int ENCODED_CACHE_SIZE = 16 * 1024 * 1024;
+
     private final Context mContext;
-    private final LruCache<Long, Bitmap> mMemCache;
 
     public GalleryLoader(Context context) {
+        super((int) (Runtime.getRuntime().maxMemory() * 0.4f));
         mContext = context;
 
-        int maxSize = (int) (Runtime.getRuntime().maxMemory() * 0.4f);
-        mMemCache = new LruCache<Long, Bitmap>(maxSize) {
-            @Override
-            protected int sizeOf(Long id, Bitmap bitmap) {
-                return bitmap.getRowBytes() * bitmap.getHeight();
-            }
-        };
-    }
-
-    @Override
-    public Bitmap loadItemFromMemory(Long id) {
-        return mMemCache.get(id);
+        setEncodedMemoryCache(new EncodedMemoryCache<Long>(ENCODED_CACHE_SIZE));
     }
 
     @Override
@@ -65,68 +57,38 @@ public class GalleryLoader extends SimpleItemLoader<Long, Bitmap> {
         return c.getLong(c.getColumnIndex(ImageColumns._ID));
     }
 
-    private int calculateInSampleSize(
-            BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-            if (width > height) {
-                inSampleSize = Math.round((float) height / (float) reqHeight);
-            } else {
-                inSampleSize = Math.round((float) width / (float) reqWidth);
-            }
-        }
-
-        return inSampleSize;
+    @Override
+    public boolean writeItemParams(Long id, DataOutput out) throws IOException {
+        out.writeLong(id);
+        return true;
     }
 
-    private Bitmap decodeSampledBitmapFromResource(Uri imageUri,
-            int reqWidth, int reqHeight) {
-        InputStream is = null;
-        try {
-            is = mContext.getContentResolver().openInputStream(imageUri);
-
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(is, null, options);
-
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-            options.inJustDecodeBounds = false;
-
-            is = mContext.getContentResolver().openInputStream(imageUri);
-            return BitmapFactory.decodeStream(is, null, options);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
-        } finally {
-            try {
-                is.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    @Override
+    public Long readItemParams(DataInput in) throws IOException {
+        return in.readLong();
     }
 
     @Override
-    public Bitmap loadItem(Long id) {
+    protected InputStream openInputStream(Long id) throws IOException {
         Uri imageUri = Uri.withAppendedPath(Images.Media.EXTERNAL_CONTENT_URI, String.valueOf(id));
+        return mContext.getContentResolver().openInputStream(imageUri);
+    }
 
-        Resources res = mContext.getResources();
-        int width = res.getDimensionPixelSize(R.dimen.image_width);
-        int height = res.getDimensionPixelSize(R.dimen.image_height);
-
-        Bitmap bitmap = decodeSampledBitmapFromResource(imageUri, width, height);
-        if (bitmap != null) {
-            mMemCache.put(id, bitmap);
+    @Override
+    public Bitmap loadItem(Long id, int width, int height) {
+        // The target view hasn't been measured yet, fall back to the
+        // default item size.
+        if (width <= 0 || height <= 0) {
+            Resources res = mContext.getResources();
+            width = res.getDimensionPixelSize(R.dimen.image_width);
+            height = res.getDimensionPixelSize(R.dimen.image_height);
         }
 
-        return bitmap;
+        return super.loadItem(id, width, height);
     }
 
     @Override
-    public void displayItem(View itemView, Bitmap result, boolean fromMemory) {
+    public void displayBitmap(View itemView, Bitmap result, boolean fromMemory) {
         if (result == null) {
             return;
         }
@@ -16,8 +16,11 @@
 
 package org.lucasr.smoothie.samples.gallery;
 
+import java.io.File;
+
 import org.lucasr.smoothie.AsyncGridView;
 import org.lucasr.smoothie.ItemManager;
+import org.lucasr.smoothie.ItemManagerHolder;
 
 import android.database.Cursor;
 import android.os.Bundle;
@@ -33,6 +36,7 @@ public class MainActivity extends FragmentActivity implements LoaderManager.Load
 
     private AsyncGridView mGridView;
     private GalleryAdapter mGalleryAdapter;
+    private ItemManager mItemManager;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -46,13 +50,37 @@ public class MainActivity extends FragmentActivity implements LoaderManager.Load
 
         getSupportLoaderManager().initLoader(GALLERY_LOADER, null, this);
 
-        GalleryLoader loader = new GalleryLoader(this);
+        mItemManager = ItemManagerHolder.obtain(this, "gallery", new ItemManagerHolder.Factory() {
+            @Override
+            public ItemManager createItemManager() {
+                // The loader outlives this activity, see ItemManagerHolder
+                GalleryLoader loader = new GalleryLoader(getApplicationContext());
+
+                ItemManager.Builder builder = new ItemManager.Builder(loader);
+                builder.setPreloadItemsEnabled(true).setPreloadRowsCount(4);
+                builder.setThreadPoolSize(4);
+                builder.setSynchronousMemoryHitsEnabled(true);
+                builder.setDeadlineSchedulingEnabled(true);
+                builder.setJankThrottlingEnabled(true);
+                builder.setTrimMemoryEnabled(true);
+                builder.setWarmStartFile(new File(getCacheDir(), "gallery.snapshot"));
 
-        ItemManager.Builder builder = new ItemManager.Builder(loader);
-        builder.setPreloadItemsEnabled(true).setPreloadItemsCount(12);
-        builder.setThreadPoolSize(4);
+                return builder.build();
+            }
+        });
+        mGridView.setItemManager(mItemManager);
+    }
 
-        mGridView.setItemManager(builder.build());
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mItemManager.resume();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mItemManager.pause();
     }
 
     @Override
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.lucasr.smoothie.core.ItemSource;
+
+/**
+ * {@code FakeItemSource} is a loader with simulated load times and an
+ * LRU memory cache. Item parameters and results are just positions.
+ * Loads are asynchronous, their results are delivered on the
+ * {@link SimulationLoop} once the simulated load time is over.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+final class FakeItemSource implements ItemSource<SimulatedItemView, Integer, Integer> {
+    private final SimulationLoop mLoop;
+    private final Random mRandom;
+    private final LatencyDistribution mLatencyDistribution;
+    private final float mFailureRate;
+    private final int mItemCount;
+    private final Map<String, Integer> mMemoryCache;
+    private final Set<String> mUnusedLoads;
+
+    private SimulatedLoad mLastLoad;
+    private int mLoadCount;
+    private int mCancelledLoadCount;
+    private int mMemoryHitCount;
+    private int mWastedLoadCount;
+    private Listener mListener;
+
+    public interface Listener {
+        public void onItemPartDisplayed(SimulatedItemView view, int itemPart, boolean fromMemory);
+    }
+
+    public FakeItemSource(SimulationLoop loop, Random random, LatencyDistribution latencyDistribution,
+            float failureRate, int itemCount, final int memoryCacheSize) {
+        mLoop = loop;
+        mRandom = random;
+        mLatencyDistribution = latencyDistribution;
+        mFailureRate = failureRate;
+        mItemCount = itemCount;
+        mUnusedLoads = new HashSet<String>();
+
+        mMemoryCache = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                if (size() <= memoryCacheSize) {
+                    return false;
+                }
+
+                // Loaded but evicted before ever being displayed
+                if (mUnusedLoads.remove(eldest.getKey())) {
+                    mWastedLoadCount++;
+                }
+
+                return true;
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return The parameters of the item at the given position, or
+     *         {@code null} if it's out of the list.
+     */
+    public Integer getItemParams(int position) {
+        return (position >= 0 && position < mItemCount ? position : null);
+    }
+
+    @Override
+    public int getTargetWidth(SimulatedItemView target) {
+        // Simulated views are never measured
+        return 0;
+    }
+
+    @Override
+    public int getTargetHeight(SimulatedItemView target) {
+        return 0;
+    }
+
+    @Override
+    public Integer loadItemPartFromMemory(Integer itemParams, int itemPart, int targetWidth,
+            int targetHeight) {
+        return mMemoryCache.get(generateKey(itemParams, itemPart));
+    }
+
+    @Override
+    public Integer loadItemPart(Integer itemParams, int itemPart, int targetWidth, int targetHeight) {
+        throw new UnsupportedOperationException("Simulated loads are asynchronous");
+    }
+
+    @Override
+    public Cancellable loadItemPartAsync(Integer itemParams, int itemPart,
+            LoadCallback<Integer> callback) {
+        final long latency = Math.max(0, mLatencyDistribution.sample(mRandom));
+        final boolean failed = (mRandom.nextFloat() < mFailureRate);
+
+        final SimulatedLoad load = new SimulatedLoad(itemParams, itemPart, (failed ? null : itemParams),
+                callback);
+        mLoop.postDelayed(load, latency);
+
+        mLoadCount++;
+        mLastLoad = load;
+
+        return load;
+    }
+
+    @Override
+    public void displayItemPart(SimulatedItemView target, Integer result, int itemPart,
+            boolean fromMemory) {
+        mUnusedLoads.remove(generateKey(result, itemPart));
+
+        if (fromMemory) {
+            mMemoryHitCount++;
+        }
+
+        if (mListener != null) {
+            mListener.onItemPartDisplayed(target, itemPart, fromMemory);
+        }
+    }
+
+    @Override
+    public void retainItemPart(Integer result, int itemPart) {
+        // Results are just positions, nothing to hold on to
+    }
+
+    @Override
+    public void releaseItemPart(Integer result, int itemPart) {
+    }
+
+    @Override
+    public boolean writeItemParams(Integer itemParams, DataOutput out) throws IOException {
+        out.writeInt(itemParams);
+        return true;
+    }
+
+    @Override
+    public Integer readItemParams(DataInput in) throws IOException {
+        return in.readInt();
+    }
+
+    /**
+     * @return The last load started, or {@code null} if no load started
+     *         since the last call.
+     */
+    public SimulatedLoad takeLastLoad() {
+        final SimulatedLoad load = mLastLoad;
+        mLastLoad = null;
+        return load;
+    }
+
+    /**
+     * @return The number of loads started.
+     */
+    public int getLoadCount() {
+        return mLoadCount;
+    }
+
+    /**
+     * @return The number of loads cancelled while running.
+     */
+    public int getCancelledLoadCount() {
+        return mCancelledLoadCount;
+    }
+
+    /**
+     * @return The number of item parts displayed from memory.
+     */
+    public int getMemoryHitCount() {
+        return mMemoryHitCount;
+    }
+
+    /**
+     * @return The number of loads whose result was never displayed.
+     */
+    public int getWastedLoadCount() {
+        return mWastedLoadCount + mUnusedLoads.size();
+    }
+
+    private static String generateKey(int position, int itemPart) {
+        return position + ":" + itemPart;
+    }
+
+    /**
+     * A running load. Its result lands in the memory cache and is
+     * delivered when it runs on the loop, unless cancelled before.
+     */
+    final class SimulatedLoad implements Runnable, Cancellable {
+        private final Integer mItemParams;
+        private final int mItemPart;
+        private final Integer mResult;
+        private final LoadCallback<Integer> mCallback;
+
+        private Runnable mDoneRunnable;
+        private boolean mDone;
+
+        public SimulatedLoad(Integer itemParams, int itemPart, Integer result,
+                LoadCallback<Integer> callback) {
+            mItemParams = itemParams;
+            mItemPart = itemPart;
+            mResult = result;
+            mCallback = callback;
+            mDoneRunnable = null;
+            mDone = false;
+        }
+
+        /**
+         * Sets the task to run once the load lands or is cancelled, right
+         * away if it's done already.
+         */
+        public void setDoneRunnable(Runnable doneRunnable) {
+            if (mDone) {
+                mLoop.post(doneRunnable);
+            } else {
+                mDoneRunnable = doneRunnable;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mResult != null) {
+                final String key = generateKey(mItemParams, mItemPart);
+                mMemoryCache.put(key, mResult);
+                mUnusedLoads.add(key);
+            }
+
+            done();
+            mCallback.onItemPartLoaded(mResult);
+        }
+
+        @Override
+        public void cancel() {
+            if (mDone) {
+                return;
+            }
+
+            mLoop.removeCallbacks(this);
+            mCancelledLoadCount++;
+
+            done();
+        }
+
+        private void done() {
+            mDone = true;
+
+            if (mDoneRunnable != null) {
+                mLoop.post(mDoneRunnable);
+                mDoneRunnable = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import java.util.Random;
+
+/**
+ * {@code LatencyDistribution} generates the load times of the fake
+ * loaders used by the {@link Simulator}.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public abstract class LatencyDistribution {
+    /**
+     * @param random - The random number generator of the simulation.
+     *
+     * @return A load time, in milliseconds.
+     */
+    public abstract long sample(Random random);
+
+    /**
+     * @param latency - The load time, in milliseconds.
+     *
+     * @return A distribution always returning the same load time.
+     */
+    public static LatencyDistribution fixed(final long latency) {
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return latency;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed(" + latency + ")";
+            }
+        };
+    }
+
+    /**
+     * @param min - The minimum load time, in milliseconds.
+     * @param max - The maximum load time, in milliseconds.
+     *
+     * @return A distribution of load times uniformly spread between the
+     *         given bounds.
+     */
+    public static LatencyDistribution uniform(final long min, final long max) {
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return min + (long) (random.nextDouble() * (max - min));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + min + ", " + max + ")";
+            }
+        };
+    }
+
+    /**
+     * @param latencies - Recorded load times, in milliseconds e.g. from
+     *        {@link ScrollTrace#getLoadLatencies()}. Must not be empty.
+     *
+     * @return A distribution picking one of the given load times at random.
+     */
+    public static LatencyDistribution recorded(long[] latencies) {
+        if (latencies.length == 0) {
+            throw new IllegalArgumentException("No recorded load times");
+        }
+
+        final long[] samples = latencies.clone();
+
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return samples[random.nextInt(samples.length)];
+            }
+
+            @Override
+            public String toString() {
+                return "recorded(" + samples.length + " loads)";
+            }
+        };
+    }
+
+    /**
+     * Network load times usually follow a log-normal distribution: most
+     * loads take about the median, with a long tail of slow ones.
+     *
+     * @param median - The median load time, in milliseconds.
+     * @param sigma - The standard deviation of the logarithm of the load
+     *        times. The higher, the longer the tail.
+     *
+     * @return A log-normal distribution of load times.
+     */
+    public static LatencyDistribution logNormal(final long median, final double sigma) {
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return (long) (median * Math.exp(sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "logNormal(" + median + ", " + sigma + ")";
+            }
+        };
+    }
+}
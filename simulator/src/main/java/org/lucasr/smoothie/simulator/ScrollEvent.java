@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+/**
+ * {@code ScrollEvent} is one sample of a recorded scroll trace, usually
+ * one per frame.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class ScrollEvent {
+    // Same values as AbsListView.OnScrollListener's
+    public static final int SCROLL_STATE_IDLE = 0;
+    public static final int SCROLL_STATE_TOUCH_SCROLL = 1;
+    public static final int SCROLL_STATE_FLING = 2;
+
+    /**
+     * The time of the sample, in milliseconds since the start of the trace.
+     */
+    public final long time;
+
+    /**
+     * The scroll position, in rows. The integer part is the first
+     * visible row, the fractional part how much of it is scrolled out.
+     */
+    public final float position;
+
+    /**
+     * The scroll velocity, in rows per second. Positive when scrolling
+     * towards the end of the list. Informative only, the simulator
+     * measures the velocity from the positions as {@code ItemManager} does.
+     */
+    public final float velocity;
+
+    /**
+     * One of the {@code SCROLL_STATE_*} constants.
+     */
+    public final int scrollState;
+
+    /**
+     * Whether a finger is on the screen.
+     */
+    public final boolean touching;
+
+    public ScrollEvent(long time, float position, float velocity, int scrollState, boolean touching) {
+        this.time = time;
+        this.position = position;
+        this.velocity = velocity;
+        this.scrollState = scrollState;
+        this.touching = touching;
+    }
+}
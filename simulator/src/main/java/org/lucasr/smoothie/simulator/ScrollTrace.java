@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lucasr.smoothie.core.ScrollRecordReader;
+import org.lucasr.smoothie.core.ScrollRecorder;
+
+/**
+ * <p>{@code ScrollTrace} is a recorded sequence of {@link ScrollEvent}s
+ * to be replayed by the {@link Simulator}.</p>
+ *
+ * <p>The text format has one event per line, with blank lines and lines
+ * starting with {@code #} ignored:</p>
+ *
+ * <pre>
+ * # time position velocity scrollState touching
+ * 0 0.0 0.0 0 0
+ * 16 0.1 6.2 1 1
+ * </pre>
+ *
+ * <p>Traces can also be read from logs recorded on devices by a
+ * {@link ScrollRecorder}, see {@link #readBinary(InputStream)}. These
+ * also carry the load times of the recorded loads.</p>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class ScrollTrace {
+    private final List<ScrollEvent> mEvents;
+    private final long[] mLoadLatencies;
+
+    /**
+     * @param events - The events, in time order.
+     */
+    public ScrollTrace(List<ScrollEvent> events) {
+        this(events, new long[0]);
+    }
+
+    /**
+     * @param events - The events, in time order.
+     * @param loadLatencies - The load times recorded along with the
+     *        events, in milliseconds.
+     */
+    public ScrollTrace(List<ScrollEvent> events, long[] loadLatencies) {
+        mEvents = Collections.unmodifiableList(new ArrayList<ScrollEvent>(events));
+        mLoadLatencies = loadLatencies.clone();
+    }
+
+    /**
+     * @return The events, in time order.
+     */
+    public List<ScrollEvent> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @return The load times recorded along with the events, in
+     *         milliseconds. Empty if none were recorded.
+     */
+    public long[] getLoadLatencies() {
+        return mLoadLatencies.clone();
+    }
+
+    /**
+     * @return The time of the last event, in milliseconds.
+     */
+    public long getDuration() {
+        return (mEvents.isEmpty() ? 0 : mEvents.get(mEvents.size() - 1).time);
+    }
+
+    /**
+     * Reads a trace in the text format.
+     *
+     * @param reader - The reader to read the trace from.
+     *
+     * @return The trace.
+     *
+     * @throws IOException If the trace can't be read or is malformed.
+     */
+    public static ScrollTrace readText(Reader reader) throws IOException {
+        final BufferedReader in = new BufferedReader(reader);
+        final List<ScrollEvent> events = new ArrayList<ScrollEvent>();
+
+        String line;
+        int lineNumber = 0;
+
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] fields = line.split("\\s+");
+            if (fields.length != 5) {
+                throw new IOException("Malformed scroll event at line " + lineNumber);
+            }
+
+            try {
+                events.add(new ScrollEvent(Long.parseLong(fields[0]), Float.parseFloat(fields[1]),
+                        Float.parseFloat(fields[2]), Integer.parseInt(fields[3]),
+                        Integer.parseInt(fields[4]) != 0));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed scroll event at line " + lineNumber);
+            }
+        }
+
+        return new ScrollTrace(events);
+    }
+
+    /**
+     * Reads a trace from a log written by a {@link ScrollRecorder}. Event
+     * times are made relative to the first record, and velocities are
+     * derived from consecutive scroll positions. Load times are taken from
+     * the successful loads, from their first start to their finish.
+     *
+     * @param in - The stream to read the log from.
+     *
+     * @return The trace.
+     *
+     * @throws IOException If the log can't be read or is malformed.
+     */
+    public static ScrollTrace readBinary(InputStream in) throws IOException {
+        final RecordListener listener = new RecordListener();
+        ScrollRecordReader.read(in, listener);
+
+        final long[] loadLatencies = new long[listener.loadLatencies.size()];
+        for (int i = 0; i < loadLatencies.length; i++) {
+            loadLatencies[i] = listener.loadLatencies.get(i);
+        }
+
+        return new ScrollTrace(listener.events, loadLatencies);
+    }
+
+    private static final class RecordListener implements ScrollRecordReader.Listener {
+        public final List<ScrollEvent> events = new ArrayList<ScrollEvent>();
+        public final List<Long> loadLatencies = new ArrayList<Long>();
+
+        private final Map<String, Long> mLoadStartTimes = new HashMap<String, Long>();
+
+        private long mStartTime = -1;
+        private long mTime;
+        private float mPosition;
+        private float mVelocity;
+        private int mScrollState;
+        private boolean mTouching;
+
+        @Override
+        public void onKeyFrame(long time, float position, int scrollState, boolean touching) {
+            // Key frames only carry state, and the log starts with
+            // an empty one before anything was recorded.
+            mPosition = position;
+            mScrollState = scrollState;
+            mTouching = touching;
+        }
+
+        @Override
+        public void onScroll(long time, float position) {
+            if (mStartTime >= 0 && time > mTime) {
+                mVelocity = (position - mPosition) * 1000 / (time - mTime);
+            }
+
+            mPosition = position;
+            addEvent(time);
+        }
+
+        @Override
+        public void onScrollStateChanged(long time, int scrollState) {
+            mScrollState = scrollState;
+            if (scrollState == ScrollEvent.SCROLL_STATE_IDLE) {
+                mVelocity = 0;
+            }
+
+            addEvent(time);
+        }
+
+        @Override
+        public void onTouch(long time, boolean touching) {
+            mTouching = touching;
+            addEvent(time);
+        }
+
+        @Override
+        public void onUpdate(long time, int firstVisiblePosition, int lastVisiblePosition,
+                int preloadCount) {
+            // The simulator computes its own visible ranges
+        }
+
+        @Override
+        public void onLoadStart(long time, int position, int itemPart, boolean visible) {
+            // Hedged loads start again for the same item part, the
+            // load time is counted from the first start.
+            final String key = generateLoadKey(position, itemPart);
+            if (!mLoadStartTimes.containsKey(key)) {
+                mLoadStartTimes.put(key, time);
+            }
+        }
+
+        @Override
+        public void onLoadFinish(long time, int position, int itemPart, boolean loaded) {
+            final Long startTime = mLoadStartTimes.remove(generateLoadKey(position, itemPart));
+            if (startTime != null && loaded) {
+                loadLatencies.add(Math.max(0, time - startTime));
+            }
+        }
+
+        @Override
+        public void onLoadCancel(long time, int position, int itemPart) {
+            mLoadStartTimes.remove(generateLoadKey(position, itemPart));
+        }
+
+        @Override
+        public void onMemoryHit(long time, int position, int itemPart) {
+            // The simulator has its own memory cache
+        }
+
+        private static String generateLoadKey(int position, int itemPart) {
+            return position + ":" + itemPart;
+        }
+
+        private void addEvent(long time) {
+            if (mStartTime < 0) {
+                mStartTime = time;
+            }
+
+            mTime = time;
+            events.add(new ScrollEvent(time - mStartTime, mPosition, mVelocity, mScrollState,
+                    mTouching));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+import org.lucasr.smoothie.core.LoadExecutor;
+
+/**
+ * {@code SimulatedExecutor} simulates the thread pool of a
+ * {@code LoadScheduler}, running the pending loads in priority order.
+ * Loads start instantly on the {@link SimulationLoop}, and hold their
+ * worker until the {@link FakeItemSource} delivers their result or they
+ * get cancelled, as a blocking load would.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+final class SimulatedExecutor implements LoadExecutor {
+    private final SimulationLoop mLoop;
+    private final FakeItemSource mSource;
+
+    // Live, like a thread pool's queue, and iterated over by the
+    // scheduler while it removes tasks from it.
+    private final List<Runnable> mQueue;
+
+    // Tasks submitted but not started, cancelled ones are counted
+    // as cancelled requests.
+    private final Set<Future<?>> mUnstartedTasks;
+
+    private final Runnable mDispatchRunnable;
+    private final Runnable mWorkerDoneRunnable;
+
+    private int mMaxRunningCount;
+    private int mRunningCount;
+    private boolean mPaused;
+
+    public SimulatedExecutor(SimulationLoop loop, FakeItemSource source, int maxRunningCount) {
+        mLoop = loop;
+        mSource = source;
+        mQueue = new CopyOnWriteArrayList<Runnable>();
+        mUnstartedTasks = new HashSet<Future<?>>();
+
+        mDispatchRunnable = new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+
+        mWorkerDoneRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mRunningCount--;
+                dispatch();
+            }
+        };
+
+        mMaxRunningCount = maxRunningCount;
+        mRunningCount = 0;
+        mPaused = false;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mQueue.add(task);
+        mUnstartedTasks.add((Future<?>) task);
+
+        // Start the task once the current main thread task is done, as
+        // a real pool would.
+        mLoop.post(mDispatchRunnable);
+    }
+
+    @Override
+    public boolean remove(Runnable task) {
+        return mQueue.remove(task);
+    }
+
+    @Override
+    public void purge() {
+        for (Runnable task : mQueue) {
+            if (((Future<?>) task).isCancelled()) {
+                mQueue.remove(task);
+            }
+        }
+    }
+
+    @Override
+    public Collection<Runnable> getQueue() {
+        return mQueue;
+    }
+
+    @Override
+    public void setMaxRunningCount(int maxRunningCount) {
+        mMaxRunningCount = maxRunningCount;
+        mLoop.post(mDispatchRunnable);
+    }
+
+    @Override
+    public void setPaused(boolean paused) {
+        mPaused = paused;
+
+        if (!paused) {
+            mLoop.post(mDispatchRunnable);
+        }
+    }
+
+    @Override
+    public int prestartAllCoreThreads() {
+        // Simulated workers don't need starting
+        return 0;
+    }
+
+    /**
+     * @return The number of tasks cancelled before they started.
+     */
+    public int getCancelledCount() {
+        int count = 0;
+        for (Future<?> task : mUnstartedTasks) {
+            if (task.isCancelled()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private void dispatch() {
+        while (!mPaused && mRunningCount < mMaxRunningCount && !mQueue.isEmpty()) {
+            final Runnable task = takeFirstTask();
+            if (((Future<?>) task).isCancelled()) {
+                continue;
+            }
+
+            mUnstartedTasks.remove(task);
+            mRunningCount++;
+
+            task.run();
+
+            // The task might have skipped loading e.g. its target was
+            // recycled in the meantime.
+            final FakeItemSource.SimulatedLoad load = mSource.takeLastLoad();
+            if (load != null) {
+                load.setDoneRunnable(mWorkerDoneRunnable);
+            } else {
+                mLoop.post(mWorkerDoneRunnable);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Runnable takeFirstTask() {
+        // Priorities change while tasks are queued, look for the first
+        // one at dispatch time instead of keeping a sorted queue.
+        int first = 0;
+        for (int i = 1; i < mQueue.size(); i++) {
+            final Comparable<Object> task = (Comparable<Object>) mQueue.get(i);
+            if (task.compareTo(mQueue.get(first)) < 0) {
+                first = i;
+            }
+        }
+
+        return mQueue.remove(first);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+/**
+ * {@code SimulatedItemView} stands for a list item view. Views are
+ * recycled between positions as the simulated list scrolls.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+final class SimulatedItemView {
+    private int mPosition;
+    private int mDisplayedPartCount;
+    private long mVisibleSince;
+    private boolean mComplete;
+
+    public SimulatedItemView() {
+        mPosition = -1;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+
+    public void bind(int position, long now) {
+        mPosition = position;
+        mDisplayedPartCount = 0;
+        mVisibleSince = now;
+        mComplete = false;
+    }
+
+    public void unbind() {
+        mPosition = -1;
+    }
+
+    /**
+     * @return Whether all parts are displayed now, for the first time
+     *         since the view was bound.
+     */
+    public boolean onItemPartDisplayed(int partCount) {
+        mDisplayedPartCount++;
+
+        if (!mComplete && mDisplayedPartCount >= partCount) {
+            mComplete = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public long getVisibleSince() {
+        return mVisibleSince;
+    }
+}
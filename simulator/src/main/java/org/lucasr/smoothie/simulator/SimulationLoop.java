@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import org.lucasr.smoothie.core.Clock;
+import org.lucasr.smoothie.core.Dispatcher;
+
+/**
+ * {@code SimulationLoop} is the simulated main thread. It runs posted
+ * tasks in virtual time order, time only moves forward when the loop is
+ * advanced with {@link #runUntil(long)}. Tasks posted at the same time
+ * run in the order they were posted. It's the {@link Clock} and the
+ * {@link Dispatcher} of the simulated {@code LoadScheduler}.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+final class SimulationLoop implements Clock, Dispatcher {
+    private final PriorityQueue<Event> mEvents;
+    private long mNow;
+    private long mNextSequence;
+
+    public SimulationLoop() {
+        mEvents = new PriorityQueue<Event>();
+        mNow = 0;
+        mNextSequence = 0;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mNow;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delay) {
+        mEvents.add(new Event(mNow + delay, mNextSequence++, task));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        for (Iterator<Event> i = mEvents.iterator(); i.hasNext();) {
+            if (i.next().task == task) {
+                i.remove();
+            }
+        }
+    }
+
+    @Override
+    public boolean isDispatchThread() {
+        // Loads, and everything else, run on the loop
+        return true;
+    }
+
+    /**
+     * Runs all tasks due until the given time and moves the clock to it.
+     *
+     * @param time - The virtual time to run until.
+     */
+    public void runUntil(long time) {
+        while (!mEvents.isEmpty() && mEvents.peek().time <= time) {
+            final Event event = mEvents.poll();
+            mNow = Math.max(mNow, event.time);
+            event.task.run();
+        }
+
+        mNow = Math.max(mNow, time);
+    }
+
+    private static final class Event implements Comparable<Event> {
+        public final long time;
+        public final long sequence;
+        public final Runnable task;
+
+        public Event(long time, long sequence, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event another) {
+            if (time != another.time) {
+                return (time < another.time ? -1 : 1);
+            }
+
+            if (sequence != another.sequence) {
+                return (sequence < another.sequence ? -1 : 1);
+            }
+
+            return 0;
+        }
+    }
+}
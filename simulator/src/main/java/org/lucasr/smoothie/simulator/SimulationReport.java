@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import java.util.Arrays;
+
+import org.lucasr.smoothie.core.RequestStats;
+
+/**
+ * {@code SimulationReport} holds the results of a {@link Simulator} run.
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class SimulationReport {
+    private final int mFrameCount;
+    private final int mJankFrameCount;
+    private final long[] mTimesToDisplay;
+    private final int mLoadCount;
+    private final int mCancelledCount;
+    private final int mWastedLoadCount;
+    private final int mMemoryHitCount;
+    private final RequestStats mRequestStats;
+
+    SimulationReport(int frameCount, int jankFrameCount, long[] timesToDisplay, int loadCount,
+            int cancelledCount, int wastedLoadCount, int memoryHitCount, RequestStats requestStats) {
+        mFrameCount = frameCount;
+        mJankFrameCount = jankFrameCount;
+        mTimesToDisplay = timesToDisplay.clone();
+        mLoadCount = loadCount;
+        mCancelledCount = cancelledCount;
+        mWastedLoadCount = wastedLoadCount;
+        mMemoryHitCount = memoryHitCount;
+        mRequestStats = requestStats;
+
+        Arrays.sort(mTimesToDisplay);
+    }
+
+    /**
+     * @return The number of simulated frames.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The number of frames with at least one visible item not
+     *         fully displayed.
+     */
+    public int getJankFrameCount() {
+        return mJankFrameCount;
+    }
+
+    /**
+     * @param percentile - The percentile, between 0 and 100.
+     *
+     * @return The given percentile of the time between items coming into
+     *         view and being fully displayed, in milliseconds, or -1 if no
+     *         item was displayed.
+     */
+    public long getTimeToDisplay(float percentile) {
+        if (mTimesToDisplay.length == 0) {
+            return -1;
+        }
+
+        final int index = (int) Math.ceil(percentile / 100 * mTimesToDisplay.length) - 1;
+        return mTimesToDisplay[Math.max(0, Math.min(index, mTimesToDisplay.length - 1))];
+    }
+
+    /**
+     * @return The number of loads started.
+     */
+    public int getLoadCount() {
+        return mLoadCount;
+    }
+
+    /**
+     * @return The number of requests cancelled before being displayed.
+     */
+    public int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * @return The number of completed loads whose result was never
+     *         displayed.
+     */
+    public int getWastedLoadCount() {
+        return mWastedLoadCount;
+    }
+
+    /**
+     * @return The number of item parts displayed from memory.
+     */
+    public int getMemoryHitCount() {
+        return mMemoryHitCount;
+    }
+
+    /**
+     * @return The share of item part requests served from memory.
+     */
+    public float getMemoryHitRatio() {
+        final int total = mMemoryHitCount + mLoadCount;
+        return (total > 0 ? (float) mMemoryHitCount / total : 0);
+    }
+
+    /**
+     * @return The counters of the simulated scheduler e.g. shed requests,
+     *         retries and hedged loads.
+     */
+    public RequestStats getRequestStats() {
+        return mRequestStats;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("frames:            ").append(mFrameCount).append('\n');
+        sb.append("jank frames:       ").append(mJankFrameCount);
+        if (mFrameCount > 0) {
+            sb.append(String.format(" (%.1f%%)", 100f * mJankFrameCount / mFrameCount));
+        }
+        sb.append('\n');
+
+        sb.append("time to display:   p50=").append(getTimeToDisplay(50))
+          .append("ms p90=").append(getTimeToDisplay(90))
+          .append("ms p99=").append(getTimeToDisplay(99)).append("ms\n");
+
+        sb.append("loads:             ").append(mLoadCount).append('\n');
+        sb.append("cancelled:         ").append(mCancelledCount).append('\n');
+        sb.append("wasted loads:      ").append(mWastedLoadCount).append('\n');
+        sb.append(String.format("memory hit ratio:  %.3f", getMemoryHitRatio())).append('\n');
+
+        sb.append("shed requests:     ").append(mRequestStats.getShedRequestCount()).append('\n');
+        sb.append("failed loads:      ").append(mRequestStats.getFailedLoadCount()).append('\n');
+        sb.append("retries:           ").append(mRequestStats.getRetryCount()).append('\n');
+        sb.append("abandoned loads:   ").append(mRequestStats.getAbandonedLoadCount()).append('\n');
+        sb.append("hedged loads:      ").append(mRequestStats.getHedgedLoadCount())
+          .append(" (").append(mRequestStats.getHedgeWinCount()).append(" won)");
+
+        return sb.toString();
+    }
+}
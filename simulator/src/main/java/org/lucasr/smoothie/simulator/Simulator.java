@@ -0,0 +1,668 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.lucasr.smoothie.core.LoadExecutor;
+import org.lucasr.smoothie.core.LoadScheduler;
+import org.lucasr.smoothie.core.PreloadWindow;
+import org.lucasr.smoothie.core.ScrollVelocity;
+
+/**
+ * <p>{@code Simulator} replays recorded {@link ScrollTrace}s against the
+ * {@link LoadScheduler} behind {@code ItemLoader}, headless and
+ * deterministically. Time is virtual, loads are simulated with load times
+ * drawn from a {@link LatencyDistribution}, and the list follows the same
+ * update policy as {@code ItemManager}: items are loaded as views are
+ * bound unless flinging, and updated when the finger is lifted or, after
+ * a delay, once a fling stops. Preload deadlines are estimated with the
+ * same {@link ScrollVelocity} policy, from the scroll positions.</p>
+ *
+ * <p>Each run produces a {@link SimulationReport} with the number of
+ * frames showing unloaded items, time-to-display percentiles, wasted
+ * loads, the memory hit ratio and the scheduler's
+ * {@link org.lucasr.smoothie.core.RequestStats}. Runs with the same
+ * trace, settings and seed always produce the same report, so preloading
+ * and scheduling policies can be tuned and regression-tested offline.</p>
+ *
+ * <pre>
+ * Simulator.Builder builder = new Simulator.Builder();
+ * builder.setThreadCount(4).setPreloadRowsCount(3);
+ * builder.setLatencyDistribution(LatencyDistribution.logNormal(120, 0.5));
+ *
+ * SimulationReport report = builder.build().run(trace);
+ * </pre>
+ *
+ * @author Lucas Rocha <lucasr@lucasr.org>
+ */
+public final class Simulator {
+    private static final long FRAME_TIME = 16;
+
+    // Time simulated after the end of the trace for pending
+    // loads to land.
+    private static final long SETTLE_TIME = 2000;
+
+    // Same as ItemManager
+    private static final long DELAY_SHOW_ITEMS = 550;
+
+    private final int mThreadCount;
+    private final int mItemCount;
+    private final int mNumColumns;
+    private final float mVisibleRowsCount;
+    private final int mPreloadRowsCount;
+    private final int mItemPartCount;
+    private final int mMemoryCacheSize;
+    private final LatencyDistribution mLatencyDistribution;
+    private final float mFailureRate;
+    private final int mMaxPendingRequests;
+    private final long mFailureTtl;
+    private final int mMaxRetries;
+    private final long mLoadDeadline;
+    private final boolean mHedgedLoadsEnabled;
+    private final boolean mDeadlineSchedulingEnabled;
+    private final long mSeed;
+
+    private Simulator(int threadCount, int itemCount, int numColumns, float visibleRowsCount,
+            int preloadRowsCount, int itemPartCount, int memoryCacheSize,
+            LatencyDistribution latencyDistribution, float failureRate, int maxPendingRequests,
+            long failureTtl, int maxRetries, long loadDeadline, boolean hedgedLoadsEnabled,
+            boolean deadlineSchedulingEnabled, long seed) {
+        mThreadCount = threadCount;
+        mItemCount = itemCount;
+        mNumColumns = numColumns;
+        mVisibleRowsCount = visibleRowsCount;
+        mPreloadRowsCount = preloadRowsCount;
+        mItemPartCount = itemPartCount;
+        mMemoryCacheSize = memoryCacheSize;
+        mLatencyDistribution = latencyDistribution;
+        mFailureRate = failureRate;
+        mMaxPendingRequests = maxPendingRequests;
+        mFailureTtl = failureTtl;
+        mMaxRetries = maxRetries;
+        mLoadDeadline = loadDeadline;
+        mHedgedLoadsEnabled = hedgedLoadsEnabled;
+        mDeadlineSchedulingEnabled = deadlineSchedulingEnabled;
+        mSeed = seed;
+    }
+
+    /**
+     * Replays the given trace.
+     *
+     * @param trace - The scroll trace to replay.
+     *
+     * @return The results of the run.
+     */
+    public SimulationReport run(ScrollTrace trace) {
+        return new Run().replay(trace);
+    }
+
+    /**
+     * Replays a trace file with the default settings. Files with a
+     * {@code .bin} extension are read as logs written by a
+     * {@link org.lucasr.smoothie.core.ScrollRecorder}, other files in the
+     * text format. Loads take the recorded load times, if the log has any.
+     * Usage: {@code Simulator <trace file> [thread count] [preload rows]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: Simulator <trace file> [thread count] [preload rows]");
+            System.exit(1);
+        }
+
+        final ScrollTrace trace = readTrace(args[0]);
+
+        final Builder builder = new Builder();
+        if (args.length > 1) {
+            builder.setThreadCount(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            builder.setPreloadRowsCount(Integer.parseInt(args[2]));
+        }
+
+        final long[] loadLatencies = trace.getLoadLatencies();
+        if (loadLatencies.length > 0) {
+            builder.setLatencyDistribution(LatencyDistribution.recorded(loadLatencies));
+        }
+
+        final Simulator simulator = builder.build();
+
+        System.out.println("== Default scheduling");
+        System.out.println(simulator.run(trace));
+
+        System.out.println("== Deadline scheduling");
+        System.out.println(builder.setDeadlineSchedulingEnabled(true).build().run(trace));
+    }
+
+    private final class Run implements FakeItemSource.Listener, LoadExecutor.Factory {
+        private final SimulationLoop mLoop;
+        private final FakeItemSource mSource;
+        private final LoadScheduler<SimulatedItemView, Integer, Integer> mScheduler;
+        private SimulatedExecutor mExecutor;
+
+        private final Map<Integer, SimulatedItemView> mVisibleViews;
+        private final LinkedList<SimulatedItemView> mRecycledViews;
+        private final List<Long> mTimesToDisplay;
+
+        private final Runnable mUpdateRunnable;
+        private final ScrollVelocity mScrollVelocity;
+
+        private int mScrollState;
+        private boolean mTouching;
+        private boolean mPendingUpdate;
+        private int mLastVisiblePosition;
+        private long mLastUpdateTimestamp;
+
+        private int mFrameCount;
+        private int mJankFrameCount;
+
+        public Run() {
+            mLoop = new SimulationLoop();
+            mSource = new FakeItemSource(mLoop, new Random(mSeed), mLatencyDistribution,
+                    mFailureRate, mItemCount, mMemoryCacheSize);
+            mSource.setListener(this);
+
+            mScheduler = new LoadScheduler.Builder<SimulatedItemView, Integer, Integer>(mSource,
+                    mLoop, mLoop)
+                    .setThreadPoolSize(mThreadCount)
+                    .setMaxPendingRequests(mMaxPendingRequests)
+                    .setFailureTtl(mFailureTtl)
+                    .setMaxRetries(mMaxRetries)
+                    .setLoadDeadline(mLoadDeadline)
+                    .setHedgedLoadsEnabled(mHedgedLoadsEnabled)
+                    .setExecutorFactory(this)
+                    .build();
+            mExecutor = null;
+
+            mVisibleViews = new TreeMap<Integer, SimulatedItemView>();
+            mRecycledViews = new LinkedList<SimulatedItemView>();
+            mTimesToDisplay = new ArrayList<Long>();
+
+            mUpdateRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    mPendingUpdate = false;
+                    updateItems();
+                }
+            };
+
+            mScrollVelocity = new ScrollVelocity();
+
+            mScrollState = ScrollEvent.SCROLL_STATE_IDLE;
+            mTouching = false;
+            mPendingUpdate = false;
+            mLastVisiblePosition = -1;
+            mLastUpdateTimestamp = 0;
+        }
+
+        public SimulationReport replay(ScrollTrace trace) {
+            ScrollEvent last = null;
+
+            for (ScrollEvent event : trace.getEvents()) {
+                runFrame(event);
+                last = event;
+            }
+
+            // Let pending loads land, without scrolling any further
+            if (last != null) {
+                final long end = last.time + SETTLE_TIME;
+                for (long time = last.time + FRAME_TIME; time <= end; time += FRAME_TIME) {
+                    runFrame(new ScrollEvent(time, last.position, 0,
+                            ScrollEvent.SCROLL_STATE_IDLE, false));
+                }
+            }
+
+            final long[] timesToDisplay = new long[mTimesToDisplay.size()];
+            for (int i = 0; i < timesToDisplay.length; i++) {
+                timesToDisplay[i] = mTimesToDisplay.get(i);
+            }
+
+            // Requests cancelled before their load started, or while running
+            final int cancelledCount = (mExecutor != null ? mExecutor.getCancelledCount() : 0) +
+                    mSource.getCancelledLoadCount();
+
+            return new SimulationReport(mFrameCount, mJankFrameCount, timesToDisplay,
+                    mSource.getLoadCount(), cancelledCount, mSource.getWastedLoadCount(),
+                    mSource.getMemoryHitCount(), mScheduler.getStats());
+        }
+
+        @Override
+        public LoadExecutor createLoadExecutor(int maxRunningCount, int maximumPoolSize) {
+            mExecutor = new SimulatedExecutor(mLoop, mSource, maxRunningCount);
+            return mExecutor;
+        }
+
+        @Override
+        public void onItemPartDisplayed(SimulatedItemView view, int itemPart, boolean fromMemory) {
+            if (view.onItemPartDisplayed(mItemPartCount)) {
+                mTimesToDisplay.add(mLoop.uptimeMillis() - view.getVisibleSince());
+            }
+        }
+
+        private void runFrame(ScrollEvent event) {
+            mLoop.runUntil(event.time);
+
+            layoutItems(event.position);
+            updateScrollState(event);
+
+            mFrameCount++;
+
+            for (SimulatedItemView view : mVisibleViews.values()) {
+                if (!view.isComplete()) {
+                    mJankFrameCount++;
+                    break;
+                }
+            }
+        }
+
+        private void layoutItems(float position) {
+            final int firstRow = (int) Math.max(0, Math.floor(position));
+            final int lastRow = (int) Math.ceil(Math.max(0, position) + mVisibleRowsCount) - 1;
+
+            final int firstPosition = firstRow * mNumColumns;
+            final int lastPosition = Math.min((lastRow + 1) * mNumColumns, mItemCount) - 1;
+
+            // Recycle the views scrolled out of the viewport
+            for (Iterator<Map.Entry<Integer, SimulatedItemView>> i = mVisibleViews.entrySet().iterator();
+                    i.hasNext();) {
+                final Map.Entry<Integer, SimulatedItemView> entry = i.next();
+                final int viewPosition = entry.getKey();
+
+                if (viewPosition < firstPosition || viewPosition > lastPosition) {
+                    entry.getValue().unbind();
+                    mRecycledViews.add(entry.getValue());
+                    i.remove();
+                }
+            }
+
+            // Bind views for the positions scrolled in, as the adapter would
+            for (int i = firstPosition; i <= lastPosition; i++) {
+                if (mVisibleViews.containsKey(i)) {
+                    continue;
+                }
+
+                final SimulatedItemView view =
+                        (mRecycledViews.isEmpty() ? new SimulatedItemView() : mRecycledViews.removeFirst());
+                view.bind(i, mLoop.uptimeMillis());
+                mVisibleViews.put(i, view);
+
+                // Memory hits are displayed right away, as with
+                // ItemManager.Builder#setSynchronousMemoryHitsEnabled().
+                final boolean shouldDisplayItem =
+                        (mScrollState != ScrollEvent.SCROLL_STATE_FLING && !mPendingUpdate);
+                mScheduler.performLoadItem(this, view, mSource.getItemParams(i), i, mItemPartCount,
+                        0, shouldDisplayItem, true);
+            }
+
+            mLastVisiblePosition = lastPosition;
+        }
+
+        private void updateScrollState(ScrollEvent event) {
+            final boolean stoppedFling = (mScrollState == ScrollEvent.SCROLL_STATE_FLING &&
+                                          event.scrollState != ScrollEvent.SCROLL_STATE_FLING);
+
+            if (stoppedFling) {
+                mLoop.removeCallbacks(mUpdateRunnable);
+                mLoop.postDelayed(mUpdateRunnable, (event.touching ? DELAY_SHOW_ITEMS : 0));
+                mPendingUpdate = true;
+            } else if (event.scrollState == ScrollEvent.SCROLL_STATE_FLING) {
+                mLoop.removeCallbacks(mUpdateRunnable);
+                mPendingUpdate = false;
+            } else if (mTouching && !event.touching) {
+                // Finger lifted without flinging
+                mLoop.removeCallbacks(mUpdateRunnable);
+                mLoop.post(mUpdateRunnable);
+                mPendingUpdate = true;
+            }
+
+            mScrollState = event.scrollState;
+            mTouching = event.touching;
+
+            // Measured from the scroll positions while scrolling, and
+            // kept once idle, as ItemManager does.
+            if (mScrollState == ScrollEvent.SCROLL_STATE_IDLE) {
+                mScrollVelocity.stop();
+            } else {
+                mScrollVelocity.addPosition(event.time, event.position);
+            }
+        }
+
+        private void updateItems() {
+            final long now = mLoop.uptimeMillis();
+            long timestamp = now;
+
+            for (SimulatedItemView view : mVisibleViews.values()) {
+                mScheduler.performDisplayItem(this, view, timestamp++);
+            }
+
+            final int firstPreloadPosition = mLastVisiblePosition + 1;
+            final int endPreloadPosition = PreloadWindow.getEndPosition(firstPreloadPosition,
+                    mPreloadRowsCount, mNumColumns, mItemCount);
+
+            for (int i = firstPreloadPosition; i < endPreloadPosition; i++) {
+                final int row = PreloadWindow.getRow(firstPreloadPosition, i, mNumColumns);
+                final long deadline = (mDeadlineSchedulingEnabled ?
+                        mScrollVelocity.estimateRowDeadline(now, row + 1) : 0);
+
+                for (int part = 0; part < mItemPartCount; part++) {
+                    mScheduler.performPreloadItemPart(this, mSource.getItemParams(i), i, part, 0,
+                            timestamp + row, deadline);
+                }
+            }
+
+            timestamp += mPreloadRowsCount;
+
+            // Pending requests not touched since the last update are
+            // obsolete, as with ItemManager.
+            mScheduler.cancelObsoleteRequests(this, mLastUpdateTimestamp);
+            mLastUpdateTimestamp = timestamp;
+        }
+    }
+
+    /**
+     * Builder class for {@link Simulator}.
+     */
+    public static final class Builder {
+        private static final int DEFAULT_THREAD_COUNT = 2;
+        private static final int DEFAULT_ITEM_COUNT = 1000;
+        private static final int DEFAULT_NUM_COLUMNS = 1;
+        private static final float DEFAULT_VISIBLE_ROWS_COUNT = 6.5f;
+        private static final int DEFAULT_PRELOAD_ROWS_COUNT = 4;
+        private static final int DEFAULT_ITEM_PART_COUNT = 1;
+        private static final int DEFAULT_MEMORY_CACHE_SIZE = 50;
+        private static final float DEFAULT_FAILURE_RATE = 0;
+        private static final int DEFAULT_MAX_PENDING_REQUESTS = 0;
+        private static final long DEFAULT_FAILURE_TTL = 0;
+        private static final int DEFAULT_MAX_RETRIES = 0;
+        private static final long DEFAULT_LOAD_DEADLINE = 0;
+        private static final long DEFAULT_SEED = 0;
+
+        private int mThreadCount;
+        private int mItemCount;
+        private int mNumColumns;
+        private float mVisibleRowsCount;
+        private int mPreloadRowsCount;
+        private int mItemPartCount;
+        private int mMemoryCacheSize;
+        private LatencyDistribution mLatencyDistribution;
+        private float mFailureRate;
+        private int mMaxPendingRequests;
+        private long mFailureTtl;
+        private int mMaxRetries;
+        private long mLoadDeadline;
+        private boolean mHedgedLoadsEnabled;
+        private boolean mDeadlineSchedulingEnabled;
+        private long mSeed;
+
+        public Builder() {
+            mThreadCount = DEFAULT_THREAD_COUNT;
+            mItemCount = DEFAULT_ITEM_COUNT;
+            mNumColumns = DEFAULT_NUM_COLUMNS;
+            mVisibleRowsCount = DEFAULT_VISIBLE_ROWS_COUNT;
+            mPreloadRowsCount = DEFAULT_PRELOAD_ROWS_COUNT;
+            mItemPartCount = DEFAULT_ITEM_PART_COUNT;
+            mMemoryCacheSize = DEFAULT_MEMORY_CACHE_SIZE;
+            mLatencyDistribution = LatencyDistribution.logNormal(100, 0.5);
+            mFailureRate = DEFAULT_FAILURE_RATE;
+            mMaxPendingRequests = DEFAULT_MAX_PENDING_REQUESTS;
+            mFailureTtl = DEFAULT_FAILURE_TTL;
+            mMaxRetries = DEFAULT_MAX_RETRIES;
+            mLoadDeadline = DEFAULT_LOAD_DEADLINE;
+            mHedgedLoadsEnabled = false;
+            mDeadlineSchedulingEnabled = false;
+            mSeed = DEFAULT_SEED;
+        }
+
+        /**
+         * Sets the number of loader threads. Defaults to
+         * {@value #DEFAULT_THREAD_COUNT}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setThreadCount(int threadCount) {
+            mThreadCount = threadCount;
+            return this;
+        }
+
+        /**
+         * Sets the number of items in the list. Defaults to
+         * {@value #DEFAULT_ITEM_COUNT}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setItemCount(int itemCount) {
+            mItemCount = itemCount;
+            return this;
+        }
+
+        /**
+         * Sets the number of items per row, more than one for grids.
+         * Defaults to {@value #DEFAULT_NUM_COLUMNS}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setNumColumns(int numColumns) {
+            mNumColumns = numColumns;
+            return this;
+        }
+
+        /**
+         * Sets the number of rows fitting the viewport. Defaults to
+         * {@value #DEFAULT_VISIBLE_ROWS_COUNT}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setVisibleRowsCount(float visibleRowsCount) {
+            mVisibleRowsCount = visibleRowsCount;
+            return this;
+        }
+
+        /**
+         * Sets the number of rows preloaded beyond the viewport, 0 to
+         * disable preloading. Defaults to {@value #DEFAULT_PRELOAD_ROWS_COUNT}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setPreloadRowsCount(int preloadRowsCount) {
+            mPreloadRowsCount = preloadRowsCount;
+            return this;
+        }
+
+        /**
+         * Sets the number of parts each item is loaded in. Defaults to
+         * {@value #DEFAULT_ITEM_PART_COUNT}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setItemPartCount(int itemPartCount) {
+            mItemPartCount = itemPartCount;
+            return this;
+        }
+
+        /**
+         * Sets the number of item parts kept by the fake loader's memory
+         * cache. Defaults to {@value #DEFAULT_MEMORY_CACHE_SIZE}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setMemoryCacheSize(int memoryCacheSize) {
+            mMemoryCacheSize = memoryCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the distribution of simulated load times. Defaults to a
+         * log-normal distribution with a median of 100ms.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setLatencyDistribution(LatencyDistribution latencyDistribution) {
+            mLatencyDistribution = latencyDistribution;
+            return this;
+        }
+
+        /**
+         * Sets the share of simulated loads failing, between 0 and 1.
+         * Defaults to {@value #DEFAULT_FAILURE_RATE}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setFailureRate(float failureRate) {
+            mFailureRate = failureRate;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of queued requests, as with
+         * {@code ItemManager.Builder#setMaxPendingRequests}. Defaults to
+         * {@value #DEFAULT_MAX_PENDING_REQUESTS}, no limit.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setMaxPendingRequests(int maxPendingRequests) {
+            mMaxPendingRequests = maxPendingRequests;
+            return this;
+        }
+
+        /**
+         * Sets how long failed item parts are remembered, as with
+         * {@code ItemManager.Builder#setFailureTtl}. Defaults to
+         * {@value #DEFAULT_FAILURE_TTL}, failures are not tracked.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setFailureTtl(long failureTtl) {
+            mFailureTtl = failureTtl;
+            return this;
+        }
+
+        /**
+         * Sets how many times failed loads for visible items are retried,
+         * as with {@code ItemManager.Builder#setMaxRetries}. Defaults to
+         * {@value #DEFAULT_MAX_RETRIES}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the time after which a running load is abandoned, as with
+         * {@code ItemManager.Builder#setLoadDeadline}. Defaults to
+         * {@value #DEFAULT_LOAD_DEADLINE}, no deadline.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setLoadDeadline(long loadDeadline) {
+            mLoadDeadline = loadDeadline;
+            return this;
+        }
+
+        /**
+         * Sets whether slow loads for visible items are hedged, as with
+         * {@code ItemManager.Builder#setHedgedLoadsEnabled}. Disabled by
+         * default.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setHedgedLoadsEnabled(boolean hedgedLoadsEnabled) {
+            mHedgedLoadsEnabled = hedgedLoadsEnabled;
+            return this;
+        }
+
+        /**
+         * Sets whether preloads are scheduled earliest deadline first, as
+         * with {@code ItemManager.Builder#setDeadlineSchedulingEnabled}.
+         * Disabled by default.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setDeadlineSchedulingEnabled(boolean deadlineSchedulingEnabled) {
+            mDeadlineSchedulingEnabled = deadlineSchedulingEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the seed of the simulated load times. Defaults to
+         * {@value #DEFAULT_SEED}.
+         *
+         * @return This Builder object to allow for chaining of calls to set
+         *         methods.
+         */
+        public Builder setSeed(long seed) {
+            mSeed = seed;
+            return this;
+        }
+
+        /**
+         * @return A new {@link Simulator} created with the arguments
+         *         supplied to this builder.
+         */
+        public Simulator build() {
+            return new Simulator(mThreadCount, mItemCount, mNumColumns, mVisibleRowsCount,
+                    mPreloadRowsCount, mItemPartCount, mMemoryCacheSize, mLatencyDistribution,
+                    mFailureRate, mMaxPendingRequests, mFailureTtl, mMaxRetries, mLoadDeadline,
+                    mHedgedLoadsEnabled, mDeadlineSchedulingEnabled, mSeed);
+        }
+    }
+
+    private static ScrollTrace readTrace(String path) throws IOException {
+        if (path.endsWith(".bin")) {
+            final InputStream in = new BufferedInputStream(new FileInputStream(path));
+            try {
+                return ScrollTrace.readBinary(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        final Reader reader = new FileReader(path);
+        try {
+            return ScrollTrace.readText(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.lucasr.smoothie.core.ScrollRecorder;
+
+public class ScrollTraceTest {
+    @Test
+    public void readsRecordedLoadTimes() throws IOException {
+        final ScrollRecorder recorder = new ScrollRecorder(8192);
+
+        recorder.recordScrollState(1000, ScrollEvent.SCROLL_STATE_TOUCH_SCROLL);
+        recorder.recordLoadStart(1000, 1, 0, true);
+        recorder.recordLoadStart(1000, 2, 0, false);
+        recorder.recordLoadStart(1000, 3, 0, false);
+        recorder.recordScroll(1016, 0.5f);
+
+        // Hedged load for position 1
+        recorder.recordLoadStart(1100, 1, 0, true);
+        recorder.recordLoadFinish(1120, 2, 0, true);
+        recorder.recordLoadCancel(1130, 3, 0);
+        recorder.recordLoadFinish(1150, 1, 0, true);
+        recorder.recordLoadStart(1200, 4, 0, false);
+        recorder.recordLoadFinish(1400, 4, 0, false);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+
+        final ScrollTrace trace = ScrollTrace.readBinary(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(2, trace.getEvents().size());
+        assertEquals(16, trace.getDuration());
+
+        // Failed and cancelled loads are left out
+        assertArrayEquals(new long[] { 120, 150 }, trace.getLoadLatencies());
+    }
+
+    @Test
+    public void textTracesHaveNoLoadTimes() throws IOException {
+        final ScrollTrace trace = ScrollTrace.readText(new StringReader("0 0.0 0.0 0 0\n"));
+
+        assertEquals(1, trace.getEvents().size());
+        assertEquals(0, trace.getLoadLatencies().length);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 Lucas Rocha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lucasr.smoothie.simulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lucasr.smoothie.core.LoadExecutor;
+import org.lucasr.smoothie.core.LoadScheduler;
+
+public class SimulatedExecutorTest {
+    private static final Object CONTAINER = new Object();
+    private static final long LATENCY = 100;
+
+    private SimulationLoop mLoop;
+    private FakeItemSource mSource;
+    private SimulatedExecutor mExecutor;
+    private List<Integer> mDisplayed;
+
+    @Before
+    public void setUp() {
+        mLoop = new SimulationLoop();
+        mSource = new FakeItemSource(mLoop, new Random(0), LatencyDistribution.fixed(LATENCY), 0,
+                100, 10);
+        mDisplayed = new ArrayList<Integer>();
+
+        mSource.setListener(new FakeItemSource.Listener() {
+            @Override
+            public void onItemPartDisplayed(SimulatedItemView view, int itemPart, boolean fromMemory) {
+                mDisplayed.add(view.getPosition());
+            }
+        });
+    }
+
+    @Test
+    public void loadsHoldTheirWorkerUntilDelivered() {
+        final LoadScheduler<SimulatedItemView, Integer, Integer> scheduler = newScheduler(1, 0);
+
+        bind(scheduler, 1);
+        bind(scheduler, 2);
+
+        mLoop.runUntil(LATENCY - 1);
+        assertEquals(1, mSource.getLoadCount());
+
+        mLoop.runUntil(LATENCY);
+        assertEquals(2, mSource.getLoadCount());
+        assertEquals(1, mDisplayed.size());
+
+        mLoop.runUntil(2 * LATENCY);
+        assertEquals(2, mDisplayed.size());
+    }
+
+    @Test
+    public void visibleItemsLoadBeforePreloads() {
+        final LoadScheduler<SimulatedItemView, Integer, Integer> scheduler = newScheduler(1, 0);
+
+        scheduler.performPreloadItemPart(CONTAINER, 5, 5, 0, 0, 1, 0);
+        scheduler.performPreloadItemPart(CONTAINER, 6, 6, 0, 0, 2, 0);
+        bind(scheduler, 7);
+
+        mLoop.runUntil(LATENCY);
+        assertEquals(1, mDisplayed.size());
+        assertEquals(Integer.valueOf(7), mDisplayed.get(0));
+
+        mLoop.runUntil(3 * LATENCY);
+        assertEquals(3, mSource.getLoadCount());
+
+        // Preloads are displayed from memory once their items show up
+        bind(scheduler, 5);
+        assertEquals(1, mSource.getMemoryHitCount());
+    }
+
+    @Test
+    public void recycledViewsCancelTheirRunningLoad() {
+        final LoadScheduler<SimulatedItemView, Integer, Integer> scheduler = newScheduler(1, 0);
+
+        final SimulatedItemView view = bind(scheduler, 1);
+        mLoop.runUntil(LATENCY / 2);
+
+        view.bind(2, mLoop.uptimeMillis());
+        scheduler.performLoadItem(CONTAINER, view, 2, 2, 1, 0, true, true);
+        mLoop.runUntil(2 * LATENCY);
+
+        // The cancelled load frees its worker for the new one right away
+        assertEquals(1, mSource.getCancelledLoadCount());
+        assertEquals(2, mSource.getLoadCount());
+        assertEquals(1, mDisplayed.size());
+        assertEquals(Integer.valueOf(2), mDisplayed.get(0));
+    }
+
+    @Test
+    public void pausedLoadsWaitUntilResumed() {
+        final LoadScheduler<SimulatedItemView, Integer, Integer> scheduler = newScheduler(2, 0);
+        scheduler.setPaused(true);
+
+        bind(scheduler, 1);
+        mLoop.runUntil(2 * LATENCY);
+        assertEquals(0, mSource.getLoadCount());
+
+        scheduler.setPaused(false);
+        mLoop.runUntil(4 * LATENCY);
+        assertEquals(1, mDisplayed.size());
+    }
+
+    @Test
+    public void shedRequestsAreCountedAsCancelled() {
+        final LoadScheduler<SimulatedItemView, Integer, Integer> scheduler = newScheduler(1, 1);
+
+        scheduler.performPreloadItemPart(CONTAINER, 5, 5, 0, 0, 1, 0);
+        scheduler.performPreloadItemPart(CONTAINER, 6, 6, 0, 0, 2, 0);
+
+        assertEquals(1, scheduler.getStats().getShedRequestCount());
+        assertEquals(1, mExecutor.getCancelledCount());
+
+        mLoop.runUntil(2 * LATENCY);
+        assertEquals(1, mSource.getLoadCount());
+    }
+
+    @Test
+    public void runsAreDeterministic() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        float position = 0;
+        for (int i = 0; i < 200; i++) {
+            position += (i < 100 ? 0.1f : 0);
+            final int scrollState = (i < 100 ? ScrollEvent.SCROLL_STATE_TOUCH_SCROLL :
+                    ScrollEvent.SCROLL_STATE_IDLE);
+            sb.append(i * 16).append(' ').append(position).append(" 0.0 ")
+              .append(scrollState).append(' ').append(i < 100 ? 1 : 0).append('\n');
+        }
+
+        final ScrollTrace trace = ScrollTrace.readText(new StringReader(sb.toString()));
+
+        final Simulator.Builder builder = new Simulator.Builder();
+        builder.setFailureRate(0.2f).setFailureTtl(5000).setMaxRetries(2).setSeed(42);
+
+        final SimulationReport first = builder.build().run(trace);
+        final SimulationReport second = builder.build().run(trace);
+
+        assertTrue(first.getRequestStats().getFailedLoadCount() > 0);
+        assertEquals(first.toString(), second.toString());
+    }
+
+    private LoadScheduler<SimulatedItemView, Integer, Integer> newScheduler(int threadCount,
+            int maxPendingRequests) {
+        return new LoadScheduler.Builder<SimulatedItemView, Integer, Integer>(mSource, mLoop, mLoop)
+                .setThreadPoolSize(threadCount)
+                .setMaxPendingRequests(maxPendingRequests)
+                .setExecutorFactory(new LoadExecutor.Factory() {
+                    @Override
+                    public LoadExecutor createLoadExecutor(int maxRunningCount, int maximumPoolSize) {
+                        mExecutor = new SimulatedExecutor(mLoop, mSource, maxRunningCount);
+                        return mExecutor;
+                    }
+                })
+                .build();
+    }
+
+    private SimulatedItemView bind(LoadScheduler<SimulatedItemView, Integer, Integer> scheduler,
+            int position) {
+        final SimulatedItemView view = new SimulatedItemView();
+        view.bind(position, mLoop.uptimeMillis());
+        scheduler.performLoadItem(CONTAINER, view, position, position, 1, 0, true, true);
+
+        return view;
+    }
+}